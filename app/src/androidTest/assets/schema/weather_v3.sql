@@ -0,0 +1,8 @@
+-- The schema of version 3 of weather.db, and a few rows to migrate
+CREATE TABLE location (_id INTEGER PRIMARY KEY, location_setting TEXT UNIQUE NOT NULL, city_name TEXT NOT NULL, coord_lat REAL NOT NULL, coord_long REAL NOT NULL, city_id INTEGER);
+CREATE TABLE weather (_id INTEGER PRIMARY KEY AUTOINCREMENT, location_id INTEGER NOT NULL, date INTEGER NOT NULL, short_desc TEXT NOT NULL, weather_id INTEGER NOT NULL, min REAL NOT NULL, max REAL NOT NULL, humidity REAL NOT NULL, pressure REAL NOT NULL, wind REAL NOT NULL, degrees REAL NOT NULL, FOREIGN KEY (location_id) REFERENCES location (_id), UNIQUE (date, location_id) ON CONFLICT REPLACE);
+INSERT INTO location VALUES (1, '94043', 'Mountain View', 37.4, -122.08, 5375480);
+INSERT INTO location VALUES (2, 'London,UK', 'London', 51.51, -0.13, 2643743);
+INSERT INTO weather VALUES (1, 1, 1419033600000, 'Clear', 800, 8.5, 16.25, 72, 1021.5, 3.2, 270);
+INSERT INTO weather VALUES (2, 1, 1419120000000, 'Rain', 500, 6.0, 11.75, 90, 1008.0, 7.5, 225);
+INSERT INTO weather VALUES (3, 2, 1419033600000, 'Clouds', 803, -2.5, 4.0, 81, 1030.25, 1.5, 90);
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+    Not a pass/fail test: replaces the forecasts of many locations in sync-sized transactions
+    on one thread while another reads a location's forecast the way the UI's CursorLoader
+    does, once with the rollback journal and once with write-ahead logging, and logs the read
+    latency percentiles of each, so they can be compared with
+    "adb logcat -s TestContentionBenchmark".  Each mode gets a database of its own.
+ */
+public class TestContentionBenchmark extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestContentionBenchmark.class.getSimpleName();
+
+    private static final String TEST_DATABASE_NAME = "contention_benchmark.db";
+
+    // A sync of every location writes each one's window, WRITE_GROUP_SIZE per transaction
+    private static final int LOCATION_COUNT = 100;
+    private static final int WRITE_GROUP_SIZE = 10;
+    private static final int DAYS = 14;
+    private static final int MEASURED_READS = 500;
+
+    private static final String SQL_READ_FORECAST = "SELECT " +
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID + ", " +
+            WeatherEntry.COLUMN_DATE + ", " +
+            WeatherEntry.COLUMN_SHORT_DESC + ", " +
+            WeatherEntry.COLUMN_MAX_TEMP + ", " +
+            WeatherEntry.COLUMN_MIN_TEMP + ", " +
+            WeatherEntry.COLUMN_WEATHER_ID +
+            " FROM " + WeatherEntry.TABLE_NAME + " INNER JOIN " + LocationEntry.TABLE_NAME +
+            " ON " + WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_LOC_KEY +
+            " = " + LocationEntry.TABLE_NAME + "." + LocationEntry._ID +
+            " WHERE " + LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+            WeatherEntry.COLUMN_DATE + " >= ? ORDER BY " + WeatherEntry.COLUMN_DATE + " ASC";
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testBenchmarkReadsDuringWrites() throws Exception {
+        benchmark(false);
+        benchmark(true);
+    }
+
+    private void benchmark(boolean writeAheadLogging) throws Exception {
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+        final WeatherDbHelper helper =
+                new WeatherDbHelper(mContext, TEST_DATABASE_NAME, writeAheadLogging);
+        final long[] locationIds = addLocations(helper.getWritableDatabase());
+        final long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        final WeatherIngestor ingestor = new WeatherIngestor(helper);
+        ingestor.replace(createBatches(locationIds, 0, locationIds.length, today, 0));
+
+        final AtomicBoolean stop = new AtomicBoolean();
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                // Every pass changes every day, so each transaction really writes
+                for (int pass = 1; !stop.get(); pass++) {
+                    for (int i = 0; i < locationIds.length && !stop.get();
+                         i += WRITE_GROUP_SIZE) {
+                        ingestor.replace(createBatches(locationIds, i,
+                                Math.min(locationIds.length, i + WRITE_GROUP_SIZE), today, pass));
+                    }
+                }
+            }
+        });
+        writer.start();
+
+        long[] readNanos = new long[MEASURED_READS];
+        try {
+            SQLiteDatabase db = helper.getReadableDatabase();
+            String[] args = {locationSetting(0), Long.toString(today)};
+            for (int i = 0; i < MEASURED_READS; i++) {
+                long start = SystemClock.elapsedRealtimeNanos();
+                Cursor cursor = db.rawQuery(SQL_READ_FORECAST, args);
+                // Filling the window is where a blocked read waits
+                assertEquals(DAYS, cursor.getCount());
+                cursor.close();
+                readNanos[i] = SystemClock.elapsedRealtimeNanos() - start;
+            }
+        } finally {
+            stop.set(true);
+            writer.join();
+            ingestor.close();
+            helper.close();
+        }
+
+        Arrays.sort(readNanos);
+        Log.i(LOG_TAG, String.format(Locale.US,
+                "%s, %d reads during writes: p50 %dus, p90 %dus, p99 %dus",
+                writeAheadLogging ? "WAL" : "rollback journal", MEASURED_READS,
+                percentile(readNanos, 50) / 1000, percentile(readNanos, 90) / 1000,
+                percentile(readNanos, 99) / 1000));
+    }
+
+    private static String locationSetting(int i) {
+        return "contention " + i;
+    }
+
+    private static long[] addLocations(SQLiteDatabase db) {
+        long[] locationIds = new long[LOCATION_COUNT];
+        for (int i = 0; i < LOCATION_COUNT; i++) {
+            ContentValues values = new ContentValues();
+            values.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting(i));
+            values.put(LocationEntry.COLUMN_CITY_NAME, locationSetting(i));
+            values.put(LocationEntry.COLUMN_COORD_LAT, 0.0);
+            values.put(LocationEntry.COLUMN_COORD_LONG, 0.0);
+            locationIds[i] = db.insert(LocationEntry.TABLE_NAME, null, values);
+        }
+        return locationIds;
+    }
+
+    // The forecast windows of locations from to end, with values that differ per pass
+    private static ForecastBatch[] createBatches(long[] locationIds, int from, int end,
+                                                 long today, int pass) {
+        ForecastBatch[] batches = new ForecastBatch[end - from];
+        for (int i = from; i < end; i++) {
+            ForecastBatch batch = new ForecastBatch(DAYS);
+            batch.setLocationId(locationIds[i]);
+            batch.setLocationSetting(locationSetting(i));
+            for (int day = 0; day < DAYS; day++) {
+                batch.add(today + day * 24L * 60 * 60 * 1000, 800, "Clear", 10 + pass % 7,
+                        20 + pass % 7, 50, 1013, 3.5, 180);
+            }
+            batches[i - from] = batch;
+        }
+        return batches;
+    }
+
+    // The sorted samples' value at the given percentile
+    private static long percentile(long[] sorted, int percentile) {
+        int index = (int) Math.ceil(sorted.length * percentile / 100.0) - 1;
+        return sorted[Math.max(0, index)];
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Checks that maintenance deletes exactly the rows past their retention and the forecasts of
+    deleted locations, switches the database to incremental auto-vacuum once, hands the pages
+    deletes free back to the file system, and only re-analyzes once the row counts drift.
+ */
+public class TestDatabaseMaintenance extends AndroidTestCase {
+
+    private static final String TEST_DATABASE_NAME = "maintenance.db";
+
+    private static final long DAY_IN_MILLIS = 24L * 60 * 60 * 1000;
+
+    private WeatherDbHelper mDbHelper;
+    private DatabaseMaintenance mMaintenance;
+    // Keeps yesterday's forecasts, so the tests can tell the retention from the trimming
+    private DatabaseMaintenance.Retention[] mRetention;
+    private long mNow;
+    private long mToday;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+        mDbHelper = new WeatherDbHelper(mContext, TEST_DATABASE_NAME, true);
+        mMaintenance = new DatabaseMaintenance(mDbHelper);
+        mRetention = DatabaseMaintenance.getRetention(1);
+        mNow = System.currentTimeMillis();
+        mToday = WeatherContract.normalizeDate(mNow);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDbHelper.close();
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testRetentionDeletesOldAndOrphanedRows() {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        long locationId = insertLocation(db, "north");
+        // Three days ago up to three days from now
+        insertDays(db, locationId, -3, 7);
+        insertDays(db, locationId + 1, 0, 2);
+        long lastId = lastWeatherId(db);
+
+        DatabaseMaintenance.Result result = mMaintenance.run(mRetention, mNow);
+        assertEquals("Error: expected the days before yesterday and the orphans to be deleted",
+                4, result.deleted);
+        assertEquals(5, DatabaseUtils.queryNumEntries(db, WeatherEntry.TABLE_NAME));
+        assertEquals("Error: yesterday should be kept", 1,
+                DatabaseUtils.queryNumEntries(db, WeatherEntry.TABLE_NAME,
+                        WeatherEntry.COLUMN_DATE + " = ?",
+                        new String[]{Long.toString(mToday - DAY_IN_MILLIS)}));
+        // A loader still holding a deleted row's id must not find another day under it
+        assertEquals("Error: the ids of deleted rows should not be handed out again", lastId,
+                lastWeatherId(db));
+
+        assertEquals("Error: a second run should have nothing left to delete", 0,
+                mMaintenance.run(mRetention, mNow).deleted);
+    }
+
+    public void testDatabaseIsRebuiltOnce() {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        insertDays(db, insertLocation(db, "north"), 0, 14);
+        assertEquals(0, mMaintenance.getStats().autoVacuum);
+
+        DatabaseMaintenance.Result result = mMaintenance.run(mRetention, mNow);
+        assertTrue("Error: a database without auto-vacuum should be rebuilt", result.rebuilt);
+        assertEquals(DatabaseMaintenance.AUTO_VACUUM_INCREMENTAL,
+                mMaintenance.getStats().autoVacuum);
+        assertFalse("Error: the rebuild should only happen once", mMaintenance.run(mRetention, mNow).rebuilt);
+        assertEquals("Error: the rebuild should keep the rows", 14,
+                DatabaseUtils.queryNumEntries(db, WeatherEntry.TABLE_NAME));
+    }
+
+    public void testFreedPagesAreReturned() {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < 200; i++) {
+                insertDays(db, insertLocation(db, "location " + i), 0, 14);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        // Switches to incremental auto-vacuum
+        mMaintenance.run(mRetention, mNow);
+        DatabaseMaintenance.Stats full = mMaintenance.getStats();
+
+        // Leaves every forecast an orphan
+        db.delete(LocationEntry.TABLE_NAME, null, null);
+        DatabaseMaintenance.Result result = mMaintenance.run(mRetention, mNow);
+        assertEquals(200 * 14, result.deleted);
+        assertFalse(result.rebuilt);
+        assertTrue("Error: the deleted rows' pages should have been vacuumed",
+                result.vacuumedPages > 0);
+
+        DatabaseMaintenance.Stats empty = mMaintenance.getStats();
+        assertTrue("Error: the file should have shrunk", empty.pageCount < full.pageCount);
+        assertEquals(0, empty.freePageCount);
+    }
+
+    public void testAnalyzeOnlyWhenStale() {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        insertDays(db, insertLocation(db, "north"), 0, 14);
+        assertTrue("Error: a database never analyzed should be", mMaintenance.run(mRetention, mNow).analyzed);
+        assertFalse("Error: unchanged tables should not be analyzed again",
+                mMaintenance.run(mRetention, mNow).analyzed);
+
+        insertDays(db, insertLocation(db, "south"), 0, 14);
+        assertTrue("Error: doubling the rows should refresh the statistics",
+                mMaintenance.run(mRetention, mNow).analyzed);
+    }
+
+    // The largest id AUTOINCREMENT has handed out, deleted or not
+    private static long lastWeatherId(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "SELECT seq FROM sqlite_sequence WHERE name = ?",
+                new String[]{WeatherEntry.TABLE_NAME});
+    }
+
+    private static long insertLocation(SQLiteDatabase db, String locationSetting) {
+        ContentValues location = new ContentValues();
+        location.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        location.put(LocationEntry.COLUMN_CITY_NAME, locationSetting);
+        location.put(LocationEntry.COLUMN_COORD_LAT, 0.0);
+        location.put(LocationEntry.COLUMN_COORD_LONG, 0.0);
+        return db.insert(LocationEntry.TABLE_NAME, null, location);
+    }
+
+    // Inserts count days of the location, the first one firstDay days from today
+    private void insertDays(SQLiteDatabase db, long locationId, int firstDay, int count) {
+        for (int day = firstDay; day < firstDay + count; day++) {
+            ContentValues weather = TestUtilities.createWeatherValues(locationId);
+            weather.put(WeatherEntry.COLUMN_DATE, mToday + day * DAY_IN_MILLIS);
+            db.insert(WeatherEntry.TABLE_NAME, null, weather);
+        }
+    }
+}
@@ -55,6 +55,7 @@ public class TestDb extends AndroidTestCase {
         final HashSet<String> tableNameHashSet = new HashSet<String>();
         tableNameHashSet.add(WeatherContract.LocationEntry.TABLE_NAME);
         tableNameHashSet.add(WeatherContract.WeatherEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.SyncTimingEntry.TABLE_NAME);
 
         mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
         SQLiteDatabase db = new WeatherDbHelper(
@@ -91,6 +92,7 @@ public class TestDb extends AndroidTestCase {
         locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_COORD_LAT);
         locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_COORD_LONG);
         locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+        locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_CITY_ID);
 
         int columnNameIndex = c.getColumnIndex("name");
         do {
@@ -177,6 +179,33 @@ public class TestDb extends AndroidTestCase {
     }
 
 
+    /*
+        The database should be in write-ahead logging mode, with the checkpoint settings
+        WeatherDbHelper configures, and checkpointing it should leave the data readable.
+     */
+    public void testWriteAheadLogging() {
+        insertLocation();
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        assertTrue("Error: the database should use write-ahead logging",
+                db.isWriteAheadLoggingEnabled());
+
+        Cursor c = db.rawQuery("PRAGMA journal_mode", null);
+        assertTrue(c.moveToFirst());
+        assertEquals("wal", c.getString(0).toLowerCase());
+        c.close();
+        c = db.rawQuery("PRAGMA wal_autocheckpoint", null);
+        assertTrue(c.moveToFirst());
+        assertEquals(WeatherDbHelper.WAL_AUTOCHECKPOINT_PAGES, c.getInt(0));
+        c.close();
+
+        dbHelper.checkpoint();
+        c = db.query(WeatherContract.LocationEntry.TABLE_NAME, null, null, null, null, null, null);
+        assertEquals("Error: a checkpoint should not lose rows", 1, c.getCount());
+        c.close();
+        dbHelper.close();
+    }
+
     /*
         Students: This is a helper method for the testWeatherTable quiz. You can move your
         code from testLocationTable to here so that you can call this code from both
@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.SyncTimingEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/*
+    Upgrades a database of each version that has shipped, built from the schema and rows
+    recorded under assets/schema, and checks that the locations and forecasts survive and that
+    the result has the same tables, columns and indexes as a database created fresh.  Logs how
+    long each upgrade took, alongside WeatherDbHelper's own timing of each step.
+ */
+public class TestDbMigrations extends InstrumentationTestCase {
+
+    public static final String LOG_TAG = TestDbMigrations.class.getSimpleName();
+
+    private static final String MIGRATED_DATABASE_NAME = "migrated.db";
+    private static final String FRESH_DATABASE_NAME = "fresh.db";
+
+    private static final String[] TABLES = {
+            LocationEntry.TABLE_NAME,
+            WeatherEntry.TABLE_NAME,
+            SyncTimingEntry.TABLE_NAME
+    };
+
+    private Context mContext;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext = getInstrumentation().getTargetContext();
+        mContext.deleteDatabase(MIGRATED_DATABASE_NAME);
+        mContext.deleteDatabase(FRESH_DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(MIGRATED_DATABASE_NAME);
+        mContext.deleteDatabase(FRESH_DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testEveryVersionHasAFixture() throws IOException {
+        List<String> fixtures = new ArrayList<String>();
+        Collections.addAll(fixtures, getInstrumentation().getContext().getAssets().list("schema"));
+        for (int version = WeatherDbHelper.OLDEST_MIGRATED_VERSION;
+             version < WeatherDbHelper.DATABASE_VERSION; version++) {
+            assertTrue("Error: no fixture for version " + version +
+                    "; record its schema and a few rows before bumping the version",
+                    fixtures.contains(fixtureName(version)));
+        }
+    }
+
+    public void testUpgradesKeepData() throws IOException {
+        WeatherDbHelper freshHelper = new WeatherDbHelper(mContext, FRESH_DATABASE_NAME, true);
+        String freshSchema = describeSchema(freshHelper.getReadableDatabase());
+        freshHelper.close();
+
+        for (int version = WeatherDbHelper.OLDEST_MIGRATED_VERSION;
+             version < WeatherDbHelper.DATABASE_VERSION; version++) {
+            mContext.deleteDatabase(MIGRATED_DATABASE_NAME);
+            createFromFixture(version);
+
+            long start = SystemClock.elapsedRealtimeNanos();
+            WeatherDbHelper helper = new WeatherDbHelper(mContext, MIGRATED_DATABASE_NAME, true);
+            SQLiteDatabase db = helper.getWritableDatabase();
+            Log.i(LOG_TAG, String.format(Locale.US, "Opened version %d as %d in %.1fms",
+                    version, WeatherDbHelper.DATABASE_VERSION,
+                    (SystemClock.elapsedRealtimeNanos() - start) / 1e6));
+            try {
+                assertEquals(WeatherDbHelper.DATABASE_VERSION, db.getVersion());
+                assertEquals("Error: version " + version + " upgraded to a different schema",
+                        freshSchema, describeSchema(db));
+                assertRowsKept(db, version);
+            } finally {
+                helper.close();
+            }
+        }
+    }
+
+    // Builds MIGRATED_DATABASE_NAME as the given version left it
+    private void createFromFixture(int version) throws IOException {
+        String script = readFixture(fixtureName(version));
+        SQLiteDatabase db = mContext.openOrCreateDatabase(MIGRATED_DATABASE_NAME, 0, null);
+        try {
+            db.beginTransaction();
+            try {
+                for (String statement : script.split(";\\s*\n")) {
+                    statement = statement.replaceAll("(?m)^--.*$", "").trim();
+                    if (statement.length() > 0) {
+                        db.execSQL(statement);
+                    }
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            db.setVersion(version);
+        } finally {
+            db.close();
+        }
+    }
+
+    private void assertRowsKept(SQLiteDatabase db, int version) {
+        assertEquals("Error: locations lost upgrading version " + version, 2,
+                DatabaseUtils.queryNumEntries(db, LocationEntry.TABLE_NAME));
+        assertEquals("Error: forecasts lost upgrading version " + version, 3,
+                DatabaseUtils.queryNumEntries(db, WeatherEntry.TABLE_NAME));
+
+        Cursor cursor = db.query(WeatherEntry.TABLE_NAME + " JOIN " + LocationEntry.TABLE_NAME +
+                        " ON " + WeatherEntry.COLUMN_LOC_KEY + " = " +
+                        LocationEntry.TABLE_NAME + "." + LocationEntry._ID,
+                new String[]{
+                        LocationEntry.COLUMN_LOCATION_SETTING,
+                        WeatherEntry.COLUMN_DATE,
+                        WeatherEntry.COLUMN_SHORT_DESC,
+                        WeatherEntry.COLUMN_MAX_TEMP
+                },
+                WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID + " = ?", new String[]{"2"},
+                null, null, null);
+        try {
+            assertTrue("Error: a forecast lost its location upgrading version " + version,
+                    cursor.moveToFirst());
+            assertEquals("94043", cursor.getString(0));
+            assertEquals(1419120000000L, cursor.getLong(1));
+            assertEquals("Rain", cursor.getString(2));
+            assertEquals(11.75, cursor.getDouble(3), 0.0);
+        } finally {
+            cursor.close();
+        }
+
+        // The replace conflict now keys on the location, then the date
+        ContentValues weather = TestUtilities.createWeatherValues(1);
+        weather.put(WeatherEntry.COLUMN_DATE, 1419033600000L);
+        db.insert(WeatherEntry.TABLE_NAME, null, weather);
+        assertEquals("Error: a day's forecast should replace the stored one", 3,
+                DatabaseUtils.queryNumEntries(db, WeatherEntry.TABLE_NAME));
+
+        if (version >= 4) {
+            assertEquals("Error: sync timings lost upgrading version " + version, 2,
+                    DatabaseUtils.queryNumEntries(db, SyncTimingEntry.TABLE_NAME));
+        }
+    }
+
+    /*
+        The columns, indexes and foreign keys of every table, one per line, with the indexes
+        described by what they cover rather than by their generated names.
+     */
+    private static String describeSchema(SQLiteDatabase db) {
+        StringBuilder schema = new StringBuilder();
+        for (String table : TABLES) {
+            appendRows(schema, db, "PRAGMA table_info(" + table + ")", table + " column: ");
+
+            List<String> indexes = new ArrayList<String>();
+            Cursor cursor = db.rawQuery("PRAGMA index_list(" + table + ")", null);
+            try {
+                while (cursor.moveToNext()) {
+                    String name = cursor.getString(cursor.getColumnIndex("name"));
+                    StringBuilder index = new StringBuilder(table).append(" index: unique=")
+                            .append(cursor.getInt(cursor.getColumnIndex("unique")));
+                    appendRows(index, db, "PRAGMA index_info(" + name + ")", " ");
+                    indexes.add(index.toString());
+                }
+            } finally {
+                cursor.close();
+            }
+            Collections.sort(indexes);
+            for (String index : indexes) {
+                schema.append(index).append('\n');
+            }
+
+            appendRows(schema, db, "PRAGMA foreign_key_list(" + table + ")",
+                    table + " foreign key: ");
+        }
+        return schema.toString();
+    }
+
+    private static void appendRows(StringBuilder out, SQLiteDatabase db, String sql,
+                                   String prefix) {
+        Cursor cursor = db.rawQuery(sql, null);
+        try {
+            while (cursor.moveToNext()) {
+                out.append(prefix);
+                for (int i = 0; i < cursor.getColumnCount(); i++) {
+                    out.append(cursor.getColumnName(i)).append('=')
+                            .append(cursor.getString(i)).append(' ');
+                }
+                out.append('\n');
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static String fixtureName(int version) {
+        return "weather_v" + version + ".sql";
+    }
+
+    // The fixtures are assets of the test package, so they're read through its own context
+    private String readFixture(String name) throws IOException {
+        InputStream in = getInstrumentation().getContext().getAssets().open("schema/" + name);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toString("UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/*
+    Not a pass/fail test: imports lists of 10, 100 and 1000 new locations through the provider,
+    one insert() per row as ContentProvider's default bulkInsert() does, and through the
+    transactional bulkInsert() of LocationEntry.CONTENT_URI, and logs the per-row cost of
+    each, so they can be compared with "adb logcat -s TestLocationInsertBenchmark".
+ */
+public class TestLocationInsertBenchmark extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestLocationInsertBenchmark.class.getSimpleName();
+
+    private static final int[] LOCATION_COUNTS = {10, 100, 1000};
+    private static final int ROUNDS = 5;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAll();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAll();
+        super.tearDown();
+    }
+
+    public void testBenchmarkLocationInserts() {
+        for (int count : LOCATION_COUNTS) {
+            ContentValues[] values = createLocations(count);
+            long[] rowByRowNanos = new long[ROUNDS];
+            long[] bulkNanos = new long[ROUNDS];
+            // Interleaved, so neither path gets a quieter stretch of the run
+            for (int round = 0; round < ROUNDS; round++) {
+                long start = SystemClock.elapsedRealtimeNanos();
+                for (ContentValues value : values) {
+                    mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, value);
+                }
+                rowByRowNanos[round] = SystemClock.elapsedRealtimeNanos() - start;
+                deleteAll();
+
+                start = SystemClock.elapsedRealtimeNanos();
+                assertEquals(count, mContext.getContentResolver().bulkInsert(
+                        LocationEntry.CONTENT_URI, values));
+                bulkNanos[round] = SystemClock.elapsedRealtimeNanos() - start;
+                deleteAll();
+            }
+            log("insert() per row", count, rowByRowNanos);
+            log("bulkInsert()", count, bulkNanos);
+        }
+    }
+
+    private static ContentValues[] createLocations(int count) {
+        ContentValues[] values = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = new ContentValues();
+            values[i].put(LocationEntry.COLUMN_LOCATION_SETTING, "benchmark " + i);
+            values[i].put(LocationEntry.COLUMN_CITY_NAME, "benchmark " + i);
+            values[i].put(LocationEntry.COLUMN_COORD_LAT, i % 180 - 90.0);
+            values[i].put(LocationEntry.COLUMN_COORD_LONG, i % 360 - 180.0);
+        }
+        return values;
+    }
+
+    private void deleteAll() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    // Logs the median round's cost per row
+    private static void log(String path, int count, long[] roundNanos) {
+        Arrays.sort(roundNanos);
+        long median = roundNanos[roundNanos.length / 2];
+        Log.i(LOG_TAG, String.format(Locale.US, "%s, %d locations: %dus per row, %dms in all",
+                path, count, median / count / 1000, median / 1000000));
+    }
+}
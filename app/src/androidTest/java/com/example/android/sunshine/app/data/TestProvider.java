@@ -16,20 +16,28 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.ComponentName;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.pm.PackageManager;
 import android.content.pm.ProviderInfo;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Bundle;
 import android.test.AndroidTestCase;
 import android.util.Log;
 
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.SyncTimingEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+
 /*
     Note: This is not a complete set of tests of the Sunshine ContentProvider, but it does test
     that at least the basic functionality has been implemented correctly.
@@ -160,6 +168,12 @@ public class TestProvider extends AndroidTestCase {
         // vnd.android.cursor.dir/com.example.android.sunshine.app/location
         assertEquals("Error: the LocationEntry CONTENT_URI should return LocationEntry.CONTENT_TYPE",
                 LocationEntry.CONTENT_TYPE, type);
+
+        // content://com.example.android.sunshine.app/sync_timing/
+        type = mContext.getContentResolver().getType(SyncTimingEntry.CONTENT_URI);
+        // vnd.android.cursor.dir/com.example.android.sunshine.app/sync_timing
+        assertEquals("Error: the SyncTimingEntry CONTENT_URI should return SyncTimingEntry.CONTENT_TYPE",
+                SyncTimingEntry.CONTENT_TYPE, type);
     }
 
 
@@ -512,4 +526,749 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    static ForecastBatch createForecastBatch(long locationRowId) {
+        return createForecastBatch(locationRowId, createBulkInsertWeatherValues(locationRowId));
+    }
+
+    static ForecastBatch createForecastBatch(long locationRowId, ContentValues[] values) {
+        ForecastBatch batch = new ForecastBatch();
+        batch.setLocationId(locationRowId);
+        for (ContentValues value : values) {
+            batch.add(value.getAsLong(WeatherEntry.COLUMN_DATE),
+                    value.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID),
+                    value.getAsString(WeatherEntry.COLUMN_SHORT_DESC),
+                    value.getAsDouble(WeatherEntry.COLUMN_MIN_TEMP),
+                    value.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP),
+                    value.getAsDouble(WeatherEntry.COLUMN_HUMIDITY),
+                    value.getAsDouble(WeatherEntry.COLUMN_PRESSURE),
+                    value.getAsDouble(WeatherEntry.COLUMN_WIND_SPEED),
+                    value.getAsDouble(WeatherEntry.COLUMN_DEGREES));
+        }
+        return batch;
+    }
+
+    // The compiled-statement ingestion path must store exactly what bulkInsert stores.
+    // A range returns the days from its start date up to its end date, paged by limit and
+    // offset, and is notified with its location.
+    public void testRangeQuery() {
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(ContentUris.parseId(locationUri)));
+        long[] dates = getWeatherDates();
+
+        String[] columns = {WeatherEntry.COLUMN_DATE};
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithRange(TestUtilities.TEST_LOCATION,
+                        dates[1], dates[5]),
+                columns, null, null, null);
+        assertEquals("Error: the end date should be excluded", 4, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals(dates[1], cursor.getLong(0));
+        if ( Build.VERSION.SDK_INT >= 19 ) {
+            assertEquals("Error: a range should be notified with its location",
+                    WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                    cursor.getNotificationUri());
+        }
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithRange(TestUtilities.TEST_LOCATION,
+                        dates[1], dates[5], 2, 1),
+                columns, null, null, null);
+        assertEquals(2, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals("Error: the page should start after the offset", dates[2], cursor.getLong(0));
+        cursor.moveToNext();
+        assertEquals(dates[3], cursor.getLong(0));
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithRange(TestUtilities.TEST_LOCATION,
+                        dates[1], dates[5], 0, 3),
+                columns, null, null, null);
+        assertEquals("Error: an offset alone should skip days without limiting them",
+                1, cursor.getCount());
+        cursor.close();
+    }
+
+    // Locations are bulk inserted in one transaction, stored settings having their rows
+    // updated, and come back with their ids in order.
+    public void testBulkInsertLocations() {
+        Uri northPoleUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+
+        ArrayList<ContentValues> locations = new ArrayList<ContentValues>();
+        locations.add(TestUtilities.createNorthPoleLocationValues());
+        locations.add(createLocationValues("south pole"));
+        locations.add(createLocationValues("equator"));
+        locations.add(createLocationValues("south pole"));
+
+        TestUtilities.TestContentObserver locationObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(LocationEntry.CONTENT_URI, true, locationObserver);
+        Bundle extras = new Bundle();
+        extras.putParcelableArrayList(WeatherContract.EXTRA_LOCATIONS, locations);
+        Bundle result = mContext.getContentResolver().call(LocationEntry.CONTENT_URI,
+                WeatherContract.METHOD_INSERT_LOCATIONS, null, extras);
+        locationObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(locationObserver);
+
+        assertEquals("Error: only the new settings should be inserted", 2,
+                result.getInt(WeatherContract.EXTRA_ROW_COUNT));
+        assertEquals("Error: the stored and repeated settings should be updated", 2,
+                result.getInt(WeatherContract.EXTRA_UPDATED_COUNT));
+        long[] ids = result.getLongArray(WeatherContract.EXTRA_LOCATION_IDS);
+        assertEquals(4, ids.length);
+        assertEquals("Error: a stored setting should resolve to its row",
+                ContentUris.parseId(northPoleUri), ids[0]);
+        assertEquals("Error: a setting repeated in the call should resolve to one row",
+                ids[1], ids[3]);
+        assertFalse(ids[1] == ids[2]);
+        assertEquals(3, countLocations());
+
+        // Through bulkInsert(), every row counts as resolved
+        ContentValues[] values = {createLocationValues("equator"), createLocationValues("tropic")};
+        assertEquals(2, mContext.getContentResolver().bulkInsert(LocationEntry.CONTENT_URI, values));
+        assertEquals(4, countLocations());
+
+        // One bad row rolls the whole call back
+        ContentValues incomplete = new ContentValues();
+        incomplete.put(LocationEntry.COLUMN_LOCATION_SETTING, "nowhere");
+        values = new ContentValues[]{createLocationValues("arctic"), incomplete};
+        try {
+            mContext.getContentResolver().bulkInsert(LocationEntry.CONTENT_URI, values);
+            fail("Error: a location without a city name should not be inserted");
+        } catch (android.database.SQLException e) {
+            // Expected
+        }
+        assertEquals("Error: the rows before the failed one should be rolled back",
+                4, countLocations());
+    }
+
+    // A bulk insert of a stored setting replaces the values of its row.
+    public void testBulkInsertUpdatesStoredLocations() {
+        Uri northPoleUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        ContentValues northPole = TestUtilities.createNorthPoleLocationValues();
+        northPole.put(LocationEntry.COLUMN_CITY_NAME, "Santa's Workshop");
+        northPole.put(LocationEntry.COLUMN_CITY_ID, 2643743L);
+
+        TestUtilities.TestContentObserver locationObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(LocationEntry.CONTENT_URI, true, locationObserver);
+        ContentValues[] values = {northPole, createLocationValues("equator")};
+        assertEquals(2, mContext.getContentResolver().bulkInsert(LocationEntry.CONTENT_URI, values));
+        locationObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(locationObserver);
+        assertEquals(2, countLocations());
+
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI, null,
+                LocationEntry._ID + " = " + ContentUris.parseId(northPoleUri), null, null);
+        TestUtilities.validateCursor("Error: the stored location was not updated",
+                cursor, northPole);
+    }
+
+    private static ContentValues createLocationValues(String locationSetting) {
+        ContentValues values = new ContentValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        values.put(LocationEntry.COLUMN_CITY_NAME, locationSetting);
+        values.put(LocationEntry.COLUMN_COORD_LAT, 0.0);
+        values.put(LocationEntry.COLUMN_COORD_LONG, 0.0);
+        return values;
+    }
+
+    private int countLocations() {
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry._ID}, null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    public void testIngestForecast() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+        assertTrue(locationRowId != -1);
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+
+        Bundle result = mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_INGEST_FORECAST, null,
+                createForecastBatch(locationRowId).toBundle());
+
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, result.getInt(WeatherContract.EXTRA_ROW_COUNT));
+
+        ContentValues[] expectedValues = createBulkInsertWeatherValues(locationRowId);
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC"
+        );
+        assertEquals(cursor.getCount(), BULK_INSERT_RECORDS_TO_INSERT);
+        cursor.moveToFirst();
+        for ( int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++, cursor.moveToNext() ) {
+            TestUtilities.validateCurrentRecord("testIngestForecast.  Error validating WeatherEntry " + i,
+                    cursor, expectedValues[i]);
+        }
+        cursor.close();
+    }
+
+    // Replacing the forecast window stores the new days, trims the location's older ones and
+    // notifies observers of that location.
+    public void testReplaceForecast() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+        assertTrue(locationRowId != -1);
+
+        // A day from well before the window, which the replace should delete
+        ContentValues oldValues = TestUtilities.createWeatherValues(locationRowId);
+        oldValues.put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE - 1000L * 60 * 60 * 24 * 30);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, oldValues);
+
+        TestUtilities.TestContentObserver locationObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION), true, locationObserver);
+
+        Bundle result = mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_REPLACE_FORECAST, TestUtilities.TEST_LOCATION,
+                createForecastBatch(locationRowId).toBundle());
+
+        locationObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(locationObserver);
+
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, result.getInt(WeatherContract.EXTRA_ROW_COUNT));
+        assertEquals(1, result.getInt(WeatherContract.EXTRA_DELETED_COUNT));
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI, null, null, null, null);
+        assertEquals("Error: the day before the window was not trimmed",
+                BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.close();
+    }
+
+    // Replacing a window with a retention keeps the days before it that are within it.
+    public void testReplaceForecastKeepsRetention() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        long dayInMillis = 1000L * 60 * 60 * 24;
+        for (long daysBefore : new long[]{30, 1}) {
+            ContentValues oldValues = TestUtilities.createWeatherValues(locationRowId);
+            oldValues.put(WeatherEntry.COLUMN_DATE,
+                    TestUtilities.TEST_DATE - daysBefore * dayInMillis);
+            mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, oldValues);
+        }
+
+        Bundle extras = createForecastBatch(locationRowId).toBundle();
+        extras.putInt(WeatherContract.EXTRA_RETENTION_DAYS, 1);
+        Bundle result = mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_REPLACE_FORECAST, TestUtilities.TEST_LOCATION, extras);
+
+        assertEquals("Error: only the day past the retention should be trimmed", 1,
+                result.getInt(WeatherContract.EXTRA_DELETED_COUNT));
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT + 1, getWeatherDates().length);
+    }
+
+    // Replacing the windows of locations that are not stored yet adds the locations in the
+    // same transaction, or nothing at all if one of them cannot be added.
+    public void testReplaceForecastsStoresLocations() {
+        ForecastBatch batch = createForecastBatch(-1);
+        batch.setLocationSetting(TestUtilities.TEST_LOCATION);
+        Bundle batchBundle = batch.toBundle();
+        batchBundle.putParcelable(WeatherContract.EXTRA_LOCATION,
+                TestUtilities.createNorthPoleLocationValues());
+        ForecastBatch badBatch = createForecastBatch(-1);
+        badBatch.setLocationSetting("nowhere");
+        Bundle badBundle = badBatch.toBundle();
+        ContentValues incomplete = new ContentValues();
+        incomplete.put(LocationEntry.COLUMN_LOCATION_SETTING, "nowhere");
+        badBundle.putParcelable(WeatherContract.EXTRA_LOCATION, incomplete);
+
+        ArrayList<Bundle> batches = new ArrayList<Bundle>();
+        batches.add(batchBundle);
+        batches.add(badBundle);
+        Bundle extras = new Bundle();
+        extras.putParcelableArrayList(WeatherContract.EXTRA_BATCHES, batches);
+        try {
+            mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                    WeatherContract.METHOD_REPLACE_FORECASTS, null, extras);
+            fail("Error: a location without a city name should not be inserted");
+        } catch (android.database.SQLException e) {
+            // Expected
+        }
+        assertEquals("Error: the location before the failed one should be rolled back",
+                0, countLocations());
+
+        batches.remove(badBundle);
+        Bundle result = mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_REPLACE_FORECASTS, null, extras);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, result.getInt(WeatherContract.EXTRA_ROW_COUNT));
+        long[] ids = result.getLongArray(WeatherContract.EXTRA_LOCATION_IDS);
+        assertEquals(1, ids.length);
+        assertEquals(1, countLocations());
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                new String[]{WeatherEntry.COLUMN_LOC_KEY}, null, null, null);
+        assertEquals("Error: the forecast should be stored under the new location",
+                BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals(ids[0], cursor.getLong(0));
+        cursor.close();
+    }
+
+    // Storing a forecast again only writes the days whose values changed, keeps the stored
+    // rows and their ids, and does not notify anyone when nothing changed.
+    public void testReplaceForecastWritesOnlyChanges() throws InterruptedException {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+        assertTrue(locationRowId != -1);
+
+        Bundle result = mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_REPLACE_FORECAST, TestUtilities.TEST_LOCATION,
+                createForecastBatch(locationRowId).toBundle());
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, result.getInt(WeatherContract.EXTRA_ROW_COUNT));
+        long[] rowIds = getWeatherRowIds();
+
+        // The same forecast again: nothing is written or announced
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+        result = mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_REPLACE_FORECAST, TestUtilities.TEST_LOCATION,
+                createForecastBatch(locationRowId).toBundle());
+        assertEquals(0, result.getInt(WeatherContract.EXTRA_ROW_COUNT));
+        assertEquals(0, result.getInt(WeatherContract.EXTRA_UPDATED_COUNT));
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT,
+                result.getInt(WeatherContract.EXTRA_UNCHANGED_COUNT));
+        Thread.sleep(500);
+        assertFalse("Error: an unchanged forecast should not notify observers",
+                weatherObserver.mContentChanged);
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+        weatherObserver.mHT.quit();
+
+        // One day changed: only that row is updated, in place
+        ContentValues[] values = createBulkInsertWeatherValues(locationRowId);
+        values[3].put(WeatherEntry.COLUMN_MAX_TEMP, 99.5);
+        weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+        result = mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_REPLACE_FORECAST, TestUtilities.TEST_LOCATION,
+                createForecastBatch(locationRowId, values).toBundle());
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+
+        assertEquals(0, result.getInt(WeatherContract.EXTRA_ROW_COUNT));
+        assertEquals(1, result.getInt(WeatherContract.EXTRA_UPDATED_COUNT));
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT - 1,
+                result.getInt(WeatherContract.EXTRA_UNCHANGED_COUNT));
+        assertTrue("Error: rows should be updated in place, not reinserted",
+                Arrays.equals(rowIds, getWeatherRowIds()));
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI, null,
+                null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.moveToPosition(3);
+        TestUtilities.validateCurrentRecord("testReplaceForecastWritesOnlyChanges.  Error validating the changed day",
+                cursor, values[3]);
+        cursor.close();
+    }
+
+    // The call() read path returns the same days as a query, and sees every write made since.
+    public void testGetRange() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+        assertTrue(locationRowId != -1);
+
+        ContentValues[] values = createBulkInsertWeatherValues(locationRowId);
+        mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_REPLACE_FORECAST, TestUtilities.TEST_LOCATION,
+                createForecastBatch(locationRowId, values).toBundle());
+        long[] dates = getWeatherDates();
+
+        ForecastBatch range = getRange(TestUtilities.TEST_LOCATION, dates[2], 3);
+        assertEquals("Error: expected the 3 days from the start date on", 3, range.size());
+        assertEquals(locationRowId, range.getLocationId());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(dates[2 + i], range.getDate(i));
+            assertEquals(values[2 + i].getAsDouble(WeatherEntry.COLUMN_MAX_TEMP),
+                    range.getMaxTemp(i), 0.0);
+            assertEquals(values[2 + i].getAsDouble(WeatherEntry.COLUMN_WIND_SPEED),
+                    range.getWindSpeed(i), 0.0);
+            assertEquals("Asteroids", range.getDescription(i));
+        }
+        assertEquals("Error: a range past the last day should be cut short",
+                2, getRange(TestUtilities.TEST_LOCATION, dates[dates.length - 2], 5).size());
+        assertEquals(0, getRange("unknown", dates[0], 5).size());
+
+        // A write must not leave the cached days behind
+        values[2].put(WeatherEntry.COLUMN_MAX_TEMP, 99.5);
+        mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_REPLACE_FORECAST, TestUtilities.TEST_LOCATION,
+                createForecastBatch(locationRowId, values).toBundle());
+        assertEquals("Error: the range should reflect the replaced forecast",
+                99.5, getRange(TestUtilities.TEST_LOCATION, dates[2], 1).getMaxTemp(0), 0.0);
+
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        assertEquals("Error: the range should reflect the deleted forecast",
+                0, getRange(TestUtilities.TEST_LOCATION, dates[0], 5).size());
+    }
+
+    // A range read without its start date or day count is rejected rather than read from 0.
+    public void testGetRangeRequiresExtras() {
+        Bundle extras = new Bundle();
+        extras.putInt(WeatherContract.EXTRA_DAY_COUNT, 5);
+        for (Bundle incomplete : new Bundle[]{null, extras}) {
+            try {
+                mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                        WeatherContract.METHOD_GET_RANGE, TestUtilities.TEST_LOCATION, incomplete);
+                fail("Error: a range without a start date should be rejected");
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+    }
+
+    private ForecastBatch getRange(String locationSetting, long startDate, int count) {
+        Bundle extras = new Bundle();
+        extras.putLong(WeatherContract.EXTRA_START_DATE, startDate);
+        extras.putInt(WeatherContract.EXTRA_DAY_COUNT, count);
+        return ForecastBatch.fromBundle(mContext.getContentResolver().call(
+                WeatherEntry.CONTENT_URI, WeatherContract.METHOD_GET_RANGE, locationSetting,
+                extras));
+    }
+
+    // Inserting a stored setting hands back its row, and queries by setting follow the
+    // location to a new row once the old one is deleted.
+    public void testLocationIdResolution() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        assertEquals("Error: inserting a stored setting should return its existing row",
+                locationUri, mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                        testValues));
+        long locationRowId = ContentUris.parseId(locationUri);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+
+        String[] widgetColumns = {WeatherEntry.COLUMN_DATE, WeatherEntry.COLUMN_LOC_KEY};
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                widgetColumns, null, null, null);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals(locationRowId, cursor.getLong(1));
+        cursor.close();
+
+        // The same setting comes back under a new id, which the old one must not shadow
+        deleteAllRecords();
+        testValues.put(LocationEntry._ID, locationRowId + 100);
+        locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        assertEquals(locationRowId + 100, ContentUris.parseId(locationUri));
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId + 100));
+
+        cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                widgetColumns, null, null, null);
+        assertEquals("Error: expected the weather of the re-inserted location",
+                BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals(locationRowId + 100, cursor.getLong(1));
+        cursor.close();
+
+        // And the joined columns still come along for those who ask for them
+        cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                new String[]{WeatherEntry.COLUMN_DATE, LocationEntry.COLUMN_CITY_NAME},
+                null, null, null);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals(testValues.getAsString(LocationEntry.COLUMN_CITY_NAME), cursor.getString(1));
+        cursor.close();
+    }
+
+    // Inserting a stored setting updates its row with the new values, which queries joined
+    // with the location see at once.
+    public void testInsertUpdatesStoredLocation() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+        String[] columns = {WeatherEntry.COLUMN_DATE, LocationEntry.COLUMN_CITY_NAME};
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                columns, null, null, null);
+        cursor.close();
+
+        testValues.put(LocationEntry.COLUMN_CITY_NAME, "Santa's Workshop");
+        testValues.put(LocationEntry.COLUMN_COORD_LAT, 89.5);
+        assertEquals("Error: inserting a stored setting should return its existing row",
+                locationUri, mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                        testValues));
+        assertEquals(1, countLocations());
+
+        cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI, null,
+                LocationEntry._ID + " = " + locationRowId, null, null);
+        TestUtilities.validateCursor("Error: the stored location was not updated",
+                cursor, testValues);
+
+        cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                columns, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Error: a cached query should not outlive the location update",
+                "Santa's Workshop", cursor.getString(1));
+        cursor.close();
+    }
+
+    // Repeated queries by location are served from memory, but never outlive a write to it.
+    public void testQueriesSeeWrites() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+        ContentValues[] values = createBulkInsertWeatherValues(locationRowId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+
+        Uri dayUri = WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION,
+                TestUtilities.TEST_DATE);
+        assertEquals(values[0].getAsDouble(WeatherEntry.COLUMN_MAX_TEMP), getMaxTemp(dayUri), 0.0);
+        assertEquals(values[0].getAsDouble(WeatherEntry.COLUMN_MAX_TEMP), getMaxTemp(dayUri), 0.0);
+
+        ContentValues updatedValues = new ContentValues();
+        updatedValues.put(WeatherEntry.COLUMN_MAX_TEMP, 99.5);
+        mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, updatedValues,
+                WeatherEntry.COLUMN_DATE + " = ?",
+                new String[]{Long.toString(TestUtilities.TEST_DATE)});
+        assertEquals("Error: the query should reflect the update", 99.5, getMaxTemp(dayUri), 0.0);
+
+        values[0].put(WeatherEntry.COLUMN_MAX_TEMP, 12.5);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, values[0]);
+        assertEquals("Error: the query should reflect the replacing insert",
+                12.5, getMaxTemp(dayUri), 0.0);
+
+        values[0].put(WeatherEntry.COLUMN_MAX_TEMP, 13.5);
+        mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_REPLACE_FORECAST, TestUtilities.TEST_LOCATION,
+                createForecastBatch(locationRowId, values).toBundle());
+        assertEquals("Error: the query should reflect the replaced forecast",
+                13.5, getMaxTemp(dayUri), 0.0);
+    }
+
+    // A write notifies the uris of the location and day it changed, and not those of others.
+    public void testNotificationsAreScoped() throws InterruptedException {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        long northRowId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues));
+        testValues.put(LocationEntry.COLUMN_LOCATION_SETTING, "south pole");
+        testValues.put(LocationEntry.COLUMN_COORD_LAT, -90.0);
+        long southRowId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues));
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(northRowId));
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(southRowId));
+        long nextDay = TestUtilities.TEST_DATE + 1000L * 60 * 60 * 24;
+
+        TestUtilities.TestContentObserver northObserver = TestUtilities.getTestContentObserver();
+        TestUtilities.TestContentObserver dayObserver = TestUtilities.getTestContentObserver();
+        TestUtilities.TestContentObserver nextDayObserver = TestUtilities.getTestContentObserver();
+        TestUtilities.TestContentObserver southObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION), true, northObserver);
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION,
+                        TestUtilities.TEST_DATE), true, dayObserver);
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION, nextDay),
+                true, nextDayObserver);
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocation("south pole"), true, southObserver);
+
+        ContentValues updatedValues = new ContentValues();
+        updatedValues.put(WeatherEntry.COLUMN_MAX_TEMP, 99.5);
+        mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, updatedValues,
+                WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " = ?",
+                new String[]{Long.toString(northRowId), Long.toString(TestUtilities.TEST_DATE)});
+
+        dayObserver.waitForNotificationOrFail();
+        northObserver.waitForNotificationOrFail();
+        Thread.sleep(500);
+        assertFalse("Error: other days of the location should not be notified",
+                nextDayObserver.mContentChanged);
+        assertFalse("Error: other locations should not be notified",
+                southObserver.mContentChanged);
+
+        mContext.getContentResolver().unregisterContentObserver(northObserver);
+        mContext.getContentResolver().unregisterContentObserver(dayObserver);
+        mContext.getContentResolver().unregisterContentObserver(nextDayObserver);
+        mContext.getContentResolver().unregisterContentObserver(southObserver);
+        nextDayObserver.mHT.quit();
+        southObserver.mHT.quit();
+    }
+
+    // A batch applies in one transaction, resolves back-references to the location it adds,
+    // and leaves nothing behind when one of its operations fails.
+    public void testApplyBatch() throws Exception {
+        ContentValues[] weatherValues = createBulkInsertWeatherValues(0);
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                .withValues(TestUtilities.createNorthPoleLocationValues())
+                .build());
+        for (int i = 0; i < 2; i++) {
+            weatherValues[i].remove(WeatherEntry.COLUMN_LOC_KEY);
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(weatherValues[i])
+                    .withValueBackReference(WeatherEntry.COLUMN_LOC_KEY, 0)
+                    .build());
+        }
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION), true,
+                weatherObserver);
+        ContentProviderResult[] results = mContext.getContentResolver().applyBatch(
+                WeatherContract.CONTENT_AUTHORITY, operations);
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+
+        long locationRowId = ContentUris.parseId(results[0].uri);
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                new String[]{WeatherEntry.COLUMN_LOC_KEY}, null, null, null);
+        assertEquals("Error: expected both days of the batch", 2, cursor.getCount());
+        while (cursor.moveToNext()) {
+            assertEquals("Error: the back-reference should resolve to the added location",
+                    locationRowId, cursor.getLong(0));
+        }
+        cursor.close();
+
+        // An update that expects a row that isn't there fails the whole batch
+        deleteAllRecords();
+        operations.add(ContentProviderOperation.newUpdate(LocationEntry.CONTENT_URI)
+                .withValue(LocationEntry.COLUMN_CITY_ID, 1)
+                .withSelection(LocationEntry._ID + " = ?", new String[]{"-1"})
+                .withExpectedCount(1)
+                .build());
+        try {
+            mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY,
+                    operations);
+            fail("Error: the batch should have failed");
+        } catch (OperationApplicationException expected) {
+        }
+        cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI, null, null,
+                null, null);
+        assertEquals("Error: a failed batch should be rolled back", 0, cursor.getCount());
+        cursor.close();
+    }
+
+    private double getMaxTemp(Uri dayUri) {
+        Cursor cursor = mContext.getContentResolver().query(dayUri,
+                new String[]{WeatherEntry.COLUMN_MAX_TEMP}, null, null, null);
+        assertTrue("Error: expected the day's row", cursor.moveToFirst());
+        double maxTemp = cursor.getDouble(0);
+        cursor.close();
+        return maxTemp;
+    }
+
+    // Recorded timings are added to the stored bucket counts, and read back per stage and bucket.
+    public void testRecordTimings() {
+        mContext.getContentResolver().delete(SyncTimingEntry.CONTENT_URI, null, null);
+
+        long[] counts = new long[SyncTimingEntry.BUCKET_BOUNDS.length];
+        counts[SyncTimingEntry.getBucket(3)] = 2;
+        counts[SyncTimingEntry.getBucket(60 * 1000)] = 1;
+        Bundle extras = new Bundle();
+        extras.putLongArray("connect", counts);
+        mContext.getContentResolver().call(SyncTimingEntry.CONTENT_URI,
+                WeatherContract.METHOD_RECORD_TIMINGS, null, extras);
+        mContext.getContentResolver().call(SyncTimingEntry.CONTENT_URI,
+                WeatherContract.METHOD_RECORD_TIMINGS, null, extras);
+
+        Cursor cursor = mContext.getContentResolver().query(SyncTimingEntry.CONTENT_URI,
+                new String[]{SyncTimingEntry.COLUMN_STAGE, SyncTimingEntry.COLUMN_BUCKET,
+                        SyncTimingEntry.COLUMN_COUNT},
+                null, null, SyncTimingEntry.COLUMN_BUCKET + " ASC");
+        assertEquals("Error: expected one row per non-empty bucket", 2, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals("connect", cursor.getString(0));
+        assertEquals("Error: 3ms should fall into the <5ms bucket", 5, cursor.getLong(1));
+        assertEquals("Error: counts should add up across calls", 4, cursor.getLong(2));
+        cursor.moveToNext();
+        assertEquals("Error: timings past the last bound should fall into the overflow bucket",
+                Long.MAX_VALUE, cursor.getLong(1));
+        assertEquals(2, cursor.getLong(2));
+        cursor.close();
+
+        mContext.getContentResolver().delete(SyncTimingEntry.CONTENT_URI, null, null);
+    }
+
+    // Maintenance deletes the days past the retention it is given, or before today without
+    // one, notifies the weather observers and reports the database's size.
+    public void testMaintain() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        ContentValues[] values = new ContentValues[3];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = TestUtilities.createWeatherValues(locationRowId);
+            // The day before yesterday, yesterday and today
+            values[i].put(WeatherEntry.COLUMN_DATE, today - (2 - i) * 24L * 60 * 60 * 1000);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+        Bundle extras = new Bundle();
+        extras.putInt(WeatherContract.EXTRA_RETENTION_DAYS, 1);
+        Bundle result = mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_MAINTAIN, null, extras);
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+
+        assertEquals("Error: only the day before yesterday is past a day's retention", 1,
+                result.getInt(WeatherContract.EXTRA_DELETED_COUNT));
+        assertEquals(2, getWeatherDates().length);
+        assertTrue("Error: expected the database's size",
+                result.getLong(WeatherContract.EXTRA_PAGE_COUNT) > 0);
+
+        result = mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_MAINTAIN, null, null);
+        assertEquals("Error: without a retention only today on should be kept", 1,
+                result.getInt(WeatherContract.EXTRA_DELETED_COUNT));
+        assertEquals(1, getWeatherDates().length);
+
+        Bundle stats = mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_GET_DATABASE_STATS, null, null);
+        assertEquals("Error: maintenance should have switched on incremental auto-vacuum", 2,
+                stats.getInt(WeatherContract.EXTRA_AUTO_VACUUM));
+    }
+
+    private long[] getWeatherRowIds() {
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry._ID}, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        long[] rowIds = new long[cursor.getCount()];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            rowIds[i] = cursor.getLong(0);
+        }
+        cursor.close();
+        return rowIds;
+    }
+
+    private long[] getWeatherDates() {
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry.COLUMN_DATE}, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        long[] dates = new long[cursor.getCount()];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            dates[i] = cursor.getLong(0);
+        }
+        cursor.close();
+        return dates;
+    }
 }
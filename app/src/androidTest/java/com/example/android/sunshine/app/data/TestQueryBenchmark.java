@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+/*
+    Not a pass/fail test: fills a database with 1000 locations of 14 days each and times the
+    provider's three location queries against random locations, resolving each setting to its
+    location id through the same cache the provider uses, logging the latency percentiles of
+    each, so they can be compared across schema changes with
+    "adb logcat -s TestQueryBenchmark".
+ */
+public class TestQueryBenchmark extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestQueryBenchmark.class.getSimpleName();
+
+    private static final String TEST_DATABASE_NAME = "query_benchmark.db";
+
+    private static final int LOCATION_COUNT = 1000;
+    private static final int DAYS = 14;
+    private static final int WARM_UP_QUERIES = 100;
+    private static final int MEASURED_QUERIES = 1000;
+
+    private static final String[] FORECAST_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG
+    };
+
+    private WeatherDbHelper mDbHelper;
+    private LocationIdCache mLocationIds;
+    private long mToday;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+        mDbHelper = new WeatherDbHelper(mContext, TEST_DATABASE_NAME, true);
+        mLocationIds = new LocationIdCache(mDbHelper);
+        mToday = WeatherContract.normalizeDate(System.currentTimeMillis());
+        fill(mDbHelper.getWritableDatabase());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDbHelper.close();
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testBenchmarkLocationQueries() {
+        benchmark("location", WeatherProvider.sLocationIdSelection, false, DAYS);
+        benchmark("location from date", WeatherProvider.sLocationIdWithStartDateSelection,
+                true, DAYS / 2);
+        benchmark("location and day", WeatherProvider.sLocationIdAndDaySelection, true, 1);
+    }
+
+    private void benchmark(String name, String selection, boolean withDate, int expectedRows) {
+        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+        Random random = new Random(42);
+        long date = mToday + DAYS / 2 * 24L * 60 * 60 * 1000;
+        long[] queryNanos = new long[MEASURED_QUERIES];
+        for (int i = -WARM_UP_QUERIES; i < MEASURED_QUERIES; i++) {
+            String location = locationSetting(random.nextInt(LOCATION_COUNT));
+            long start = SystemClock.elapsedRealtimeNanos();
+            String locationId = Long.toString(mLocationIds.getId(location));
+            String[] args = withDate
+                    ? new String[]{locationId, Long.toString(date)}
+                    : new String[]{locationId};
+            Cursor cursor = WeatherProvider.sWeatherWithLocationQueryBuilder.query(db,
+                    FORECAST_COLUMNS, selection, args, null, null,
+                    WeatherEntry.COLUMN_DATE + " ASC");
+            assertEquals(expectedRows, cursor.getCount());
+            cursor.close();
+            if (i >= 0) {
+                queryNanos[i] = SystemClock.elapsedRealtimeNanos() - start;
+            }
+        }
+        Arrays.sort(queryNanos);
+        Log.i(LOG_TAG, String.format(Locale.US,
+                "%s, %d locations x %d days, %d queries: p50 %dus, p90 %dus, p99 %dus",
+                name, LOCATION_COUNT, DAYS, MEASURED_QUERIES,
+                percentile(queryNanos, 50) / 1000, percentile(queryNanos, 90) / 1000,
+                percentile(queryNanos, 99) / 1000));
+    }
+
+    private static String locationSetting(int i) {
+        return "benchmark " + i;
+    }
+
+    private void fill(SQLiteDatabase db) {
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < LOCATION_COUNT; i++) {
+                ContentValues location = new ContentValues();
+                location.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting(i));
+                location.put(LocationEntry.COLUMN_CITY_NAME, locationSetting(i));
+                location.put(LocationEntry.COLUMN_COORD_LAT, 0.0);
+                location.put(LocationEntry.COLUMN_COORD_LONG, 0.0);
+                long locationId = db.insert(LocationEntry.TABLE_NAME, null, location);
+
+                for (int day = 0; day < DAYS; day++) {
+                    ContentValues weather = TestUtilities.createWeatherValues(locationId);
+                    weather.put(WeatherEntry.COLUMN_DATE, mToday + day * 24L * 60 * 60 * 1000);
+                    db.insert(WeatherEntry.TABLE_NAME, null, weather);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    // The sorted samples' value at the given percentile
+    private static long percentile(long[] sorted, int percentile) {
+        int index = (int) Math.ceil(sorted.length * percentile / 100.0) - 1;
+        return sorted[Math.max(0, index)];
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Checks that the provider's query cache hands back what was put in, counts its hits, misses
+    and evictions, and drops exactly the results of the locations it is told were written.
+ */
+public class TestQueryCache extends AndroidTestCase {
+
+    private static final String[] COLUMNS = {
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP
+    };
+
+    public void testGetReturnsPutRows() {
+        QueryCache cache = new QueryCache();
+        QueryCache.Key key = createKey(1, "north", null);
+        assertNull(cache.get(key));
+
+        Cursor cursor = cache.put(key, createCursor(), cache.getGeneration());
+        assertRows(cursor);
+        cursor.close();
+
+        cursor = cache.get(key);
+        assertNotNull("Error: a put result should be served from the cache", cursor);
+        assertRows(cursor);
+        cursor.close();
+        assertEquals(1, cache.hitCount());
+        assertEquals(1, cache.missCount());
+
+        assertNull("Error: a different projection is a different result",
+                cache.get(createKey(1, "north", new String[]{WeatherEntry.COLUMN_DATE})));
+    }
+
+    public void testInvalidateDropsOnlyThatLocation() {
+        QueryCache cache = new QueryCache();
+        QueryCache.Key north = createKey(1, "north", null);
+        QueryCache.Key south = createKey(2, "south", null);
+        cache.put(north, createCursor(), cache.getGeneration()).close();
+        cache.put(south, createCursor(), cache.getGeneration()).close();
+
+        cache.invalidate(1);
+        assertNull("Error: the written location's result should be dropped", cache.get(north));
+        Cursor cursor = cache.get(south);
+        assertNotNull("Error: other locations' results should be kept", cursor);
+        cursor.close();
+
+        cache.invalidateAll();
+        assertNull(cache.get(south));
+        assertEquals(0, cache.size());
+    }
+
+    public void testReadRacingInvalidationIsNotKept() {
+        QueryCache cache = new QueryCache();
+        QueryCache.Key key = createKey(1, "north", null);
+        long generation = cache.getGeneration();
+        cache.invalidate(1);
+
+        Cursor cursor = cache.put(key, createCursor(), generation);
+        assertRows(cursor);
+        cursor.close();
+        assertNull("Error: a read started before a write should not be kept", cache.get(key));
+    }
+
+    public void testLeastRecentlyUsedIsEvicted() {
+        QueryCache cache = new QueryCache();
+        for (int i = 0; i <= QueryCache.MAX_ENTRIES; i++) {
+            cache.put(createKey(i, "location" + i, null), createCursor(),
+                    cache.getGeneration()).close();
+        }
+        assertEquals(QueryCache.MAX_ENTRIES, cache.size());
+        assertEquals(1, cache.evictionCount());
+        assertNull("Error: the oldest result should have been evicted",
+                cache.get(createKey(0, "location0", null)));
+    }
+
+    private static QueryCache.Key createKey(long locationId, String locationSetting,
+                                            String[] projection) {
+        Uri uri = WeatherEntry.buildWeatherLocationWithStartDate(locationSetting,
+                TestUtilities.TEST_DATE);
+        return new QueryCache.Key(locationId, uri, projection, WeatherEntry.COLUMN_DATE + " ASC");
+    }
+
+    private static Cursor createCursor() {
+        MatrixCursor cursor = new MatrixCursor(COLUMNS);
+        cursor.addRow(new Object[]{TestUtilities.TEST_DATE, "Asteroids", 75.5});
+        cursor.addRow(new Object[]{TestUtilities.TEST_DATE + 1, null, 65.0});
+        return cursor;
+    }
+
+    private static void assertRows(Cursor cursor) {
+        assertEquals(2, cursor.getCount());
+        assertEquals(3, cursor.getColumnCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals(TestUtilities.TEST_DATE, cursor.getLong(0));
+        assertEquals("Asteroids", cursor.getString(1));
+        assertEquals(75.5, cursor.getDouble(2), 0.0);
+        assertTrue(cursor.moveToNext());
+        assertTrue("Error: nulls should stay null", cursor.isNull(1));
+    }
+}
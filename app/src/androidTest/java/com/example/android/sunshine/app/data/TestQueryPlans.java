@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/*
+    Checks with EXPLAIN QUERY PLAN that the provider's hot queries range-scan the
+    (location_id, date) index of the weather table, without scanning the table or sorting the
+    rows afterwards, and only join the location table when its columns are asked for.  A
+    schema change that loses the index, or puts its columns back in the wrong order, fails here.
+ */
+public class TestQueryPlans extends AndroidTestCase {
+
+    private static final String TEST_DATABASE_NAME = "query_plan_test.db";
+
+    // What the forecast list asks for, which needs the join
+    private static final String[] FORECAST_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG
+    };
+    // What the widgets ask for, which doesn't
+    private static final String[] WIDGET_COLUMNS = {
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP
+    };
+    private static final String SORT_ORDER = WeatherEntry.COLUMN_DATE + " ASC";
+
+    private static final Pattern SCAN_WEATHER =
+            Pattern.compile("SCAN (TABLE )?" + WeatherEntry.TABLE_NAME + "\\b");
+
+    private WeatherDbHelper mDbHelper;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+        mDbHelper = new WeatherDbHelper(mContext, TEST_DATABASE_NAME, true);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDbHelper.close();
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testLocationQueryUsesIndex() {
+        assertRangeScans(WeatherProvider.sLocationIdSelection, new String[]{"1"});
+    }
+
+    public void testLocationWithStartDateQueryUsesIndex() {
+        assertRangeScans(WeatherProvider.sLocationIdWithStartDateSelection,
+                new String[]{"1", Long.toString(TestUtilities.TEST_DATE)});
+    }
+
+    public void testLocationAndDayQueryUsesIndex() {
+        assertRangeScans(WeatherProvider.sLocationIdAndDaySelection,
+                new String[]{"1", Long.toString(TestUtilities.TEST_DATE)});
+    }
+
+    public void testLocationAndRangeQueryUsesIndex() {
+        String[] selectionArgs = {"1", Long.toString(TestUtilities.TEST_DATE),
+                Long.toString(TestUtilities.TEST_DATE + 3 * 24L * 60 * 60 * 1000)};
+        assertRangeScans(WeatherProvider.sLocationIdAndRangeSelection, selectionArgs, "2, 3");
+
+        List<String> plan = explain(mDbHelper.getReadableDatabase(),
+                WeatherProvider.sWeatherQueryBuilder.buildQuery(WIDGET_COLUMNS,
+                        WeatherProvider.sLocationIdAndRangeSelection, null, null, SORT_ORDER,
+                        "2, 3"),
+                selectionArgs);
+        assertTrue("Error: both ends of the range should bound the index search: " + plan,
+                plan.get(0).contains(WeatherEntry.COLUMN_DATE + "<?"));
+    }
+
+    public void testJoinOnlyForLocationColumns() {
+        assertSame(WeatherProvider.sWeatherWithLocationQueryBuilder,
+                WeatherProvider.getWeatherQueryBuilder(FORECAST_COLUMNS));
+        assertSame(WeatherProvider.sWeatherWithLocationQueryBuilder,
+                WeatherProvider.getWeatherQueryBuilder(null));
+        assertSame("Error: weather columns alone should not join the location table",
+                WeatherProvider.sWeatherQueryBuilder,
+                WeatherProvider.getWeatherQueryBuilder(WIDGET_COLUMNS));
+    }
+
+    private void assertRangeScans(String selection, String[] selectionArgs) {
+        assertRangeScans(selection, selectionArgs, null);
+    }
+
+    private void assertRangeScans(String selection, String[] selectionArgs, String limit) {
+        List<String> plan = assertRangeScan(WeatherProvider.sWeatherWithLocationQueryBuilder,
+                FORECAST_COLUMNS, selection, selectionArgs, limit);
+        boolean looksUpLocation = false;
+        for (String step : plan) {
+            looksUpLocation |= step.contains(LocationEntry.TABLE_NAME + " USING INTEGER PRIMARY KEY");
+        }
+        assertTrue("Error: the joined location should be looked up by its id: " + plan,
+                looksUpLocation);
+
+        plan = assertRangeScan(WeatherProvider.sWeatherQueryBuilder, WIDGET_COLUMNS, selection,
+                selectionArgs, limit);
+        assertEquals("Error: a weather-only query should be a single index search: " + plan,
+                1, plan.size());
+    }
+
+    private List<String> assertRangeScan(SQLiteQueryBuilder builder, String[] projection,
+                                         String selection, String[] selectionArgs,
+                                         String limit) {
+        String sql = builder.buildQuery(projection, selection, null, null, SORT_ORDER, limit);
+        List<String> plan = explain(mDbHelper.getReadableDatabase(), sql, selectionArgs);
+
+        boolean searchesWeather = false;
+        for (String step : plan) {
+            assertFalse("Error: the weather table should not be scanned: " + plan,
+                    SCAN_WEATHER.matcher(step).find());
+            assertFalse("Error: the rows should come out of the index sorted by date: " + plan,
+                    step.contains("TEMP B-TREE"));
+            searchesWeather |= step.contains(WeatherEntry.TABLE_NAME + " USING INDEX") &&
+                    step.contains(WeatherEntry.COLUMN_LOC_KEY + "=?");
+        }
+        assertTrue("Error: the weather table should be searched by location: " + plan,
+                searchesWeather);
+        return plan;
+    }
+
+    // The detail of each step of the statement's query plan
+    private static List<String> explain(SQLiteDatabase db, String sql, String[] args) {
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        try {
+            int detailIndex = cursor.getColumnIndex("detail");
+            List<String> plan = new ArrayList<String>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                plan.add(cursor.getString(detailIndex));
+            }
+            return plan;
+        } finally {
+            cursor.close();
+        }
+    }
+}
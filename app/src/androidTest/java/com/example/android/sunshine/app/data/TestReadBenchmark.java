@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/*
+    Not a pass/fail test: reads today's forecast row the way the widgets and the notification
+    used to, through query() and a Cursor, and through the provider's call() fast path, and
+    logs the per-read latency percentiles of each, so they can be compared with
+    "adb logcat -s TestReadBenchmark".
+ */
+public class TestReadBenchmark extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestReadBenchmark.class.getSimpleName();
+
+    private static final int WARM_UP_READS = 100;
+    private static final int MEASURED_READS = 1000;
+
+    private static final String[] TODAY_COLUMNS = {
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        long locationRowId = ContentUris.parseId(locationUri);
+        ContentValues[] values = TestProvider.createBulkInsertWeatherValues(locationRowId);
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        for (int i = 0; i < values.length; i++) {
+            values[i].put(WeatherEntry.COLUMN_DATE, today + i * 24L * 60 * 60 * 1000);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        super.tearDown();
+    }
+
+    public void testBenchmarkTodayReads() {
+        for (int i = 0; i < WARM_UP_READS; i++) {
+            readWithCursor();
+            readWithCall();
+        }
+        long[] cursorNanos = new long[MEASURED_READS];
+        long[] callNanos = new long[MEASURED_READS];
+        // Interleaved, so neither path gets a quieter stretch of the run
+        for (int i = 0; i < MEASURED_READS; i++) {
+            long start = SystemClock.elapsedRealtimeNanos();
+            readWithCursor();
+            cursorNanos[i] = SystemClock.elapsedRealtimeNanos() - start;
+
+            start = SystemClock.elapsedRealtimeNanos();
+            readWithCall();
+            callNanos[i] = SystemClock.elapsedRealtimeNanos() - start;
+        }
+        log("query()", cursorNanos);
+        log("call()", callNanos);
+    }
+
+    // Returns today's weather id, so the reads can't be optimized away
+    private int readWithCursor() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithStartDate(TestUtilities.TEST_LOCATION,
+                        System.currentTimeMillis()),
+                TODAY_COLUMNS, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        try {
+            assertTrue(cursor.moveToFirst());
+            cursor.getString(1);
+            cursor.getDouble(2);
+            cursor.getDouble(3);
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int readWithCall() {
+        Bundle result = mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_GET_TODAY, TestUtilities.TEST_LOCATION, null);
+        ForecastBatch today = ForecastBatch.fromBundle(result);
+        assertEquals(1, today.size());
+        today.getDescription(0);
+        today.getMaxTemp(0);
+        today.getMinTemp(0);
+        return today.getWeatherId(0);
+    }
+
+    private static void log(String path, long[] nanos) {
+        Arrays.sort(nanos);
+        Log.i(LOG_TAG, String.format(Locale.US, "%s, %d reads: p50 %dus, p90 %dus, p99 %dus",
+                path, nanos.length, percentile(nanos, 50) / 1000,
+                percentile(nanos, 90) / 1000, percentile(nanos, 99) / 1000));
+    }
+
+    // The sorted samples' value at the given percentile
+    private static long percentile(long[] sorted, int percentile) {
+        int index = (int) Math.ceil(sorted.length * percentile / 100.0) - 1;
+        return sorted[Math.max(0, index)];
+    }
+}
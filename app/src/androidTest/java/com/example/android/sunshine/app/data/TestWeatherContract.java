@@ -42,4 +42,46 @@ public class TestWeatherContract extends AndroidTestCase {
                 locationUri.toString(),
                 "content://com.example.android.sunshine.app/weather/%2FNorth%20Pole");
     }
+
+    public void testBuildWeatherLocationWithRange() {
+        long endDate = TEST_WEATHER_DATE + 3 * 24L * 60 * 60 * 1000;
+        Uri rangeUri = WeatherContract.WeatherEntry.buildWeatherLocationWithRange(
+                TEST_WEATHER_LOCATION, TEST_WEATHER_DATE, endDate, 2, 1);
+        assertEquals(TEST_WEATHER_LOCATION,
+                WeatherContract.WeatherEntry.getLocationSettingFromUri(rangeUri));
+        assertEquals("Error: the start date should be normalized",
+                WeatherContract.normalizeDate(TEST_WEATHER_DATE),
+                WeatherContract.WeatherEntry.getRangeStartFromUri(rangeUri));
+        assertEquals(WeatherContract.normalizeDate(endDate),
+                WeatherContract.WeatherEntry.getRangeEndFromUri(rangeUri));
+        assertEquals(2, WeatherContract.WeatherEntry.getLimitFromUri(rangeUri));
+        assertEquals(1, WeatherContract.WeatherEntry.getOffsetFromUri(rangeUri));
+
+        rangeUri = WeatherContract.WeatherEntry.buildWeatherLocationWithRange(
+                TEST_WEATHER_LOCATION, TEST_WEATHER_DATE, endDate);
+        assertEquals("Error: an unlimited range should have no limit", 0,
+                WeatherContract.WeatherEntry.getLimitFromUri(rangeUri));
+        assertEquals(0, WeatherContract.WeatherEntry.getOffsetFromUri(rangeUri));
+    }
+
+    public void testMalformedRangeParameters() {
+        Uri rangeUri = WeatherContract.WeatherEntry.buildWeatherLocationWithRange(
+                TEST_WEATHER_LOCATION, TEST_WEATHER_DATE, TEST_WEATHER_DATE);
+        try {
+            WeatherContract.WeatherEntry.getLimitFromUri(rangeUri.buildUpon()
+                    .appendQueryParameter(WeatherContract.WeatherEntry.PARAM_LIMIT, "ten").build());
+            fail("Error: a limit that is not a number should be rejected");
+        } catch (IllegalArgumentException e) {
+            assertTrue("Error: the error should name the parameter",
+                    e.getMessage().contains(WeatherContract.WeatherEntry.PARAM_LIMIT));
+        }
+        try {
+            WeatherContract.WeatherEntry.getOffsetFromUri(rangeUri.buildUpon()
+                    .appendQueryParameter(WeatherContract.WeatherEntry.PARAM_OFFSET, "-1").build());
+            fail("Error: a negative offset should be rejected");
+        } catch (IllegalArgumentException e) {
+            assertTrue("Error: the error should name the parameter",
+                    e.getMessage().contains(WeatherContract.WeatherEntry.PARAM_OFFSET));
+        }
+    }
 }
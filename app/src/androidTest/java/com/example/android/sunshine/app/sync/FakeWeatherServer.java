@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/*
+    A minimal local stand-in for the OpenWeatherMap forecast endpoint.  It answers every GET
+    with the configured body, or with the body recorded for the "q" or "id" the request asks
+    for, and honours If-None-Match / If-Modified-Since against the configured ETag and
+    Last-Modified the way a caching server would.
+
+    To stand in for a real network it can also wait before answering, trickle the body out
+    at a given bandwidth, fail every request with an HTTP status, or answer a location with
+    an OWM error "cod".  Connections are served concurrently, like the real server would.
+ */
+class FakeWeatherServer implements Runnable {
+
+    public static final String LOG_TAG = FakeWeatherServer.class.getSimpleName();
+
+    // Chunk the body is written in when the bandwidth is limited
+    private static final int THROTTLE_CHUNK_SIZE = 1024;
+
+    private final ServerSocket mServerSocket;
+    private final Thread mThread;
+    private final ExecutorService mConnections = Executors.newCachedThreadPool();
+
+    private volatile byte[] mBody = new byte[0];
+    private volatile String mETag;
+    private volatile String mLastModified;
+    private final Map<String, byte[]> mBodiesByLocation = new ConcurrentHashMap<String, byte[]>();
+    private volatile long mLatencyMillis;
+    private volatile int mBytesPerSecond;
+    private volatile int mStatusCode = 200;
+
+    private volatile int mRequestCount;
+    private volatile int mNotModifiedCount;
+    private volatile Map<String, String> mLastRequestHeaders = new HashMap<String, String>();
+
+    FakeWeatherServer() throws IOException {
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        mThread = new Thread(this, LOG_TAG);
+        mThread.start();
+    }
+
+    /*
+        The base URL to hand to ForecastFetcher.
+     */
+    String getBaseUrl() {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + "/data/2.5/forecast/daily?";
+    }
+
+    void setResponse(byte[] body, String eTag, String lastModified) {
+        mBody = body;
+        mETag = eTag;
+        mLastModified = lastModified;
+    }
+
+    /*
+        Serves body to requests whose "q" or "id" parameter is location, instead of the body
+        passed to setResponse().
+     */
+    void setResponse(String location, byte[] body) {
+        mBodiesByLocation.put(location, body);
+    }
+
+    /*
+        Makes the server answer the location with an OWM error, such as 404 for an unknown
+        city.  Like OWM, it still answers with HTTP 200 and puts the error in the body.
+     */
+    void setCod(String location, int cod) {
+        try {
+            setResponse(location, ("{\"cod\":\"" + cod + "\",\"message\":\"Error: cod " + cod +
+                    "\"}").getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /*
+        Waits this long after reading a request before answering it.
+     */
+    void setLatency(long millis) {
+        mLatencyMillis = millis;
+    }
+
+    /*
+        Writes bodies at about this many bytes per second, or as fast as it can if 0.
+     */
+    void setBandwidth(int bytesPerSecond) {
+        mBytesPerSecond = bytesPerSecond;
+    }
+
+    /*
+        Answers every request that is not Not Modified with this HTTP status; anything but 200
+        comes without a body.
+     */
+    void setStatusCode(int statusCode) {
+        mStatusCode = statusCode;
+    }
+
+    int getRequestCount() {
+        return mRequestCount;
+    }
+
+    int getNotModifiedCount() {
+        return mNotModifiedCount;
+    }
+
+    Map<String, String> getLastRequestHeaders() {
+        return mLastRequestHeaders;
+    }
+
+    void shutdown() {
+        try {
+            mServerSocket.close();
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error closing server socket", e);
+        }
+        try {
+            mThread.join();
+            mConnections.shutdownNow();
+            mConnections.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (!mServerSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = mServerSocket.accept();
+            } catch (IOException e) {
+                // closed by shutdown()
+                return;
+            }
+            mConnections.execute(new Runnable() {
+                @Override
+                public void run() {
+                    serve(socket);
+                }
+            });
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            handle(socket);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error serving request", e);
+        } catch (InterruptedException e) {
+            // shutdown() while throttling; drop the connection
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error closing socket", e);
+            }
+        }
+    }
+
+    private void handle(Socket socket) throws IOException, InterruptedException {
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+        String requestLine = reader.readLine();
+        if (requestLine == null) {
+            return;
+        }
+        Map<String, String> headers = new HashMap<String, String>();
+        String line;
+        while ((line = reader.readLine()) != null && line.length() > 0) {
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                headers.put(line.substring(0, colon).trim().toLowerCase(),
+                        line.substring(colon + 1).trim());
+            }
+        }
+        synchronized (this) {
+            mLastRequestHeaders = headers;
+            mRequestCount++;
+        }
+        byte[] locationBody = getLocationBody(requestLine);
+        if (mLatencyMillis > 0) {
+            Thread.sleep(mLatencyMillis);
+        }
+
+        String eTag = mETag;
+        String lastModified = mLastModified;
+        boolean notModified =
+                (eTag != null && eTag.equals(headers.get("if-none-match"))) ||
+                (eTag == null && lastModified != null &&
+                        lastModified.equals(headers.get("if-modified-since")));
+
+        StringBuilder response = new StringBuilder();
+        int statusCode = mStatusCode;
+        byte[] body = notModified || statusCode != 200
+                ? new byte[0] : locationBody != null ? locationBody : mBody;
+        if (notModified) {
+            synchronized (this) {
+                mNotModifiedCount++;
+            }
+            response.append("HTTP/1.1 304 Not Modified\r\n");
+        } else if (statusCode != 200) {
+            response.append("HTTP/1.1 ").append(statusCode).append(" Error\r\n");
+            response.append("Content-Length: 0\r\n");
+        } else {
+            response.append("HTTP/1.1 200 OK\r\n");
+            response.append("Content-Type: application/json; charset=utf-8\r\n");
+            response.append("Content-Length: ").append(body.length).append("\r\n");
+        }
+        if (eTag != null) {
+            response.append("ETag: ").append(eTag).append("\r\n");
+        }
+        if (lastModified != null) {
+            response.append("Last-Modified: ").append(lastModified).append("\r\n");
+        }
+        response.append("Connection: close\r\n\r\n");
+
+        OutputStream out = socket.getOutputStream();
+        out.write(response.toString().getBytes("ISO-8859-1"));
+        writeBody(out, body);
+        out.flush();
+    }
+
+    private void writeBody(OutputStream out, byte[] body) throws IOException,
+            InterruptedException {
+        int bytesPerSecond = mBytesPerSecond;
+        if (bytesPerSecond <= 0) {
+            out.write(body);
+            return;
+        }
+        for (int offset = 0; offset < body.length; offset += THROTTLE_CHUNK_SIZE) {
+            int count = Math.min(THROTTLE_CHUNK_SIZE, body.length - offset);
+            out.write(body, offset, count);
+            out.flush();
+            Thread.sleep(count * 1000L / bytesPerSecond);
+        }
+    }
+
+    /*
+        The body recorded for the location a request line such as
+        "GET /data/2.5/forecast/daily?q=94043&mode=json HTTP/1.1" asks for, if any.
+     */
+    private byte[] getLocationBody(String requestLine) throws IOException {
+        int queryStart = requestLine.indexOf('?');
+        int queryEnd = requestLine.lastIndexOf(' ');
+        if (queryStart < 0 || queryEnd <= queryStart) {
+            return null;
+        }
+        for (String parameter : requestLine.substring(queryStart + 1, queryEnd).split("&")) {
+            int equals = parameter.indexOf('=');
+            if (equals < 0) {
+                continue;
+            }
+            String name = parameter.substring(0, equals);
+            if (name.equals("q") || name.equals("id")) {
+                return mBodiesByLocation.get(
+                        URLDecoder.decode(parameter.substring(equals + 1), "UTF-8"));
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+    A versioned set of real OpenWeatherMap responses, replayed by FakeWeatherServer so syncs
+    can be run and measured without a network.
+
+    Each version is a manifest in the test assets, forecast/corpus_v<version>.txt, listing
+    one location setting and response file per line.  record() captures a new version from
+    the live server into a directory on the device; pull it with adb and add it to the
+    assets, then bump VERSION.
+ */
+class ForecastCorpus {
+
+    static final int VERSION = 1;
+    static final String ASSET_DIRECTORY = "forecast";
+
+    private static final String COMMENT = "#";
+    private static final String SEPARATOR = "\t";
+
+    // location setting -> recorded response, in manifest order
+    final Map<String, byte[]> responses;
+
+    private ForecastCorpus(Map<String, byte[]> responses) {
+        this.responses = Collections.unmodifiableMap(responses);
+    }
+
+    static String getManifestName(int version) {
+        return "corpus_v" + version + ".txt";
+    }
+
+    /*
+        Loads the current version from the test assets.  Pass the instrumentation's own
+        context, which holds them.
+     */
+    static ForecastCorpus load(Context testContext) throws IOException {
+        Map<String, byte[]> responses = new LinkedHashMap<String, byte[]>();
+        InputStream in = testContext.getAssets().open(
+                ASSET_DIRECTORY + "/" + getManifestName(VERSION));
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() == 0 || line.startsWith(COMMENT)) {
+                    continue;
+                }
+                String[] entry = line.split(SEPARATOR);
+                responses.put(entry[0], TestForecastParser.readAsset(testContext,
+                        ASSET_DIRECTORY + "/" + entry[1]));
+            }
+        } finally {
+            in.close();
+        }
+        return new ForecastCorpus(responses);
+    }
+
+    /*
+        Makes the server answer each recorded location with its response.
+     */
+    void serve(FakeWeatherServer server) {
+        for (Map.Entry<String, byte[]> response : responses.entrySet()) {
+            server.setResponse(response.getKey(), response.getValue());
+        }
+    }
+
+    /*
+        Requests the forecast of every location from the live server, the way a sync does,
+        and writes the responses and the manifest of the given version into directory.
+     */
+    static void record(List<String> locations, File directory, int version) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        ForecastFetcher fetcher = new ForecastFetcher();
+        Writer manifest = new OutputStreamWriter(
+                new FileOutputStream(new File(directory, getManifestName(version))), "UTF-8");
+        try {
+            manifest.write(COMMENT + " Recorded OpenWeatherMap daily forecast responses, corpus" +
+                    " version " + version + ".\n");
+            manifest.write(COMMENT + " Recorded " + new Date() + " from " +
+                    ForecastFetcher.FORECAST_BASE_URL + "\n");
+            for (String location : locations) {
+                String fileName = "daily_" + location.toLowerCase().replaceAll("[^a-z0-9]+", "_") +
+                        ".json";
+                byte[] response = download(fetcher.buildUri(location).toString());
+                OutputStream out = new FileOutputStream(new File(directory, fileName));
+                try {
+                    out.write(response);
+                } finally {
+                    out.close();
+                }
+                manifest.write(location + SEPARATOR + fileName + "\n");
+            }
+        } finally {
+            manifest.close();
+        }
+    }
+
+    private static byte[] download(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        try {
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                throw new IOException("HTTP " + connection.getResponseCode() + " for " + url);
+            }
+            InputStream in = connection.getInputStream();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.test.AndroidTestCase;
+
+import java.util.Random;
+
+/*
+    Walks a CircuitBreaker through its states, with the clock passed in, and checks the
+    retry delays it is paired with.
+ */
+public class TestCircuitBreaker extends AndroidTestCase {
+
+    private static final String TEST_PREFS_NAME = "test_circuit_breaker";
+    private static final String TEST_ENDPOINT = "127.0.0.1:8080";
+
+    private SharedPreferences mPreferences;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPreferences = mContext.getSharedPreferences(TEST_PREFS_NAME, Context.MODE_PRIVATE);
+        mPreferences.edit().clear().commit();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mPreferences.edit().clear().commit();
+        super.tearDown();
+    }
+
+    private static void failRequests(CircuitBreaker breaker, int times, long now) {
+        for (int i = 0; i < times; i++) {
+            assertTrue(breaker.allowRequest(now));
+            breaker.onFailure(now);
+        }
+    }
+
+    public void testTripsAfterConsecutiveFailures() {
+        CircuitBreaker breaker = new CircuitBreaker(mPreferences, TEST_ENDPOINT);
+        failRequests(breaker, CircuitBreaker.FAILURE_THRESHOLD - 1, 0);
+        breaker.onSuccess();
+        failRequests(breaker, CircuitBreaker.FAILURE_THRESHOLD - 1, 0);
+        assertEquals("Error: a success should reset the failure count",
+                CircuitBreaker.STATE_CLOSED, breaker.getState());
+
+        breaker.onFailure(0);
+        assertEquals(CircuitBreaker.STATE_OPEN, breaker.getState());
+        assertFalse("Error: an open breaker should reject requests", breaker.allowRequest(1000));
+        assertEquals(1, breaker.getTripCount());
+        assertEquals(1, breaker.getRejectedCount());
+    }
+
+    public void testHalfOpenLetsOneTrialThrough() {
+        CircuitBreaker breaker = new CircuitBreaker(mPreferences, TEST_ENDPOINT);
+        failRequests(breaker, CircuitBreaker.FAILURE_THRESHOLD, 0);
+
+        long later = CircuitBreaker.OPEN_MILLIS;
+        assertTrue("Error: the breaker should let a trial through once open long enough",
+                breaker.allowRequest(later));
+        assertEquals(CircuitBreaker.STATE_HALF_OPEN, breaker.getState());
+        assertFalse("Error: only one trial at a time", breaker.allowRequest(later));
+
+        // A failed trial reopens it, for twice as long
+        breaker.onFailure(later);
+        assertEquals(CircuitBreaker.STATE_OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest(later + CircuitBreaker.OPEN_MILLIS));
+        assertTrue(breaker.allowRequest(later + 2 * CircuitBreaker.OPEN_MILLIS));
+
+        breaker.onSuccess();
+        assertEquals(CircuitBreaker.STATE_CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest(later + 2 * CircuitBreaker.OPEN_MILLIS));
+        assertEquals(2, breaker.getTripCount());
+    }
+
+    public void testStateSurvivesRestart() {
+        CircuitBreaker breaker = new CircuitBreaker(mPreferences, TEST_ENDPOINT);
+        failRequests(breaker, CircuitBreaker.FAILURE_THRESHOLD, 0);
+        breaker.onRetry();
+
+        CircuitBreaker restarted = new CircuitBreaker(mPreferences, TEST_ENDPOINT);
+        assertEquals("Error: a restarted process should find the breaker open",
+                CircuitBreaker.STATE_OPEN, restarted.getState());
+        assertFalse(restarted.allowRequest(1000));
+        assertEquals(1, restarted.getRetryCount());
+        assertEquals(1, restarted.getTripCount());
+
+        assertEquals("Error: endpoints should have breakers of their own",
+                CircuitBreaker.STATE_CLOSED,
+                new CircuitBreaker(mPreferences, "example.com").getState());
+    }
+
+    public void testRetryDelaysAreJitteredAndBounded() {
+        Random random = new Random(42);
+        boolean varied = false;
+        long previous = -1;
+        for (int attempt = 1; attempt <= 8; attempt++) {
+            long bound = Math.min(RetryPolicy.MAX_DELAY_MILLIS,
+                    RetryPolicy.BASE_DELAY_MILLIS << (attempt - 1));
+            for (int i = 0; i < 20; i++) {
+                long delay = RetryPolicy.getDelayMillis(attempt, random);
+                assertTrue("Error: delay " + delay + " out of bounds for attempt " + attempt,
+                        delay >= 0 && delay < bound);
+                varied |= previous != -1 && delay != previous;
+                previous = delay;
+            }
+        }
+        assertTrue("Error: delays should be jittered", varied);
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.database.MatrixCursor;
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import java.net.HttpURLConnection;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+    Checks that locations resolving to the same city are fetched with one request, and logs
+    the requests and wall time of fetching the same locations one request per setting.
+ */
+public class TestFetchGroup extends InstrumentationTestCase {
+
+    public static final String LOG_TAG = TestFetchGroup.class.getSimpleName();
+
+    private static final long MOUNTAIN_VIEW_ID = 5375480;
+    private static final long LONDON_ID = 2643743;
+
+    // location setting, the city it resolves to, and its recorded response
+    private static final Object[][] TRACKED_LOCATIONS = {
+            {"94043", MOUNTAIN_VIEW_ID, 0},
+            {"Mountain View,US", MOUNTAIN_VIEW_ID, 0},
+            {"mountain view", MOUNTAIN_VIEW_ID, 0},
+            {"London,UK", LONDON_ID, 1},
+            {"london", LONDON_ID, 1},
+            {"London", LONDON_ID, 1},
+    };
+
+    private static final int TEST_WINDOW_DAY = 2457505;
+
+    private FakeWeatherServer mServer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new FakeWeatherServer();
+        Context testContext = getInstrumentation().getContext();
+        for (Object[] location : TRACKED_LOCATIONS) {
+            byte[] body = TestForecastParser.readAsset(testContext,
+                    TestForecastParser.RECORDED_RESPONSES[(Integer) location[2]]);
+            mServer.setResponse((String) location[0], body);
+            mServer.setResponse(location[1].toString(), body);
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    /*
+        The rows SunshineSyncAdapter reads from the location table: _ID, setting, city id.
+     */
+    private static MatrixCursor createLocationCursor(boolean resolved) {
+        MatrixCursor cursor = new MatrixCursor(new String[]{"_id", "location_setting", "city_id"});
+        for (int i = 0; i < TRACKED_LOCATIONS.length; i++) {
+            cursor.addRow(new Object[]{i + 1, TRACKED_LOCATIONS[i][0],
+                    resolved ? TRACKED_LOCATIONS[i][1] : null});
+        }
+        return cursor;
+    }
+
+    public void testGroupsByCity() {
+        List<FetchGroup> groups = FetchGroup.group("london", createLocationCursor(true));
+
+        assertEquals("Error: expected one group per city", 2, groups.size());
+        assertEquals("Error: the preferred location's city must be fetched first",
+                LONDON_ID, groups.get(0).cityId);
+        assertEquals(3, groups.get(0).locations.size());
+        assertEquals(Long.valueOf(5), groups.get(0).locations.get("london"));
+        assertEquals(MOUNTAIN_VIEW_ID, groups.get(1).cityId);
+        assertEquals(3, groups.get(1).locations.size());
+    }
+
+    public void testUnresolvedLocationsAreFetchedAlone() {
+        List<FetchGroup> groups = FetchGroup.group("Paris", createLocationCursor(false));
+
+        assertEquals("Error: an untracked preferred location needs a group of its own",
+                TRACKED_LOCATIONS.length + 1, groups.size());
+        assertEquals("Paris", groups.get(0).getValidatorsKey());
+        assertEquals(Long.valueOf(-1), groups.get(0).locations.get("Paris"));
+        for (FetchGroup group : groups) {
+            assertEquals(0, group.cityId);
+            assertEquals(1, group.locations.size());
+        }
+    }
+
+    public void testSelectRequestedLocations() {
+        List<FetchGroup> groups = FetchGroup.group("94043", createLocationCursor(true));
+        List<FetchGroup> selected = FetchGroup.select(groups, Arrays.asList("london", "Paris"));
+
+        assertEquals(2, selected.size());
+        assertEquals("Error: a requested location should bring its whole city",
+                LONDON_ID, selected.get(0).cityId);
+        assertEquals("Error: an untracked requested location needs a group of its own",
+                "Paris", selected.get(1).getValidatorsKey());
+    }
+
+    /*
+        Fetches every tracked location once per setting, as before the city ids were known,
+        then once per city, and checks that both give each location the same forecast.
+     */
+    public void testGroupedFetchMakesOneRequestPerCity() throws Throwable {
+        ForecastFetcher fetcher = new ForecastFetcher(mServer.getBaseUrl());
+
+        List<FetchGroup> ungrouped = FetchGroup.group("94043", createLocationCursor(false));
+        long start = SystemClock.elapsedRealtimeNanos();
+        TestForecastParser.Forecast[] perSetting = fetchAll(fetcher, ungrouped);
+        long ungroupedNanos = SystemClock.elapsedRealtimeNanos() - start;
+        int ungroupedRequests = mServer.getRequestCount();
+
+        List<FetchGroup> grouped = FetchGroup.group("94043", createLocationCursor(true));
+        start = SystemClock.elapsedRealtimeNanos();
+        TestForecastParser.Forecast[] perCity = fetchAll(fetcher, grouped);
+        long groupedNanos = SystemClock.elapsedRealtimeNanos() - start;
+        int groupedRequests = mServer.getRequestCount() - ungroupedRequests;
+
+        assertEquals(TRACKED_LOCATIONS.length, ungroupedRequests);
+        assertEquals("Error: expected one request per city", 2, groupedRequests);
+
+        for (int i = 0; i < ungrouped.size(); i++) {
+            String locationSetting = ungrouped.get(i).getValidatorsKey();
+            TestForecastParser.Forecast expected = perSetting[i];
+            TestForecastParser.Forecast actual = null;
+            for (int j = 0; j < grouped.size(); j++) {
+                if (grouped.get(j).contains(locationSetting)) {
+                    actual = perCity[j];
+                }
+            }
+            assertNotNull("Error: " + locationSetting + " is in no group", actual);
+            assertEquals(expected.cityId, actual.cityId);
+            assertEquals(expected.toString(), actual.toString());
+        }
+
+        Log.i(LOG_TAG, TRACKED_LOCATIONS.length + " locations: " +
+                ungroupedRequests + " requests in " + (ungroupedNanos / 1000) + "us per setting, " +
+                groupedRequests + " requests in " + (groupedNanos / 1000) + "us per city");
+    }
+
+    private TestForecastParser.Forecast[] fetchAll(ForecastFetcher fetcher,
+                                                   List<FetchGroup> groups) throws Exception {
+        TestForecastParser.Forecast[] forecasts = new TestForecastParser.Forecast[groups.size()];
+        for (int i = 0; i < groups.size(); i++) {
+            FetchGroup group = groups.get(i);
+            forecasts[i] = new TestForecastParser.Forecast();
+            ForecastValidators validators =
+                    new ForecastValidators(group.getValidatorsKey(), TEST_WINDOW_DAY);
+            assertEquals("Error: fetch failed for " + group.locations.keySet(),
+                    HttpURLConnection.HTTP_OK, group.fetch(fetcher, validators, forecasts[i]));
+        }
+        return forecasts;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.test.InstrumentationTestRunner;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.net.HttpURLConnection;
+import java.util.Arrays;
+import java.util.Map;
+
+/*
+    Checks the recorded corpus and the network conditions FakeWeatherServer can stand in for.
+
+    Also records a new corpus version when asked to, with
+    adb shell am instrument -w -e class com.example.android.sunshine.app.sync.TestForecastCorpus
+        -e recordLocations "94043;London,UK" com.example.android.sunshine.app.test/android.test.InstrumentationTestRunner
+ */
+public class TestForecastCorpus extends InstrumentationTestCase {
+
+    public static final String LOG_TAG = TestForecastCorpus.class.getSimpleName();
+
+    // Instrumentation argument listing the locations to record, separated by ';'
+    private static final String ARG_RECORD_LOCATIONS = "recordLocations";
+
+    private static final int TEST_WINDOW_DAY = 2457505;
+
+    private ForecastCorpus mCorpus;
+    private FakeWeatherServer mServer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCorpus = ForecastCorpus.load(getInstrumentation().getContext());
+        mServer = new FakeWeatherServer();
+        mCorpus.serve(mServer);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    private int fetch(String location) throws Exception {
+        return new ForecastFetcher(mServer.getBaseUrl()).fetch(location,
+                new ForecastValidators(location, TEST_WINDOW_DAY),
+                new TestForecastParser.Forecast());
+    }
+
+    public void testCorpusParses() throws Throwable {
+        assertFalse("Error: the corpus is empty", mCorpus.responses.isEmpty());
+        for (Map.Entry<String, byte[]> response : mCorpus.responses.entrySet()) {
+            TestForecastParser.Forecast forecast = new TestForecastParser.Forecast();
+            assertEquals("Error: bad recorded response for " + response.getKey(),
+                    HttpURLConnection.HTTP_OK, new ForecastParser().parse(
+                            new ByteArrayInputStream(response.getValue()), forecast));
+            assertFalse("Error: no days recorded for " + response.getKey(), forecast.isEmpty());
+            assertEquals("Error: the stand-in should replay the recorded response",
+                    HttpURLConnection.HTTP_OK, fetch(response.getKey()));
+        }
+    }
+
+    public void testStandInErrors() throws Throwable {
+        mServer.setCod("Nowhere", HttpURLConnection.HTTP_NOT_FOUND);
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, fetch("Nowhere"));
+
+        mServer.setStatusCode(HttpURLConnection.HTTP_UNAVAILABLE);
+        assertEquals("Error: an HTTP error should come back as the fetch's result",
+                HttpURLConnection.HTTP_UNAVAILABLE,
+                fetch(mCorpus.responses.keySet().iterator().next()));
+    }
+
+    public void testStandInLatencyAndBandwidth() throws Throwable {
+        String location = mCorpus.responses.keySet().iterator().next();
+        int size = mCorpus.responses.get(location).length;
+
+        mServer.setLatency(200);
+        long start = SystemClock.elapsedRealtime();
+        assertEquals(HttpURLConnection.HTTP_OK, fetch(location));
+        assertTrue("Error: the response should be delayed",
+                SystemClock.elapsedRealtime() - start >= 200);
+
+        mServer.setLatency(0);
+        int bytesPerSecond = size * 2;
+        mServer.setBandwidth(bytesPerSecond);
+        start = SystemClock.elapsedRealtime();
+        assertEquals(HttpURLConnection.HTTP_OK, fetch(location));
+        assertTrue("Error: the body should take about half a second to arrive",
+                SystemClock.elapsedRealtime() - start >= 400);
+    }
+
+    /*
+        Not a check: records a new corpus version from the live server, if asked to.
+     */
+    public void testRecord() throws Throwable {
+        if (!(getInstrumentation() instanceof InstrumentationTestRunner)) {
+            return;
+        }
+        Bundle arguments = ((InstrumentationTestRunner) getInstrumentation()).getArguments();
+        String locations = arguments != null ? arguments.getString(ARG_RECORD_LOCATIONS) : null;
+        if (locations == null) {
+            return;
+        }
+        File directory = getInstrumentation().getTargetContext().getExternalFilesDir("corpus");
+        ForecastCorpus.record(Arrays.asList(locations.split(";")), directory,
+                ForecastCorpus.VERSION + 1);
+        Log.i(LOG_TAG, "Recorded corpus version " + (ForecastCorpus.VERSION + 1) + " into " +
+                directory + "; pull it with adb and add it to the test assets");
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+
+import java.net.HttpURLConnection;
+
+/*
+    Runs ForecastFetcher against a FakeWeatherServer to check that requests are made
+    conditional on the stored validators, and that 304s and identical bodies are reported
+    as nothing to store.
+ */
+public class TestForecastFetcher extends InstrumentationTestCase {
+
+    private static final String TEST_LOCATION = "94043";
+    private static final int TEST_WINDOW_DAY = 2457505;
+
+    private FakeWeatherServer mServer;
+    private byte[] mResponse;
+    private byte[] mOtherResponse;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new FakeWeatherServer();
+        Context testContext = getInstrumentation().getContext();
+        mResponse = TestForecastParser.readAsset(testContext, TestForecastParser.RECORDED_RESPONSES[0]);
+        mOtherResponse = TestForecastParser.readAsset(testContext, TestForecastParser.RECORDED_RESPONSES[1]);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        ForecastValidators.clear(getInstrumentation().getTargetContext(), TEST_LOCATION);
+        super.tearDown();
+    }
+
+    private int fetch(ForecastValidators validators, TestForecastParser.Forecast forecast)
+            throws Exception {
+        return new ForecastFetcher(mServer.getBaseUrl()).fetch(TEST_LOCATION, validators, forecast);
+    }
+
+    public void testETagRevalidation() throws Throwable {
+        mServer.setResponse(mResponse, "\"v1\"", null);
+        ForecastValidators validators = new ForecastValidators(TEST_LOCATION, TEST_WINDOW_DAY);
+
+        TestForecastParser.Forecast forecast = new TestForecastParser.Forecast();
+        assertEquals(HttpURLConnection.HTTP_OK, fetch(validators, forecast));
+        assertEquals("Error: the forecast was not parsed", 14, forecast.size());
+        assertEquals("Error: the ETag was not recorded", "\"v1\"", validators.getETag());
+
+        forecast = new TestForecastParser.Forecast();
+        assertEquals(ForecastFetcher.FETCH_NOT_MODIFIED, fetch(validators, forecast));
+        assertEquals("Error: If-None-Match was not sent",
+                "\"v1\"", mServer.getLastRequestHeaders().get("if-none-match"));
+        assertTrue("Error: a 304 should not be parsed", forecast.isEmpty());
+        assertEquals(1, mServer.getNotModifiedCount());
+    }
+
+    public void testLastModifiedRevalidation() throws Throwable {
+        String lastModified = "Tue, 26 Apr 2016 19:00:00 GMT";
+        mServer.setResponse(mResponse, null, lastModified);
+        ForecastValidators validators = new ForecastValidators(TEST_LOCATION, TEST_WINDOW_DAY);
+
+        assertEquals(HttpURLConnection.HTTP_OK, fetch(validators, new TestForecastParser.Forecast()));
+        assertEquals(ForecastFetcher.FETCH_NOT_MODIFIED,
+                fetch(validators, new TestForecastParser.Forecast()));
+        assertEquals("Error: If-Modified-Since was not sent",
+                lastModified, mServer.getLastRequestHeaders().get("if-modified-since"));
+    }
+
+    public void testIdenticalBodyIsUnchanged() throws Throwable {
+        // No validators from the server: only the body hash can tell
+        mServer.setResponse(mResponse, null, null);
+        ForecastValidators validators = new ForecastValidators(TEST_LOCATION, TEST_WINDOW_DAY);
+
+        assertEquals(HttpURLConnection.HTTP_OK, fetch(validators, new TestForecastParser.Forecast()));
+        assertNotNull("Error: the body hash was not recorded", validators.getContentHash());
+        assertEquals(ForecastFetcher.FETCH_UNCHANGED,
+                fetch(validators, new TestForecastParser.Forecast()));
+
+        mServer.setResponse(mOtherResponse, null, null);
+        assertEquals("Error: a different body must be stored",
+                HttpURLConnection.HTTP_OK, fetch(validators, new TestForecastParser.Forecast()));
+    }
+
+    public void testValidatorsOnlyApplyToTheirWindow() {
+        Context context = getInstrumentation().getTargetContext();
+        ForecastValidators validators = new ForecastValidators(TEST_LOCATION, TEST_WINDOW_DAY);
+        validators.setETag("\"v1\"");
+        validators.save(context);
+
+        assertEquals("\"v1\"",
+                ForecastValidators.load(context, TEST_LOCATION, TEST_WINDOW_DAY).getETag());
+        assertTrue("Error: validators must not be reused for another forecast window",
+                ForecastValidators.load(context, TEST_LOCATION, TEST_WINDOW_DAY + 1).isEmpty());
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Checks the streaming ForecastParser against the org.json parsing it replaced, using the
+    responses recorded under assets/forecast, and benchmarks the two on the same bytes.
+ */
+public class TestForecastParser extends InstrumentationTestCase {
+
+    public static final String LOG_TAG = TestForecastParser.class.getSimpleName();
+
+    static final String[] RECORDED_RESPONSES = {
+            "forecast/daily_94043.json",
+            "forecast/daily_london_uk.json"
+    };
+    static final String RECORDED_NOT_FOUND = "forecast/daily_not_found.json";
+
+    private static final int BENCHMARK_WARMUP = 20;
+    private static final int BENCHMARK_ITERATIONS = 200;
+
+    /*
+        One parsed day, in the order the columns are stored in the weather table.
+     */
+    static class Day {
+        double pressure;
+        int humidity;
+        double windSpeed;
+        double windDirection;
+        double high;
+        double low;
+        String description;
+        int weatherId;
+
+        @Override
+        public String toString() {
+            return pressure + "/" + humidity + "/" + windSpeed + "/" + windDirection + "/" +
+                    high + "/" + low + "/" + description + "/" + weatherId;
+        }
+    }
+
+    static class Forecast extends ArrayList<Day> implements ForecastParser.Handler {
+        long cityId;
+        String cityName;
+        double lat;
+        double lon;
+
+        @Override
+        public void onCity(long cityId, String cityName, double lat, double lon) {
+            this.cityId = cityId;
+            this.cityName = cityName;
+            this.lat = lat;
+            this.lon = lon;
+        }
+
+        @Override
+        public void onDay(int index, double pressure, int humidity, double windSpeed,
+                          double windDirection, double high, double low,
+                          String description, int weatherId) {
+            assertEquals("Days must be delivered in order", size(), index);
+            Day day = new Day();
+            day.pressure = pressure;
+            day.humidity = humidity;
+            day.windSpeed = windSpeed;
+            day.windDirection = windDirection;
+            day.high = high;
+            day.low = low;
+            day.description = description;
+            day.weatherId = weatherId;
+            add(day);
+        }
+    }
+
+    private byte[] readAsset(String name) throws IOException {
+        return readAsset(getInstrumentation().getContext(), name);
+    }
+
+    /*
+        Reads one of the recorded responses.  They are assets of the test package, so pass the
+        instrumentation's own context rather than the target context.
+     */
+    static byte[] readAsset(Context testContext, String name) throws IOException {
+        InputStream in = testContext.getAssets().open(name);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    /*
+        The parsing SunshineSyncAdapter did before ForecastParser: read the body line by line
+        into a StringBuffer, then build a JSONObject tree from it.
+     */
+    static Forecast parseWithJsonObject(InputStream inputStream) throws IOException, JSONException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
+        StringBuffer buffer = new StringBuffer();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            buffer.append(line + "\n");
+        }
+
+        Forecast forecast = new Forecast();
+        JSONObject forecastJson = new JSONObject(buffer.toString());
+        JSONArray weatherArray = forecastJson.getJSONArray("list");
+
+        JSONObject cityJson = forecastJson.getJSONObject("city");
+        JSONObject cityCoord = cityJson.getJSONObject("coord");
+        forecast.onCity(cityJson.optLong("id"), cityJson.getString("name"),
+                cityCoord.getDouble("lat"), cityCoord.getDouble("lon"));
+
+        for (int i = 0; i < weatherArray.length(); i++) {
+            JSONObject dayForecast = weatherArray.getJSONObject(i);
+            JSONObject weatherObject = dayForecast.getJSONArray("weather").getJSONObject(0);
+            JSONObject temperatureObject = dayForecast.getJSONObject("temp");
+            forecast.onDay(i,
+                    dayForecast.getDouble("pressure"),
+                    dayForecast.getInt("humidity"),
+                    dayForecast.getDouble("speed"),
+                    dayForecast.getDouble("deg"),
+                    temperatureObject.getDouble("max"),
+                    temperatureObject.getDouble("min"),
+                    weatherObject.getString("main"),
+                    weatherObject.getInt("id"));
+        }
+        return forecast;
+    }
+
+    public void testParserMatchesJsonObject() throws Throwable {
+        for (String name : RECORDED_RESPONSES) {
+            byte[] response = readAsset(name);
+
+            Forecast expected = parseWithJsonObject(new ByteArrayInputStream(response));
+            Forecast actual = new Forecast();
+            int code = new ForecastParser().parse(new ByteArrayInputStream(response), actual);
+
+            assertEquals("Error: unexpected code for " + name, HttpURLConnection.HTTP_OK, code);
+            assertEquals("Error: city id mismatch for " + name, expected.cityId, actual.cityId);
+            assertEquals("Error: city name mismatch for " + name, expected.cityName, actual.cityName);
+            assertEquals("Error: latitude mismatch for " + name, expected.lat, actual.lat);
+            assertEquals("Error: longitude mismatch for " + name, expected.lon, actual.lon);
+            assertEquals("Error: day count mismatch for " + name, expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals("Error: day " + i + " mismatch for " + name,
+                        expected.get(i).toString(), actual.get(i).toString());
+            }
+        }
+    }
+
+    public void testParserReportsErrorCode() throws Throwable {
+        Forecast forecast = new Forecast();
+        int code = new ForecastParser().parse(
+                new ByteArrayInputStream(readAsset(RECORDED_NOT_FOUND)), forecast);
+        assertEquals("Error: the cod value of the response was not returned",
+                HttpURLConnection.HTTP_NOT_FOUND, code);
+        assertTrue("Error: an error response should not produce days", forecast.isEmpty());
+    }
+
+    public void testParserRejectsIncompleteDay() throws Throwable {
+        String response = "{\"city\":{\"name\":\"North Pole\",\"coord\":{\"lat\":64.7,\"lon\":-147.3}}," +
+                "\"cod\":\"200\",\"list\":[{\"pressure\":1000.0,\"humidity\":50}]}";
+        try {
+            new ForecastParser().parse(new ByteArrayInputStream(response.getBytes("UTF-8")),
+                    new Forecast());
+            fail("Error: a day without temperatures or weather should be rejected");
+        } catch (JSONException expected) {
+        }
+    }
+
+    /*
+        Not a pass/fail test: logs the time and allocations per parse for both parsers, so the
+        numbers can be compared across devices with "adb logcat -s TestForecastParser".
+     */
+    public void testBenchmarkAgainstJsonObject() throws Throwable {
+        for (String name : RECORDED_RESPONSES) {
+            byte[] response = readAsset(name);
+            List<String> results = new ArrayList<String>();
+
+            for (int parser = 0; parser < 2; parser++) {
+                for (int i = 0; i < BENCHMARK_WARMUP; i++) {
+                    runParser(parser, response);
+                }
+
+                Debug.startAllocCounting();
+                Debug.resetThreadAllocSize();
+                long start = SystemClock.elapsedRealtimeNanos();
+                for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+                    runParser(parser, response);
+                }
+                long elapsed = SystemClock.elapsedRealtimeNanos() - start;
+                long allocated = Debug.getThreadAllocSize();
+                Debug.stopAllocCounting();
+
+                results.add((parser == 0 ? "JSONObject" : "ForecastParser") + ": " +
+                        (elapsed / BENCHMARK_ITERATIONS / 1000) + "us, " +
+                        (allocated / BENCHMARK_ITERATIONS) + " bytes allocated per parse");
+            }
+            Log.i(LOG_TAG, name + " (" + response.length + " bytes) " + results);
+        }
+    }
+
+    private static void runParser(int parser, byte[] response) throws IOException, JSONException {
+        if (parser == 0) {
+            parseWithJsonObject(new ByteArrayInputStream(response));
+        } else {
+            new ForecastParser().parse(new ByteArrayInputStream(response), new Forecast());
+        }
+    }
+}
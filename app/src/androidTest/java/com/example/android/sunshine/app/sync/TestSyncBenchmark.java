@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SyncResult;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/*
+    Not a pass/fail test: runs whole syncs of 1, 10 and 100 locations against FakeWeatherServer
+    replaying the recorded corpus over a simulated mobile network, and logs the sync latency
+    percentiles and throughput, so the numbers can be compared across changes with
+    "adb logcat -s TestSyncBenchmark".  Each sync starts with no stored forecast, so every
+    location is fetched, parsed and written in full.
+ */
+public class TestSyncBenchmark extends InstrumentationTestCase {
+
+    public static final String LOG_TAG = TestSyncBenchmark.class.getSimpleName();
+
+    private static final int[] LOCATION_COUNTS = {1, 10, 100};
+    // Syncs measured for each location count, after one warm-up sync
+    private static final int[] MEASURED_SYNCS = {20, 10, 5};
+
+    private static final long NETWORK_LATENCY_MILLIS = 100;
+    private static final int NETWORK_BYTES_PER_SECOND = 64 * 1024;
+
+    // Each benchmark location gets a city of its own, so none share a request
+    private static final long FIRST_CITY_ID = 9000000;
+    private static final String LOCATION_PREFIX = "benchmark ";
+
+    private Context mContext;
+    private FakeWeatherServer mServer;
+    private List<byte[]> mResponses;
+    private String mPreferredLocation;
+    private int mLocationCount;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext = getInstrumentation().getTargetContext();
+        mResponses = new ArrayList<byte[]>(
+                ForecastCorpus.load(getInstrumentation().getContext()).responses.values());
+        mServer = new FakeWeatherServer();
+        mServer.setLatency(NETWORK_LATENCY_MILLIS);
+        mServer.setBandwidth(NETWORK_BYTES_PER_SECOND);
+        mPreferredLocation = PreferenceManager.getDefaultSharedPreferences(mContext).getString(
+                mContext.getString(R.string.pref_location_key), null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        deleteLocations();
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .putString(mContext.getString(R.string.pref_location_key), mPreferredLocation)
+                .commit();
+        super.tearDown();
+    }
+
+    public void testBenchmarkSync() throws Throwable {
+        for (int i = 0; i < LOCATION_COUNTS.length; i++) {
+            benchmark(LOCATION_COUNTS[i], MEASURED_SYNCS[i]);
+        }
+    }
+
+    private void benchmark(int locationCount, int measuredSyncs) throws Exception {
+        deleteLocations();
+        addLocations(locationCount);
+        SunshineSyncAdapter adapter = new SunshineSyncAdapter(mContext, false);
+        adapter.setForecastBaseUrl(mServer.getBaseUrl());
+
+        sync(adapter);
+        int requestsBefore = mServer.getRequestCount();
+        long[] syncNanos = new long[measuredSyncs];
+        for (int i = 0; i < measuredSyncs; i++) {
+            syncNanos[i] = sync(adapter);
+        }
+        int requests = mServer.getRequestCount() - requestsBefore;
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry._ID}, null, null, null);
+        assertEquals("Error: every location's forecast should have been stored",
+                locationCount * ForecastFetcher.NUM_DAYS, cursor.getCount());
+        cursor.close();
+
+        long totalNanos = 0;
+        for (long nanos : syncNanos) {
+            totalNanos += nanos;
+        }
+        Arrays.sort(syncNanos);
+        Log.i(LOG_TAG, String.format(Locale.US,
+                "%d locations, %d syncs, %d requests: p50 %dms, p90 %dms, p99 %dms, %.1f locations/s",
+                locationCount, measuredSyncs, requests,
+                percentile(syncNanos, 50) / 1000000, percentile(syncNanos, 90) / 1000000,
+                percentile(syncNanos, 99) / 1000000,
+                locationCount * measuredSyncs / (totalNanos / 1e9)));
+    }
+
+    // Runs one sync of every location from scratch, and returns how long it took
+    private long sync(SunshineSyncAdapter adapter) {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        long start = SystemClock.elapsedRealtimeNanos();
+        adapter.onPerformSync(null, new Bundle(), WeatherContract.CONTENT_AUTHORITY, null,
+                new SyncResult());
+        return SystemClock.elapsedRealtimeNanos() - start;
+    }
+
+    // The sorted samples' value at the given percentile
+    private static long percentile(long[] sorted, int percentile) {
+        int index = (int) Math.ceil(sorted.length * percentile / 100.0) - 1;
+        return sorted[Math.max(0, index)];
+    }
+
+    /*
+        Tracks the given number of locations, the first one preferred, each answered by a
+        recorded response under a city id of its own.
+     */
+    private void addLocations(int count) throws Exception {
+        ContentValues[] locations = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            String locationSetting = LOCATION_PREFIX + i;
+            long cityId = FIRST_CITY_ID + i;
+            byte[] response = withCityId(mResponses.get(i % mResponses.size()), cityId);
+            mServer.setResponse(locationSetting, response);
+            mServer.setResponse(Long.toString(cityId), response);
+
+            ContentValues values = new ContentValues();
+            values.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+            values.put(LocationEntry.COLUMN_CITY_NAME, locationSetting);
+            values.put(LocationEntry.COLUMN_COORD_LAT, 0.0);
+            values.put(LocationEntry.COLUMN_COORD_LONG, 0.0);
+            mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, values);
+        }
+        mLocationCount = count;
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .putString(mContext.getString(R.string.pref_location_key), LOCATION_PREFIX + 0)
+                .commit();
+    }
+
+    private void deleteLocations() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        for (int i = 0; i < mLocationCount; i++) {
+            ForecastValidators.clear(mContext, LOCATION_PREFIX + i);
+            ForecastValidators.clear(mContext, "#city:" + (FIRST_CITY_ID + i));
+        }
+        mLocationCount = 0;
+    }
+
+    // A recorded response with its city id replaced
+    private static byte[] withCityId(byte[] response, long cityId) throws Exception {
+        String json = new String(response, "UTF-8");
+        return json.replaceFirst("\"id\":\\d+", "\"id\":" + cityId).getBytes("UTF-8");
+    }
+}
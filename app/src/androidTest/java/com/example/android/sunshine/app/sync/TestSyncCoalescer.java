@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+    Drives a SyncCoalescer through bursts of requests, standing in for the sync framework,
+    and checks how many syncs they turn into.
+ */
+public class TestSyncCoalescer extends AndroidTestCase {
+
+    private static final long WAIT_MILLIS = SyncCoalescer.COALESCE_WINDOW_MILLIS * 3;
+
+    /*
+        Records the syncs it would have requested instead of requesting them.
+     */
+    static class RecordingCoalescer extends SyncCoalescer {
+        final List<Bundle> requestedSyncs = new ArrayList<Bundle>();
+
+        RecordingCoalescer(Context context) {
+            super(context);
+        }
+
+        @Override
+        void requestSync(Bundle extras) {
+            synchronized (requestedSyncs) {
+                requestedSyncs.add(extras);
+            }
+        }
+
+        int getRequestedSyncCount() {
+            synchronized (requestedSyncs) {
+                return requestedSyncs.size();
+            }
+        }
+    }
+
+    private static void waitForSyncs(final RecordingCoalescer coalescer, final int count) {
+        new PollingCheck(WAIT_MILLIS) {
+            @Override
+            protected boolean check() {
+                return coalescer.getRequestedSyncCount() >= count;
+            }
+        }.run();
+    }
+
+    public void testBurstBecomesOneSync() throws InterruptedException {
+        RecordingCoalescer coalescer = new RecordingCoalescer(getContext());
+        coalescer.request("94043");
+        coalescer.request("London,UK");
+        coalescer.request("94043");
+
+        waitForSyncs(coalescer, 1);
+        Thread.sleep(SyncCoalescer.COALESCE_WINDOW_MILLIS);
+        assertEquals("Error: a burst of requests should make one sync",
+                1, coalescer.getRequestedSyncCount());
+        assertTrue(coalescer.requestedSyncs.get(0).getBoolean(SyncCoalescer.EXTRA_COALESCED));
+
+        SyncCoalescer.Batch batch = coalescer.onSyncStarted(true);
+        assertEquals("Error: the sync should cover the union of the requested locations",
+                Arrays.asList("94043", "London,UK"), new ArrayList<String>(batch.locations));
+        assertEquals(3, batch.requests);
+        assertEquals(2, batch.getCollapsed());
+        coalescer.onSyncFinished();
+        assertEquals(2, coalescer.getCollapsedCount());
+    }
+
+    public void testRequestsDuringASyncWaitForIt() throws InterruptedException {
+        RecordingCoalescer coalescer = new RecordingCoalescer(getContext());
+        coalescer.request("94043");
+        waitForSyncs(coalescer, 1);
+
+        // Requests that arrive before the requested sync starts join it
+        coalescer.request("London,UK");
+        SyncCoalescer.Batch batch = coalescer.onSyncStarted(true);
+        assertEquals(2, batch.locations.size());
+
+        // Requests that arrive while it runs wait for it, then share one more sync
+        coalescer.request("Paris");
+        coalescer.request("Berlin");
+        Thread.sleep(WAIT_MILLIS);
+        assertEquals("Error: no sync should be requested while one is running",
+                1, coalescer.getRequestedSyncCount());
+
+        coalescer.onSyncFinished();
+        waitForSyncs(coalescer, 2);
+        batch = coalescer.onSyncStarted(true);
+        assertEquals(Arrays.asList("Paris", "Berlin"), new ArrayList<String>(batch.locations));
+        coalescer.onSyncFinished();
+    }
+
+    public void testPeriodicSyncCoversEverything() {
+        RecordingCoalescer coalescer = new RecordingCoalescer(getContext());
+        assertNull("Error: a sync that was not coalesced should cover every location",
+                coalescer.onSyncStarted(false));
+        coalescer.onSyncFinished();
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SyncResult;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.preference.PreferenceManager;
+import android.test.InstrumentationTestCase;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.data.WeatherDbHelper;
+
+import java.net.HttpURLConnection;
+
+/*
+    Runs whole syncs against FakeWeatherServer failing with an HTTP status, and checks that
+    only the server's own errors are retried and counted against the endpoint's circuit
+    breaker, while an error about the request is given up on at once.  Also checks that a
+    forecast the database refuses to store fails only its own locations.
+ */
+public class TestSyncErrors extends InstrumentationTestCase {
+
+    private static final String TEST_LOCATION = "Nowhere";
+    private static final String OTHER_LOCATION = "Somewhere";
+
+    // Makes storing TEST_LOCATION fail the way a full or corrupt database would
+    private static final String SQL_CREATE_FAILING_TRIGGER =
+            "CREATE TRIGGER IF NOT EXISTS test_fail_location BEFORE INSERT ON " +
+            LocationEntry.TABLE_NAME + " WHEN NEW." + LocationEntry.COLUMN_LOCATION_SETTING +
+            " = '" + TEST_LOCATION + "' BEGIN SELECT RAISE(ABORT, 'test'); END";
+    private static final String SQL_DROP_FAILING_TRIGGER =
+            "DROP TRIGGER IF EXISTS test_fail_location";
+
+    private Context mContext;
+    private FakeWeatherServer mServer;
+    private SunshineSyncAdapter mAdapter;
+    private CircuitBreaker mBreaker;
+    private String mPreferredLocation;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext = getInstrumentation().getTargetContext();
+        deleteAll();
+        mServer = new FakeWeatherServer();
+        mAdapter = new SunshineSyncAdapter(mContext, false);
+        mAdapter.setForecastBaseUrl(mServer.getBaseUrl());
+        mBreaker = CircuitBreaker.getInstance(mContext, mServer.getBaseUrl());
+        mBreaker.onSuccess();
+
+        // The only location synced is the preferred one, which is not tracked yet
+        mPreferredLocation = PreferenceManager.getDefaultSharedPreferences(mContext).getString(
+                mContext.getString(R.string.pref_location_key), null);
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .putString(mContext.getString(R.string.pref_location_key), TEST_LOCATION)
+                .commit();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        mBreaker.onSuccess();
+        execSQL(SQL_DROP_FAILING_TRIGGER);
+        deleteAll();
+        ForecastValidators.clear(mContext, TEST_LOCATION);
+        ForecastValidators.clear(mContext, OTHER_LOCATION);
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .putString(mContext.getString(R.string.pref_location_key), mPreferredLocation)
+                .commit();
+        super.tearDown();
+    }
+
+    private void deleteAll() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private void execSQL(String sql) {
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        try {
+            dbHelper.getWritableDatabase().execSQL(sql);
+        } finally {
+            dbHelper.close();
+        }
+    }
+
+    private void sync() {
+        mAdapter.onPerformSync(null, new Bundle(), WeatherContract.CONTENT_AUTHORITY, null,
+                new SyncResult());
+    }
+
+    public void testUnknownLocationIsNotRetried() {
+        mServer.setStatusCode(HttpURLConnection.HTTP_NOT_FOUND);
+        sync();
+
+        assertEquals("Error: a 404 should not be requested again", 1, mServer.getRequestCount());
+        assertEquals("Error: a 404 should not count against the endpoint", 0,
+                mBreaker.getFailureCount());
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_INVALID,
+                Utility.getLocationStatus(mContext, TEST_LOCATION));
+    }
+
+    public void testBadRequestIsNotRetried() {
+        mServer.setStatusCode(HttpURLConnection.HTTP_UNAUTHORIZED);
+        sync();
+
+        assertEquals("Error: a 401 should not be requested again", 1, mServer.getRequestCount());
+        assertEquals("Error: a 401 should not count against the endpoint", 0,
+                mBreaker.getFailureCount());
+    }
+
+    public void testServerErrorIsRetried() {
+        mServer.setStatusCode(HttpURLConnection.HTTP_UNAVAILABLE);
+        sync();
+
+        assertEquals("Error: a 503 should be requested again", RetryPolicy.MAX_ATTEMPTS,
+                mServer.getRequestCount());
+        assertEquals("Error: every failed attempt should count against the endpoint",
+                RetryPolicy.MAX_ATTEMPTS, mBreaker.getFailureCount());
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN,
+                Utility.getLocationStatus(mContext, TEST_LOCATION));
+    }
+
+    public void testFailedWriteOnlyFailsItsLocations() throws Exception {
+        ForecastCorpus corpus = ForecastCorpus.load(getInstrumentation().getContext());
+        mServer.setResponse(corpus.responses.values().iterator().next(), null, null);
+        ContentValues location = new ContentValues();
+        location.put(LocationEntry.COLUMN_LOCATION_SETTING, OTHER_LOCATION);
+        location.put(LocationEntry.COLUMN_CITY_NAME, OTHER_LOCATION);
+        location.put(LocationEntry.COLUMN_COORD_LAT, 0.0);
+        location.put(LocationEntry.COLUMN_COORD_LONG, 0.0);
+        mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, location);
+        execSQL(SQL_CREATE_FAILING_TRIGGER);
+
+        // The preferred location is written first, on its own, and fails
+        sync();
+
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID,
+                Utility.getLocationStatus(mContext, TEST_LOCATION));
+        assertEquals("Error: the other location should still have been stored",
+                SunshineSyncAdapter.LOCATION_STATUS_OK,
+                Utility.getLocationStatus(mContext, OTHER_LOCATION));
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(OTHER_LOCATION), null, null, null, null);
+        assertTrue("Error: no forecast stored for the other location", cursor.getCount() > 0);
+        cursor.close();
+    }
+}
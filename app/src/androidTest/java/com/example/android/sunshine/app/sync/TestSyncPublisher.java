@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    Checks that SyncPublisher runs consumers concurrently and off the caller's thread,
+    interrupts the slow ones, and merges publishes to a busy consumer.
+ */
+public class TestSyncPublisher extends AndroidTestCase {
+
+    private static final long WAIT_MILLIS = 5000;
+
+    /*
+        Counts its runs, and blocks each one until released or interrupted.
+     */
+    static class BlockingConsumer extends SyncPublisher.Consumer {
+        final AtomicInteger runs = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        volatile CountDownLatch release = new CountDownLatch(1);
+        volatile boolean interrupted;
+
+        BlockingConsumer(String name, long timeoutMillis) {
+            super(name, timeoutMillis);
+        }
+
+        @Override
+        public void run() {
+            runs.incrementAndGet();
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+    }
+
+    private static void waitForIdle(final SyncPublisher publisher) {
+        new PollingCheck(WAIT_MILLIS) {
+            @Override
+            protected boolean check() {
+                return publisher.isIdle();
+            }
+        }.run();
+    }
+
+    public void testConsumersRunConcurrentlyWithoutBlocking() throws InterruptedException {
+        SyncPublisher publisher = new SyncPublisher(new SyncTimings());
+        BlockingConsumer first = new BlockingConsumer("first", WAIT_MILLIS);
+        BlockingConsumer second = new BlockingConsumer("second", WAIT_MILLIS);
+
+        long start = SystemClock.elapsedRealtime();
+        publisher.publish(Arrays.<SyncPublisher.Consumer>asList(first, second));
+        assertTrue("Error: publish() should not wait for its consumers",
+                SystemClock.elapsedRealtime() - start < 1000);
+
+        // Both are running at once, neither released yet
+        assertTrue(first.started.await(WAIT_MILLIS, TimeUnit.MILLISECONDS));
+        assertTrue("Error: a blocked consumer should not hold up the others",
+                second.started.await(WAIT_MILLIS, TimeUnit.MILLISECONDS));
+        first.release.countDown();
+        second.release.countDown();
+        waitForIdle(publisher);
+    }
+
+    public void testSlowConsumerTimesOut() throws InterruptedException {
+        SyncPublisher publisher = new SyncPublisher(new SyncTimings());
+        BlockingConsumer slow = new BlockingConsumer("slow", 200);
+
+        publisher.publish(Collections.<SyncPublisher.Consumer>singletonList(slow));
+        waitForIdle(publisher);
+        assertTrue("Error: a consumer past its timeout should be interrupted", slow.interrupted);
+        assertEquals(1, publisher.getTimedOutCount());
+    }
+
+    public void testPublishesToABusyConsumerAreMerged() throws InterruptedException {
+        SyncPublisher publisher = new SyncPublisher(new SyncTimings());
+        BlockingConsumer consumer = new BlockingConsumer("busy", WAIT_MILLIS);
+        publisher.publish(Collections.<SyncPublisher.Consumer>singletonList(consumer));
+        assertTrue(consumer.started.await(WAIT_MILLIS, TimeUnit.MILLISECONDS));
+
+        for (int i = 0; i < 3; i++) {
+            publisher.publish(Collections.<SyncPublisher.Consumer>singletonList(consumer));
+        }
+        assertEquals(1, consumer.runs.get());
+
+        // Let every run through from here on
+        CountDownLatch release = consumer.release;
+        consumer.release = new CountDownLatch(0);
+        release.countDown();
+        waitForIdle(publisher);
+        assertEquals("Error: publishes during a run should make one more run",
+                2, consumer.runs.get());
+        assertEquals(2, publisher.getCoalescedCount());
+    }
+}
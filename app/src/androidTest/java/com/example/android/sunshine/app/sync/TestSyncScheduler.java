@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+/*
+    Checks the rules SyncScheduler uses to move the periodic sync.
+ */
+public class TestSyncScheduler extends AndroidTestCase {
+
+    private static final int BASE = SunshineSyncAdapter.SYNC_INTERVAL;
+
+    // Midday, with a view a few hours ago: neither night, recent nor idle
+    private static SyncScheduler.Signals createNeutralSignals() {
+        SyncScheduler.Signals signals = new SyncScheduler.Signals();
+        signals.changeRatio = 0.2;
+        signals.hourOfDay = 12;
+        signals.millisSinceView = 1000L * 60 * 60 * 4;
+        return signals;
+    }
+
+    public void testNeutralSignalsKeepTheBaseInterval() {
+        SyncScheduler.Decision decision = SyncScheduler.decide(BASE, createNeutralSignals());
+        assertEquals(BASE, decision.interval);
+        assertEquals(BASE / 3, decision.flexTime);
+    }
+
+    public void testUnchangedForecastsBackOff() {
+        SyncScheduler.Signals signals = createNeutralSignals();
+        signals.changeRatio = 0;
+        signals.unchangedStreak = 1;
+        int once = SyncScheduler.decide(BASE, signals).interval;
+        signals.unchangedStreak = 2;
+        int twice = SyncScheduler.decide(BASE, signals).interval;
+
+        assertTrue("Error: an unchanged forecast should back off", once > BASE);
+        assertTrue("Error: the back-off should grow while nothing changes", twice > once);
+        signals.unchangedStreak = 100;
+        assertEquals(SyncScheduler.MAX_INTERVAL, SyncScheduler.decide(BASE, signals).interval);
+    }
+
+    public void testVolatileForecastsTighten() {
+        SyncScheduler.Signals signals = createNeutralSignals();
+        signals.changeRatio = 0.8;
+        SyncScheduler.Decision decision = SyncScheduler.decide(BASE, signals);
+        assertTrue("Error: a volatile forecast should sync sooner", decision.interval < BASE);
+        assertTrue(decision.trace, decision.trace.contains("changed 80%"));
+    }
+
+    public void testFailuresBackOffOverVolatility() {
+        SyncScheduler.Signals signals = createNeutralSignals();
+        signals.changeRatio = 0.8;
+        signals.failureStreak = 2;
+        SyncScheduler.Decision decision = SyncScheduler.decide(BASE, signals);
+        assertEquals(BASE * 4, decision.interval);
+        assertTrue(decision.trace, decision.trace.contains("failed 2x"));
+    }
+
+    public void testViewsNightAndIdleness() {
+        SyncScheduler.Signals signals = createNeutralSignals();
+        signals.millisSinceView = 1000L * 60 * 5;
+        assertTrue("Error: a recent view should sync sooner",
+                SyncScheduler.decide(BASE, signals).interval < BASE);
+
+        signals = createNeutralSignals();
+        signals.millisSinceView = Long.MAX_VALUE;
+        assertEquals(BASE * 2, SyncScheduler.decide(BASE, signals).interval);
+        signals.hasWidgets = true;
+        assertEquals("Error: a widget on screen means the device is not idle",
+                BASE, SyncScheduler.decide(BASE, signals).interval);
+
+        signals = createNeutralSignals();
+        signals.hourOfDay = 3;
+        SyncScheduler.Decision decision = SyncScheduler.decide(BASE, signals);
+        assertEquals(BASE * 2, decision.interval);
+        assertTrue(decision.trace, decision.trace.contains("night"));
+    }
+
+    public void testIntervalIsClamped() {
+        SyncScheduler.Signals signals = createNeutralSignals();
+        signals.changeRatio = 1;
+        signals.millisSinceView = 0;
+        SyncScheduler.Decision decision = SyncScheduler.decide(SyncScheduler.MIN_INTERVAL, signals);
+        assertEquals(SyncScheduler.MIN_INTERVAL, decision.interval);
+        assertTrue(decision.trace, decision.trace.endsWith("(clamped)"));
+    }
+}
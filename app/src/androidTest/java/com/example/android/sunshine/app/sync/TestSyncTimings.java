@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.SyncTimingEntry;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/*
+    Checks that recorded sync stage timings are bucketed, stored and dumped.
+ */
+public class TestSyncTimings extends AndroidTestCase {
+
+    private static final long NANOS_PER_MILLI = 1000 * 1000;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(SyncTimingEntry.CONTENT_URI, null, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.getContentResolver().delete(SyncTimingEntry.CONTENT_URI, null, null);
+        super.tearDown();
+    }
+
+    public void testFlushStoresBucketCounts() {
+        SyncTimings timings = new SyncTimings();
+        timings.record(SyncTimings.STAGE_PARSE, 7 * NANOS_PER_MILLI);
+        timings.record(SyncTimings.STAGE_PARSE, 8 * NANOS_PER_MILLI);
+        timings.record(SyncTimings.STAGE_TTFB, 150 * NANOS_PER_MILLI);
+        timings.flush(mContext);
+        // Nothing new to flush
+        timings.flush(mContext);
+
+        Cursor cursor = mContext.getContentResolver().query(SyncTimingEntry.CONTENT_URI,
+                new String[]{SyncTimingEntry.COLUMN_STAGE, SyncTimingEntry.COLUMN_BUCKET,
+                        SyncTimingEntry.COLUMN_COUNT},
+                null, null, SyncTimingEntry.COLUMN_STAGE + " ASC");
+        assertEquals(2, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals(SyncTimings.STAGE_PARSE, cursor.getString(0));
+        assertEquals(10, cursor.getLong(1));
+        assertEquals(2, cursor.getLong(2));
+        cursor.moveToNext();
+        assertEquals(SyncTimings.STAGE_TTFB, cursor.getString(0));
+        assertEquals(200, cursor.getLong(1));
+        assertEquals(1, cursor.getLong(2));
+        cursor.close();
+    }
+
+    public void testFormatHistogram() {
+        long[] counts = new long[SyncTimingEntry.BUCKET_BOUNDS.length];
+        counts[SyncTimingEntry.getBucket(30)] = 3;
+        counts[SyncTimingEntry.getBucket(70)] = 6;
+        counts[SyncTimingEntry.getBucket(150)] = 1;
+        counts[SyncTimingEntry.BUCKET_BOUNDS.length - 1] = 1;
+
+        assertEquals("connect n=11 p50<100 p90<200 p99>=30000 [<50:3 <100:6 <200:1 >=30000:1]",
+                SyncTimings.formatHistogram(SyncTimings.STAGE_CONNECT, counts));
+        assertEquals("wear n=0", SyncTimings.formatHistogram(SyncTimings.STAGE_WEAR,
+                new long[SyncTimingEntry.BUCKET_BOUNDS.length]));
+    }
+
+    public void testDump() {
+        SyncTimings timings = new SyncTimings();
+        timings.record(SyncTimings.STAGE_TOTAL, 1500 * NANOS_PER_MILLI);
+        timings.flush(mContext);
+
+        StringWriter dump = new StringWriter();
+        SyncTimings.dump(mContext, new PrintWriter(dump));
+        assertTrue(dump.toString(), dump.toString().contains("total n=1 p50<2000"));
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Checks that TodaySnapshot holds today's forecast as the consumers show it, and is only
+    rebuilt when the forecast or the preferences it depends on change.
+ */
+public class TestTodaySnapshot extends AndroidTestCase {
+
+    private static final String TEST_LOCATION = "snapshot_test";
+    private static final int TEST_WEATHER_ID = 500;
+
+    private SharedPreferences mPreferences;
+    private String mPreferredLocation;
+    private String mUnits;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPreferences = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mPreferredLocation = mPreferences.getString(
+                mContext.getString(R.string.pref_location_key), null);
+        mUnits = mPreferences.getString(mContext.getString(R.string.pref_units_key), null);
+        deleteForecast();
+        mPreferences.edit()
+                .putString(mContext.getString(R.string.pref_location_key), TEST_LOCATION)
+                .putString(mContext.getString(R.string.pref_units_key),
+                        mContext.getString(R.string.pref_units_metric))
+                .commit();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteForecast();
+        mPreferences.edit()
+                .putString(mContext.getString(R.string.pref_location_key), mPreferredLocation)
+                .putString(mContext.getString(R.string.pref_units_key), mUnits)
+                .commit();
+        super.tearDown();
+    }
+
+    public void testSnapshotHoldsTodaysForecast() {
+        insertToday(20.5, 11.0);
+        TodaySnapshot today = TodaySnapshot.refresh(mContext);
+        assertNotNull("Error: there is a forecast for today", today);
+
+        assertEquals(TEST_LOCATION, today.locationSetting);
+        assertEquals(WeatherContract.normalizeDate(System.currentTimeMillis()), today.date);
+        assertEquals(TEST_WEATHER_ID, today.weatherId);
+        assertEquals("Rain", today.description);
+        assertEquals(Utility.formatTemperature(mContext, 20.5), today.formattedHigh);
+        assertEquals(Utility.formatTemperature(mContext, 11.0), today.formattedLow);
+        assertEquals(Utility.getIconResourceForWeatherCondition(TEST_WEATHER_ID),
+                today.iconResourceId);
+        assertEquals(Utility.getArtResourceForWeatherCondition(TEST_WEATHER_ID),
+                today.artResourceId);
+        assertEquals(Utility.getArtUrlForWeatherCondition(mContext, TEST_WEATHER_ID),
+                today.artUrl);
+        assertEquals(Utility.getImageUrlForWeatherCondition(TEST_WEATHER_ID), today.imageUrl);
+    }
+
+    public void testSnapshotIsSharedUntilInvalidated() {
+        insertToday(20.5, 11.0);
+        TodaySnapshot first = TodaySnapshot.refresh(mContext);
+        assertSame("Error: consumers should share the sync's snapshot",
+                first, TodaySnapshot.get(mContext));
+
+        mPreferences.edit()
+                .putString(mContext.getString(R.string.pref_units_key),
+                        mContext.getString(R.string.pref_units_imperial))
+                .commit();
+        TodaySnapshot imperial = TodaySnapshot.get(mContext);
+        assertNotSame("Error: a change of units should rebuild the snapshot", first, imperial);
+        assertTrue(imperial.version > first.version);
+        assertEquals(Utility.formatTemperature(mContext, 20.5), imperial.formattedHigh);
+
+        insertToday(25.0, 15.0);
+        TodaySnapshot refreshed = TodaySnapshot.refresh(mContext);
+        assertTrue(refreshed.version > imperial.version);
+        assertEquals(25.0, refreshed.high, 0.0);
+    }
+
+    public void testSnapshotFollowsWritesOutsideTheSync() {
+        insertToday(20.5, 11.0);
+        TodaySnapshot first = TodaySnapshot.get(mContext);
+
+        // Written straight through the provider, with no sync to refresh the snapshot
+        insertToday(25.0, 15.0);
+        TodaySnapshot second = TodaySnapshot.get(mContext);
+        assertNotSame("Error: a write to the forecast should rebuild the snapshot", first, second);
+        assertEquals(25.0, second.high, 0.0);
+        assertSame("Error: the snapshot should be shared again until the next write",
+                second, TodaySnapshot.get(mContext));
+
+        deleteForecast();
+        assertNull("Error: a deleted forecast should leave no snapshot",
+                TodaySnapshot.get(mContext));
+    }
+
+    public void testNoSnapshotWithoutForecast() {
+        assertNull("Error: there should be no snapshot without a forecast",
+                TodaySnapshot.refresh(mContext));
+        assertNull(TodaySnapshot.get(mContext));
+    }
+
+    private void insertToday(double high, double low) {
+        long locationId = getLocationId();
+        ContentValues values = new ContentValues();
+        values.put(WeatherEntry.COLUMN_LOC_KEY, locationId);
+        values.put(WeatherEntry.COLUMN_DATE,
+                WeatherContract.normalizeDate(System.currentTimeMillis()));
+        values.put(WeatherEntry.COLUMN_DEGREES, 1.1);
+        values.put(WeatherEntry.COLUMN_HUMIDITY, 1.2);
+        values.put(WeatherEntry.COLUMN_PRESSURE, 1.3);
+        values.put(WeatherEntry.COLUMN_MAX_TEMP, high);
+        values.put(WeatherEntry.COLUMN_MIN_TEMP, low);
+        values.put(WeatherEntry.COLUMN_SHORT_DESC, "Rain");
+        values.put(WeatherEntry.COLUMN_WIND_SPEED, 5.5);
+        values.put(WeatherEntry.COLUMN_WEATHER_ID, TEST_WEATHER_ID);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, values);
+    }
+
+    private long getLocationId() {
+        Cursor cursor = mContext.getContentResolver().query(
+                LocationEntry.CONTENT_URI, new String[]{LocationEntry._ID},
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?", new String[]{TEST_LOCATION},
+                null);
+        try {
+            if (cursor.moveToFirst()) {
+                return cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+        ContentValues values = new ContentValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, TEST_LOCATION);
+        values.put(LocationEntry.COLUMN_CITY_NAME, "Snapshot");
+        values.put(LocationEntry.COLUMN_COORD_LAT, 0.0);
+        values.put(LocationEntry.COLUMN_COORD_LONG, 0.0);
+        return ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, values));
+    }
+
+    private void deleteForecast() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+}
@@ -138,7 +138,7 @@ public class SettingsActivity extends PreferenceActivity
             SunshineSyncAdapter.syncImmediately(this);
         } else if ( key.equals(getString(R.string.pref_units_key)) ) {
             // units have changed. update lists of weather entries accordingly
-            getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+            notifyPreferredLocationChanged();
             SunshineSyncAdapter.notifyWearDevices();
         } else if ( key.equals(getString(R.string.pref_location_status_key)) ) {
             // our location status has changed.  Update the summary accordingly
@@ -147,11 +147,17 @@ public class SettingsActivity extends PreferenceActivity
             SunshineSyncAdapter.notifyWearDevices();
         } else if ( key.equals(getString(R.string.pref_art_pack_key)) ) {
             // art pack have changed. update lists of weather entries accordingly
-            getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+            notifyPreferredLocationChanged();
             SunshineSyncAdapter.notifyWearDevices();
         }
     }
 
+    // Only the preferred location's weather is on screen, so only its observers need to redraw
+    private void notifyPreferredLocationChanged() {
+        getContentResolver().notifyChange(WeatherContract.WeatherEntry.buildWeatherLocation(
+                Utility.getPreferredLocation(this)), null);
+    }
+
     @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
     @Override
     public Intent getParentActivityIntent() {
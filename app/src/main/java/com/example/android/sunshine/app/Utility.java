@@ -568,6 +568,20 @@ public class Utility {
         return sp.getInt(c.getString(R.string.pref_location_status_key), SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
     }
 
+    /**
+     *
+     * @param c Context used to get the SharedPreferences
+     * @param locationSetting the location whose status is wanted
+     * @return the location status integer type of the last sync of that location
+     */
+    @SuppressWarnings("ResourceType")
+    static public @SunshineSyncAdapter.LocationStatus
+    int getLocationStatus(Context c, String locationSetting){
+        SharedPreferences sp = c.getSharedPreferences(
+                SunshineSyncAdapter.LOCATION_STATUS_PREFS_NAME, Context.MODE_PRIVATE);
+        return sp.getInt(locationSetting, SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
+    }
+
     /**
      * Resets the location status.  (Sets it to SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN)
      * @param c Context used to get the SharedPreferences
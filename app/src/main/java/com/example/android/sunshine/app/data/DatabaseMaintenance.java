@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.io.File;
+import java.util.Locale;
+
+/**
+ * Keeps the database file as small as what it holds, so a cold open reads fewer pages.
+ *
+ * Each run deletes the rows each table's {@link Retention} no longer keeps, and the forecasts
+ * of locations that are gone.  The sync trims each location it stores to the same retention,
+ * so this only finds the forecasts of locations whose fetch failed or stopped.  The free pages
+ * that leaves are handed back to the file system with an incremental vacuum once they make up
+ * a tenth of the file.  Incremental auto-vacuum can only be switched on by rebuilding the
+ * database with a full VACUUM, which the first run does; it can't be set when the tables are
+ * created, because opening the database in write-ahead logging mode has already written its
+ * header by then.  The planner's statistics are refreshed with ANALYZE when a table's row
+ * count has drifted a quarter from the one they were taken at.
+ *
+ * Runs must not be inside a transaction, and are meant for when the database is otherwise
+ * idle, such as the end of a sync, once a day or so.  Only {@link WeatherProvider} uses this class.
+ */
+class DatabaseMaintenance {
+
+    private static final String LOG_TAG = DatabaseMaintenance.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    /**
+     * How long a table keeps its rows: those dated more than days before today are deleted.
+     */
+    static final class Retention {
+        final String table;
+        final String dateColumn;
+        final int days;
+
+        Retention(String table, String dateColumn, int days) {
+            this.table = table;
+            this.dateColumn = dateColumn;
+            this.days = days;
+        }
+    }
+
+    // The tables whose statistics the provider's queries are planned with
+    private static final String[] ANALYZED_TABLES = {
+            LocationEntry.TABLE_NAME,
+            WeatherEntry.TABLE_NAME
+    };
+
+    // PRAGMA auto_vacuum's value for INCREMENTAL
+    static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    // The forecasts of locations that are gone
+    private static final String SQL_ORPHANS_SELECTION = WeatherEntry.COLUMN_LOC_KEY +
+            " NOT IN (SELECT " + LocationEntry._ID + " FROM " + LocationEntry.TABLE_NAME + ")";
+
+    /**
+     * What one run did.
+     */
+    static class Result {
+        int deleted;
+        // Pages handed back to the file system, by the incremental vacuum or the rebuild
+        long vacuumedPages;
+        boolean rebuilt;
+        boolean analyzed;
+        long nanos;
+    }
+
+    /**
+     * The size of the database file and how much of it is free.
+     */
+    static class Stats {
+        long pageSize;
+        long pageCount;
+        long freePageCount;
+        long walBytes;
+        int autoVacuum;
+
+        long getBytes() {
+            return pageSize * pageCount;
+        }
+
+        // The share of the file's pages that hold nothing
+        double getFragmentation() {
+            return pageCount > 0 ? (double) freePageCount / pageCount : 0;
+        }
+
+        Bundle toBundle() {
+            Bundle bundle = new Bundle();
+            bundle.putLong(WeatherContract.EXTRA_PAGE_SIZE, pageSize);
+            bundle.putLong(WeatherContract.EXTRA_PAGE_COUNT, pageCount);
+            bundle.putLong(WeatherContract.EXTRA_FREE_PAGE_COUNT, freePageCount);
+            bundle.putLong(WeatherContract.EXTRA_WAL_BYTES, walBytes);
+            bundle.putInt(WeatherContract.EXTRA_AUTO_VACUUM, autoVacuum);
+            return bundle;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "Database[size=%dKB,pages=%d,free=%d (%.1f%%),wal=%dKB,auto_vacuum=%d]",
+                    getBytes() / 1024, pageCount, freePageCount, getFragmentation() * 100,
+                    walBytes / 1024, autoVacuum);
+        }
+    }
+
+    private final SQLiteOpenHelper mOpenHelper;
+
+    DatabaseMaintenance(SQLiteOpenHelper openHelper) {
+        mOpenHelper = openHelper;
+    }
+
+    /**
+     * The retention of every table whose rows are dated: the weather table keeps a location's
+     * forecasts from forecastDays before today on, the bound the sync's trim of each
+     * location's window is given too.
+     */
+    static Retention[] getRetention(int forecastDays) {
+        return new Retention[]{
+                new Retention(WeatherEntry.TABLE_NAME, WeatherEntry.COLUMN_DATE, forecastDays)
+        };
+    }
+
+    /**
+     * Runs whatever maintenance is due.
+     *
+     * @param retention how long each table keeps its rows.
+     * @param now the current time, which the retention counts back from.
+     */
+    synchronized Result run(Retention[] retention, long now) {
+        long start = SystemClock.elapsedRealtimeNanos();
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        Result result = new Result();
+
+        long today = WeatherContract.normalizeDate(now);
+        db.beginTransaction();
+        try {
+            for (Retention table : retention) {
+                result.deleted += db.delete(table.table, table.dateColumn + " < ?",
+                        new String[]{Long.toString(today - table.days * DAY_IN_MILLIS)});
+            }
+            result.deleted += db.delete(WeatherEntry.TABLE_NAME, SQL_ORPHANS_SELECTION, null);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        Stats before = getStats(db);
+        if (before.autoVacuum != AUTO_VACUUM_INCREMENTAL) {
+            // Both on the primary connection, which VACUUM reads the pending mode from
+            db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+            db.execSQL("VACUUM");
+            result.rebuilt = true;
+            // Less whatever pages auto-vacuum's own bookkeeping now takes
+            result.vacuumedPages = Math.max(0, before.pageCount - pageCount(db));
+        } else if (before.freePageCount > 0 && before.freePageCount * 10 >= before.pageCount) {
+            incrementalVacuum(db);
+            result.vacuumedPages = before.freePageCount - freePageCount(db);
+        }
+
+        if (isAnalysisStale(db)) {
+            db.execSQL("ANALYZE");
+            result.analyzed = true;
+        }
+
+        result.nanos = SystemClock.elapsedRealtimeNanos() - start;
+        Log.i(LOG_TAG, String.format(Locale.US,
+                "Deleted %d rows, vacuumed %d pages%s%s in %.1fms", result.deleted,
+                result.vacuumedPages, result.rebuilt ? " (rebuilt)" : "",
+                result.analyzed ? ", analyzed" : "", result.nanos / 1e6));
+        return result;
+    }
+
+    Stats getStats() {
+        return getStats(mOpenHelper.getReadableDatabase());
+    }
+
+    private static Stats getStats(SQLiteDatabase db) {
+        Stats stats = new Stats();
+        stats.pageSize = DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+        stats.pageCount = pageCount(db);
+        stats.freePageCount = freePageCount(db);
+        stats.autoVacuum = (int) DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null);
+        stats.walBytes = new File(db.getPath() + "-wal").length();
+        return stats;
+    }
+
+    private static long pageCount(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "PRAGMA page_count", null);
+    }
+
+    private static long freePageCount(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+    }
+
+    // The pragma frees one page per (empty) row it steps to, so it is read to the end
+    private static void incrementalVacuum(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum", null);
+        try {
+            cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /*
+        Whether a table has no statistics, or its row count has drifted by more than a quarter
+        from the one they were taken at, which sqlite_stat1 holds as the first number of each of
+        the table's rows.
+     */
+    private static boolean isAnalysisStale(SQLiteDatabase db) {
+        if (DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM sqlite_master " +
+                "WHERE type = 'table' AND name = 'sqlite_stat1'", null) == 0) {
+            return true;
+        }
+        for (String table : ANALYZED_TABLES) {
+            long rows = DatabaseUtils.queryNumEntries(db, table);
+            String stat = DatabaseUtils.stringForQuery(db, "SELECT IFNULL((SELECT stat " +
+                    "FROM sqlite_stat1 WHERE tbl = ? LIMIT 1), '0')", new String[]{table});
+            long analyzedRows = Long.parseLong(stat.split(" ")[0]);
+            if (Math.abs(rows - analyzedRows) * 4 > analyzedRows) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.os.Bundle;
+
+import java.util.Arrays;
+
+/**
+ * The forecast days for one location, held column by column in primitive arrays.
+ *
+ * This is what the sync adapter fills while parsing and what {@link WeatherProvider} binds
+ * into its compiled insert statement, so a day goes from the parser to SQLite without a
+ * ContentValues or a boxed value in between.  It crosses the provider boundary as a Bundle
+ * of the same arrays.
+ */
+public class ForecastBatch {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    // Bundle keys used by toBundle() and fromBundle()
+    private static final String KEY_LOCATION_ID = "location_id";
+    private static final String KEY_LOCATION_SETTING = "location_setting";
+    private static final String KEY_COUNT = "count";
+    private static final String KEY_DATES = "dates";
+    private static final String KEY_WEATHER_IDS = "weather_ids";
+    private static final String KEY_DESCRIPTIONS = "descriptions";
+    private static final String KEY_MIN_TEMPS = "min_temps";
+    private static final String KEY_MAX_TEMPS = "max_temps";
+    private static final String KEY_HUMIDITIES = "humidities";
+    private static final String KEY_PRESSURES = "pressures";
+    private static final String KEY_WIND_SPEEDS = "wind_speeds";
+    private static final String KEY_DEGREES = "degrees";
+
+    private long mLocationId;
+    private String mLocationSetting;
+    private int mCount;
+    private long[] mDates;
+    private int[] mWeatherIds;
+    private String[] mDescriptions;
+    private double[] mMinTemps;
+    private double[] mMaxTemps;
+    private double[] mHumidities;
+    private double[] mPressures;
+    private double[] mWindSpeeds;
+    private double[] mDegrees;
+
+    public ForecastBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ForecastBatch(int capacity) {
+        mDates = new long[capacity];
+        mWeatherIds = new int[capacity];
+        mDescriptions = new String[capacity];
+        mMinTemps = new double[capacity];
+        mMaxTemps = new double[capacity];
+        mHumidities = new double[capacity];
+        mPressures = new double[capacity];
+        mWindSpeeds = new double[capacity];
+        mDegrees = new double[capacity];
+    }
+
+    public long getLocationId() {
+        return mLocationId;
+    }
+
+    public void setLocationId(long locationId) {
+        mLocationId = locationId;
+    }
+
+    /**
+     * The location setting the batch was fetched for, used to scope change notifications.
+     * May be null.
+     */
+    public String getLocationSetting() {
+        return mLocationSetting;
+    }
+
+    public void setLocationSetting(String locationSetting) {
+        mLocationSetting = locationSetting;
+    }
+
+    /**
+     * Appends one day.  The date is stored as given; {@link WeatherProvider} normalizes it
+     * on the way into the database.
+     */
+    public void add(long date, int weatherId, String description, double minTemp,
+                    double maxTemp, double humidity, double pressure, double windSpeed,
+                    double degrees) {
+        if (mCount == mDates.length) {
+            grow();
+        }
+        mDates[mCount] = date;
+        mWeatherIds[mCount] = weatherId;
+        mDescriptions[mCount] = description;
+        mMinTemps[mCount] = minTemp;
+        mMaxTemps[mCount] = maxTemp;
+        mHumidities[mCount] = humidity;
+        mPressures[mCount] = pressure;
+        mWindSpeeds[mCount] = windSpeed;
+        mDegrees[mCount] = degrees;
+        mCount++;
+    }
+
+    public void clear() {
+        Arrays.fill(mDescriptions, 0, mCount, null);
+        mCount = 0;
+    }
+
+    public int size() {
+        return mCount;
+    }
+
+    public long getDate(int i) {
+        return mDates[i];
+    }
+
+    public int getWeatherId(int i) {
+        return mWeatherIds[i];
+    }
+
+    public String getDescription(int i) {
+        return mDescriptions[i];
+    }
+
+    public double getMinTemp(int i) {
+        return mMinTemps[i];
+    }
+
+    public double getMaxTemp(int i) {
+        return mMaxTemps[i];
+    }
+
+    public double getHumidity(int i) {
+        return mHumidities[i];
+    }
+
+    public double getPressure(int i) {
+        return mPressures[i];
+    }
+
+    public double getWindSpeed(int i) {
+        return mWindSpeeds[i];
+    }
+
+    public double getDegrees(int i) {
+        return mDegrees[i];
+    }
+
+    private void grow() {
+        int capacity = Math.max(DEFAULT_CAPACITY, mDates.length * 2);
+        mDates = Arrays.copyOf(mDates, capacity);
+        mWeatherIds = Arrays.copyOf(mWeatherIds, capacity);
+        mDescriptions = Arrays.copyOf(mDescriptions, capacity);
+        mMinTemps = Arrays.copyOf(mMinTemps, capacity);
+        mMaxTemps = Arrays.copyOf(mMaxTemps, capacity);
+        mHumidities = Arrays.copyOf(mHumidities, capacity);
+        mPressures = Arrays.copyOf(mPressures, capacity);
+        mWindSpeeds = Arrays.copyOf(mWindSpeeds, capacity);
+        mDegrees = Arrays.copyOf(mDegrees, capacity);
+    }
+
+    /**
+     * Packs the batch into a Bundle for {@link android.content.ContentResolver#call}.
+     * The arrays are shared, not copied, so the batch must not be modified afterwards.
+     */
+    public Bundle toBundle() {
+        Bundle bundle = new Bundle();
+        bundle.putLong(KEY_LOCATION_ID, mLocationId);
+        bundle.putString(KEY_LOCATION_SETTING, mLocationSetting);
+        bundle.putInt(KEY_COUNT, mCount);
+        bundle.putLongArray(KEY_DATES, mDates);
+        bundle.putIntArray(KEY_WEATHER_IDS, mWeatherIds);
+        bundle.putStringArray(KEY_DESCRIPTIONS, mDescriptions);
+        bundle.putDoubleArray(KEY_MIN_TEMPS, mMinTemps);
+        bundle.putDoubleArray(KEY_MAX_TEMPS, mMaxTemps);
+        bundle.putDoubleArray(KEY_HUMIDITIES, mHumidities);
+        bundle.putDoubleArray(KEY_PRESSURES, mPressures);
+        bundle.putDoubleArray(KEY_WIND_SPEEDS, mWindSpeeds);
+        bundle.putDoubleArray(KEY_DEGREES, mDegrees);
+        return bundle;
+    }
+
+    public static ForecastBatch fromBundle(Bundle bundle) {
+        ForecastBatch batch = new ForecastBatch(0);
+        batch.mLocationId = bundle.getLong(KEY_LOCATION_ID);
+        batch.mLocationSetting = bundle.getString(KEY_LOCATION_SETTING);
+        batch.mCount = bundle.getInt(KEY_COUNT);
+        batch.mDates = bundle.getLongArray(KEY_DATES);
+        batch.mWeatherIds = bundle.getIntArray(KEY_WEATHER_IDS);
+        batch.mDescriptions = bundle.getStringArray(KEY_DESCRIPTIONS);
+        batch.mMinTemps = bundle.getDoubleArray(KEY_MIN_TEMPS);
+        batch.mMaxTemps = bundle.getDoubleArray(KEY_MAX_TEMPS);
+        batch.mHumidities = bundle.getDoubleArray(KEY_HUMIDITIES);
+        batch.mPressures = bundle.getDoubleArray(KEY_PRESSURES);
+        batch.mWindSpeeds = bundle.getDoubleArray(KEY_WIND_SPEEDS);
+        batch.mDegrees = bundle.getDoubleArray(KEY_DEGREES);
+        if (batch.mDates == null || batch.mDates.length < batch.mCount) {
+            throw new IllegalArgumentException("Bundle does not hold a forecast batch");
+        }
+        return batch;
+    }
+}
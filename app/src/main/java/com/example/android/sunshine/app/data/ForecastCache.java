@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The stored forecast days of each location read through the provider's call() fast path,
+ * held in memory as {@link ForecastBatch}es.
+ *
+ * A location's days are read with one query the first time they are asked for, and served
+ * from memory until a write that may touch them invalidates them.  A read that raced with
+ * such a write is returned but not kept.  Only {@link WeatherProvider} uses this class.
+ */
+class ForecastCache {
+
+    private static final String SQL_QUERY_DAYS = "SELECT " +
+            WeatherEntry.COLUMN_DATE + ", " +
+            WeatherEntry.COLUMN_WEATHER_ID + ", " +
+            WeatherEntry.COLUMN_SHORT_DESC + ", " +
+            WeatherEntry.COLUMN_MIN_TEMP + ", " +
+            WeatherEntry.COLUMN_MAX_TEMP + ", " +
+            WeatherEntry.COLUMN_HUMIDITY + ", " +
+            WeatherEntry.COLUMN_PRESSURE + ", " +
+            WeatherEntry.COLUMN_WIND_SPEED + ", " +
+            WeatherEntry.COLUMN_DEGREES +
+            " FROM " + WeatherEntry.TABLE_NAME +
+            " WHERE " + WeatherEntry.COLUMN_LOC_KEY + " = ?" +
+            " ORDER BY " + WeatherEntry.COLUMN_DATE + " ASC";
+    // these indices must match the query
+    private static final int INDEX_DATE = 0;
+    private static final int INDEX_WEATHER_ID = 1;
+    private static final int INDEX_SHORT_DESC = 2;
+    private static final int INDEX_MIN_TEMP = 3;
+    private static final int INDEX_MAX_TEMP = 4;
+    private static final int INDEX_HUMIDITY = 5;
+    private static final int INDEX_PRESSURE = 6;
+    private static final int INDEX_WIND_SPEED = 7;
+    private static final int INDEX_DEGREES = 8;
+
+    private final SQLiteOpenHelper mOpenHelper;
+    private final LocationIdCache mLocationIds;
+
+    // location setting -> all its stored days, by date
+    private final Map<String, ForecastBatch> mDays = new HashMap<String, ForecastBatch>();
+    // Bumped by every invalidation, so a read can tell whether one happened while it ran
+    private long mGeneration;
+
+    ForecastCache(SQLiteOpenHelper openHelper, LocationIdCache locationIds) {
+        mOpenHelper = openHelper;
+        mLocationIds = locationIds;
+    }
+
+    /**
+     * How many times the cache has been invalidated.  It moves on with every write to the
+     * weather or location table, so a copy of the days read at one generation is current for
+     * as long as the generation is the same.
+     */
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Returns up to count of the location's days, starting with the first one dated on or
+     * after startDate.  Both the result and its arrays are new, so callers may keep it.
+     *
+     * @param startDate a normalized date
+     */
+    ForecastBatch getRange(String locationSetting, long startDate, int count) {
+        ForecastBatch days;
+        long generation;
+        synchronized (this) {
+            days = mDays.get(locationSetting);
+            generation = mGeneration;
+        }
+        if (days == null) {
+            days = load(locationSetting);
+            synchronized (this) {
+                if (generation == mGeneration) {
+                    mDays.put(locationSetting, days);
+                }
+            }
+        }
+        return slice(days, startDate, count);
+    }
+
+    /**
+     * Drops the days of one location, after a write that only touched that location.
+     */
+    synchronized void invalidate(String locationSetting) {
+        mDays.remove(locationSetting);
+        mGeneration++;
+    }
+
+    /**
+     * Drops the days of every location, after a write that may have touched any of them.
+     */
+    synchronized void invalidateAll() {
+        mDays.clear();
+        mGeneration++;
+    }
+
+    private ForecastBatch load(String locationSetting) {
+        long locationId = mLocationIds.getId(locationSetting);
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        Cursor cursor = db.rawQuery(SQL_QUERY_DAYS, new String[]{Long.toString(locationId)});
+        try {
+            ForecastBatch days = new ForecastBatch(cursor.getCount());
+            days.setLocationSetting(locationSetting);
+            if (cursor.getCount() > 0) {
+                days.setLocationId(locationId);
+            }
+            while (cursor.moveToNext()) {
+                days.add(cursor.getLong(INDEX_DATE),
+                        cursor.getInt(INDEX_WEATHER_ID),
+                        cursor.getString(INDEX_SHORT_DESC),
+                        cursor.getDouble(INDEX_MIN_TEMP),
+                        cursor.getDouble(INDEX_MAX_TEMP),
+                        cursor.getDouble(INDEX_HUMIDITY),
+                        cursor.getDouble(INDEX_PRESSURE),
+                        cursor.getDouble(INDEX_WIND_SPEED),
+                        cursor.getDouble(INDEX_DEGREES));
+            }
+            return days;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static ForecastBatch slice(ForecastBatch days, long startDate, int count) {
+        int first = 0;
+        while (first < days.size() && days.getDate(first) < startDate) {
+            first++;
+        }
+        int end = Math.min(days.size(), first + Math.max(count, 0));
+        ForecastBatch range = new ForecastBatch(end - first);
+        range.setLocationId(days.getLocationId());
+        range.setLocationSetting(days.getLocationSetting());
+        for (int i = first; i < end; i++) {
+            range.add(days.getDate(i), days.getWeatherId(i), days.getDescription(i),
+                    days.getMinTemp(i), days.getMaxTemp(i), days.getHumidity(i),
+                    days.getPressure(i), days.getWindSpeed(i), days.getDegrees(i));
+        }
+        return range;
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.util.LongSparseArray;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Resolves location settings to the ids of their rows in the location table, so that weather
+ * reads can select on the weather table's location_id instead of joining to the location
+ * table to match the setting, and ids back to settings, so that weather writes can notify
+ * the uris of the locations they touched.
+ *
+ * Both are looked up once and remembered until the provider updates or deletes locations,
+ * which forgets them all.  Misses are not remembered, so inserting a location needs no
+ * invalidation.  Only {@link WeatherProvider} uses this class.
+ */
+class LocationIdCache {
+
+    private static final String SQL_QUERY_ID = "SELECT " + LocationEntry._ID + " FROM " +
+            LocationEntry.TABLE_NAME + " WHERE " + LocationEntry.COLUMN_LOCATION_SETTING + " = ?";
+    private static final String SQL_QUERY_SETTING = "SELECT " +
+            LocationEntry.COLUMN_LOCATION_SETTING + " FROM " + LocationEntry.TABLE_NAME +
+            " WHERE " + LocationEntry._ID + " = ?";
+
+    private final SQLiteOpenHelper mOpenHelper;
+
+    // location setting -> location._id
+    private final Map<String, Long> mIds = new HashMap<String, Long>();
+    // location._id -> location setting
+    private final LongSparseArray<String> mSettings = new LongSparseArray<String>();
+    // Bumped by every invalidation, so a lookup can tell whether one happened while it ran
+    private long mGeneration;
+
+    LocationIdCache(SQLiteOpenHelper openHelper) {
+        mOpenHelper = openHelper;
+    }
+
+    /**
+     * @return the id of the setting's location row, or -1 if there is none.
+     */
+    long getId(String locationSetting) {
+        long generation;
+        synchronized (this) {
+            Long id = mIds.get(locationSetting);
+            if (id != null) {
+                return id;
+            }
+            generation = mGeneration;
+        }
+
+        long id = lookUpId(locationSetting);
+        if (id != -1) {
+            synchronized (this) {
+                if (generation == mGeneration) {
+                    mIds.put(locationSetting, id);
+                }
+            }
+        }
+        return id;
+    }
+
+    /**
+     * @return the setting of the location row with the id, or null if there is none.
+     */
+    String getSetting(long locationId) {
+        long generation;
+        synchronized (this) {
+            String locationSetting = mSettings.get(locationId);
+            if (locationSetting != null) {
+                return locationSetting;
+            }
+            generation = mGeneration;
+        }
+
+        String locationSetting = lookUpSetting(locationId);
+        if (locationSetting != null) {
+            synchronized (this) {
+                if (generation == mGeneration) {
+                    mSettings.put(locationId, locationSetting);
+                }
+            }
+        }
+        return locationSetting;
+    }
+
+    /**
+     * Forgets every id and setting, after locations were updated or deleted.
+     */
+    synchronized void invalidateAll() {
+        mIds.clear();
+        mSettings.clear();
+        mGeneration++;
+    }
+
+    private long lookUpId(String locationSetting) {
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        SQLiteStatement query = db.compileStatement(SQL_QUERY_ID);
+        try {
+            query.bindString(1, locationSetting);
+            return query.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            // No such location
+            return -1;
+        } finally {
+            query.close();
+        }
+    }
+
+    private String lookUpSetting(long locationId) {
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        SQLiteStatement query = db.compileStatement(SQL_QUERY_SETTING);
+        try {
+            query.bindLong(1, locationId);
+            return query.simpleQueryForString();
+        } catch (SQLiteDoneException e) {
+            // No such location
+            return null;
+        } finally {
+            query.close();
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.util.LruCache;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * The results of the provider's most recent weather queries by location, held in memory as
+ * rows and served back as {@link MatrixCursor}s, so the list, the detail pane, the widgets,
+ * Muzei and the wear bridge asking for the same days between syncs don't each go to SQLite.
+ *
+ * At most {@link #MAX_ENTRIES} results are kept, the least recently used going first.
+ * Results are dropped by the location id they were read for, after a write that touched it,
+ * or all at once after a write that may have touched any location.  A result read while such
+ * a write happened is returned but not kept.  Only {@link WeatherProvider} uses this class.
+ */
+class QueryCache {
+
+    static final int MAX_ENTRIES = 32;
+
+    /**
+     * What a result was read for: the location it belongs to, and everything else the
+     * provider's answer depends on.
+     */
+    static final class Key {
+        final long locationId;
+        private final String mQuery;
+
+        Key(long locationId, Uri uri, String[] projection, String sortOrder) {
+            this.locationId = locationId;
+            // The uri holds the location setting, the date and any start date
+            mQuery = uri + "|" + Arrays.toString(projection) + "|" + sortOrder;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return locationId == other.locationId && mQuery.equals(other.mQuery);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (int) (locationId ^ (locationId >>> 32)) + mQuery.hashCode();
+        }
+    }
+
+    // A result's column names and rows
+    private static final class Rows {
+        final String[] columnNames;
+        final Object[][] values;
+
+        Rows(String[] columnNames, Object[][] values) {
+            this.columnNames = columnNames;
+            this.values = values;
+        }
+    }
+
+    private final LruCache<Key, Rows> mResults = new LruCache<Key, Rows>(MAX_ENTRIES);
+    // Bumped by every invalidation, so a read can tell whether one happened while it ran
+    private long mGeneration;
+
+    /**
+     * @return a new cursor over the cached result, or null if there is none.
+     */
+    Cursor get(Key key) {
+        Rows rows = mResults.get(key);
+        return rows != null ? toCursor(rows) : null;
+    }
+
+    /**
+     * @return the generation to pass to {@link #put} with the result of a read started now.
+     */
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Reads out and closes the cursor, keeping its rows unless an invalidation happened since
+     * generation was taken.
+     *
+     * @return a new cursor over the same rows.
+     */
+    Cursor put(Key key, Cursor cursor, long generation) {
+        Rows rows;
+        try {
+            rows = readRows(cursor);
+        } finally {
+            cursor.close();
+        }
+        synchronized (this) {
+            if (generation == mGeneration) {
+                mResults.put(key, rows);
+            }
+        }
+        return toCursor(rows);
+    }
+
+    /**
+     * Drops the results of one location, after a write that only touched that location.
+     */
+    synchronized void invalidate(long locationId) {
+        for (Key key : mResults.snapshot().keySet()) {
+            if (key.locationId == locationId) {
+                mResults.remove(key);
+            }
+        }
+        mGeneration++;
+    }
+
+    /**
+     * Drops every result, after a write that may have touched any location.
+     */
+    synchronized void invalidateAll() {
+        mResults.evictAll();
+        mGeneration++;
+    }
+
+    int hitCount() {
+        return mResults.hitCount();
+    }
+
+    int missCount() {
+        return mResults.missCount();
+    }
+
+    int evictionCount() {
+        return mResults.evictionCount();
+    }
+
+    int size() {
+        return mResults.size();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US,
+                "QueryCache[size=%d/%d,hits=%d,misses=%d,evictions=%d]",
+                size(), MAX_ENTRIES, hitCount(), missCount(), evictionCount());
+    }
+
+    private static Rows readRows(Cursor cursor) {
+        int columnCount = cursor.getColumnCount();
+        Object[][] values = new Object[cursor.getCount()][];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            Object[] row = new Object[columnCount];
+            for (int column = 0; column < columnCount; column++) {
+                switch (cursor.getType(column)) {
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        row[column] = cursor.getLong(column);
+                        break;
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        row[column] = cursor.getDouble(column);
+                        break;
+                    case Cursor.FIELD_TYPE_STRING:
+                        row[column] = cursor.getString(column);
+                        break;
+                    case Cursor.FIELD_TYPE_BLOB:
+                        row[column] = cursor.getBlob(column);
+                        break;
+                    default:
+                        row[column] = null;
+                }
+            }
+            values[i] = row;
+        }
+        return new Rows(cursor.getColumnNames(), values);
+    }
+
+    private static Cursor toCursor(Rows rows) {
+        MatrixCursor cursor = new MatrixCursor(rows.columnNames, rows.values.length);
+        for (Object[] row : rows.values) {
+            // MatrixCursor copies the row, so the cached one can't be changed through it
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.net.Uri;
+import android.util.LongSparseArray;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The weather rows a write touched, collected while it runs and turned into the narrowest
+ * uris to notify once it is done, so that observers of other locations and other days don't
+ * requery.
+ *
+ * A location with a single changed day is notified on that day's uri, which also reaches the
+ * observers of the whole location; a location with more is notified on its own uri, which
+ * also reaches the observers of each of its days.  Only {@link WeatherProvider} uses this
+ * class.
+ */
+class WeatherChanges {
+
+    // Stands for more than one day of a location
+    private static final long ANY_DATE = Long.MIN_VALUE;
+
+    // location id -> its one changed date, or ANY_DATE
+    private final LongSparseArray<Long> mDates = new LongSparseArray<Long>();
+    private boolean mAll;
+
+    /**
+     * Records a change to one day of a location.
+     *
+     * @param date a normalized date
+     */
+    void addDay(long locationId, long date) {
+        Long stored = mDates.get(locationId);
+        if (stored == null) {
+            mDates.put(locationId, date);
+        } else if (stored != date) {
+            mDates.put(locationId, ANY_DATE);
+        }
+    }
+
+    /**
+     * Records a change to any number of days of a location.
+     */
+    void addLocation(long locationId) {
+        mDates.put(locationId, ANY_DATE);
+    }
+
+    /**
+     * Records the days of a location that a write through {@link WeatherIngestor} changed.
+     */
+    void add(long locationId, WeatherIngestor.Result written) {
+        if (written.inserted + written.updated == 1 && written.deleted == 0) {
+            addDay(locationId, written.changedDate);
+        } else if (written.hasChanges()) {
+            addLocation(locationId);
+        }
+    }
+
+    /**
+     * Records every change of another set.
+     */
+    void add(WeatherChanges other) {
+        mAll |= other.mAll;
+        for (int i = 0; i < other.mDates.size(); i++) {
+            long date = other.mDates.valueAt(i);
+            if (date == ANY_DATE) {
+                addLocation(other.mDates.keyAt(i));
+            } else {
+                addDay(other.mDates.keyAt(i), date);
+            }
+        }
+    }
+
+    /**
+     * Records a change that may have touched any row.
+     */
+    void addAll() {
+        mAll = true;
+    }
+
+    /**
+     * Drops the cache's results of the changed locations.
+     */
+    void invalidate(QueryCache queryCache) {
+        if (mAll) {
+            queryCache.invalidateAll();
+            return;
+        }
+        for (int i = 0; i < mDates.size(); i++) {
+            queryCache.invalidate(mDates.keyAt(i));
+        }
+    }
+
+    /**
+     * @return the uris to notify, none of which covers another.
+     */
+    List<Uri> getUris(LocationIdCache locationIds) {
+        if (mAll) {
+            return Collections.singletonList(WeatherEntry.CONTENT_URI);
+        }
+        List<Uri> uris = new ArrayList<Uri>(mDates.size());
+        for (int i = 0; i < mDates.size(); i++) {
+            String locationSetting = locationIds.getSetting(mDates.keyAt(i));
+            if (locationSetting == null) {
+                // A location that is gone; its observers can only be reached from the top
+                return Collections.singletonList(WeatherEntry.CONTENT_URI);
+            }
+            long date = mDates.valueAt(i);
+            uris.add(date == ANY_DATE
+                    ? WeatherEntry.buildWeatherLocation(locationSetting)
+                    : WeatherEntry.buildWeatherLocationWithDate(locationSetting, date));
+        }
+        return uris;
+    }
+}
@@ -43,17 +43,122 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_SYNC_TIMING = "sync_timing";
+    // weather/<location setting>/range/<start date>/<end date>
+    public static final String PATH_RANGE = "range";
 
     // To make it easy to query for the exact date, we normalize all dates that go into
     // the database to the start of the the Julian day at UTC.
     public static long normalizeDate(long startDate) {
+        return normalizeDate(startDate, new Time());
+    }
+
+    // Same as above, reusing the given Time so that normalizing many dates allocates nothing.
+    static long normalizeDate(long startDate, Time time) {
         // normalize the start date to the beginning of the (UTC) day
-        Time time = new Time();
         time.set(startDate);
         int julianDay = Time.getJulianDay(startDate, time.gmtoff);
         return time.setJulianDay(julianDay);
     }
 
+    // Methods understood by the provider's call(), for operations that do not map onto a
+    // single insert/update/delete.
+    // Stores a ForecastBatch (passed as its Bundle) with compiled statements in a single
+    // transaction.  Days already stored with the same values are not written, and observers
+    // are only notified if something was.  The result holds the change summary:
+    // EXTRA_ROW_COUNT (inserted), EXTRA_UPDATED_COUNT and EXTRA_UNCHANGED_COUNT.
+    public static final String METHOD_INGEST_FORECAST = "ingest_forecast";
+
+    // Replaces the forecast window of one location: stores a ForecastBatch like
+    // METHOD_INGEST_FORECAST and deletes that location's rows dated more than
+    // EXTRA_RETENTION_DAYS, if the Bundle holds it, before the batch's first day, in one
+    // transaction with at most one change notification.  The arg is the location setting,
+    // which scopes the notification to that location's weather URI.  The result holds the
+    // change summary and EXTRA_DELETED_COUNT.
+    public static final String METHOD_REPLACE_FORECAST = "replace_forecast";
+
+    // Replaces the forecast windows of several locations in one transaction, like
+    // METHOD_REPLACE_FORECAST for each of them.  The extras hold the ForecastBatch Bundles, each
+    // with its location setting set, under EXTRA_BATCHES, and optionally EXTRA_RETENTION_DAYS.
+    // A batch Bundle may also hold its location's ContentValues under EXTRA_LOCATION, which are
+    // upserted like METHOD_INSERT_LOCATIONS does in the same transaction, its location id then
+    // not needing to be set.  Each changed location's weather URI is notified once.  The result
+    // holds the totals of the change summary, EXTRA_DELETED_COUNT and the location id of each
+    // batch, in order, under EXTRA_LOCATION_IDS.
+    public static final String METHOD_REPLACE_FORECASTS = "replace_forecasts";
+
+    // Adds sync stage timings to the histograms of the sync_timing table.  The extras map each
+    // stage name to a long[] with one count per SyncTimingEntry.BUCKET_BOUNDS bucket.
+    public static final String METHOD_RECORD_TIMINGS = "record_timings";
+
+    // Reads up to EXTRA_DAY_COUNT stored days of one location, starting with the first one
+    // dated on or after EXTRA_START_DATE, without a Cursor.  The arg is the location setting.
+    // The result is a ForecastBatch Bundle, served from memory until a write invalidates it;
+    // read it with ForecastBatch.fromBundle().  It also holds EXTRA_GENERATION.
+    public static final String METHOD_GET_RANGE = "get_range";
+
+    // METHOD_GET_RANGE for the first stored day of the location from today on.  The arg is the
+    // location setting; no extras are needed.
+    public static final String METHOD_GET_TODAY = "get_today";
+
+    // Checkpoints the database's write-ahead log without waiting for readers.  The sync calls
+    // it once its writes are done.
+    public static final String METHOD_CHECKPOINT = "checkpoint";
+
+    // Upserts the locations under EXTRA_LOCATIONS, a list of ContentValues, like a bulkInsert()
+    // of LocationEntry.CONTENT_URI: in one transaction, a setting that is already stored having
+    // its row updated with the values.  The result holds the location id of each, in order,
+    // under EXTRA_LOCATION_IDS, how many were inserted under EXTRA_ROW_COUNT and how many
+    // updated under EXTRA_UPDATED_COUNT.
+    public static final String METHOD_INSERT_LOCATIONS = "insert_locations";
+
+    // Deletes the forecasts dated more than EXTRA_RETENTION_DAYS, if the extras hold it, before
+    // today and those of locations that are gone, hands free pages back to the file system and
+    // refreshes the query planner's statistics, each when it is due.  Meant for when the
+    // database is otherwise idle; the sync calls it once a day, after its writes are done.  The
+    // result holds EXTRA_DELETED_COUNT, EXTRA_VACUUMED_PAGES and the database's size afterwards,
+    // as METHOD_GET_DATABASE_STATS returns it.
+    public static final String METHOD_MAINTAIN = "maintain";
+
+    // Reports the database's size and how much of it is free: EXTRA_PAGE_SIZE,
+    // EXTRA_PAGE_COUNT, EXTRA_FREE_PAGE_COUNT, EXTRA_WAL_BYTES and EXTRA_AUTO_VACUUM.
+    public static final String METHOD_GET_DATABASE_STATS = "get_database_stats";
+
+    // Argument extras passed to call()
+    public static final String EXTRA_BATCHES = "batches";
+    public static final String EXTRA_START_DATE = "start_date";
+    public static final String EXTRA_DAY_COUNT = "day_count";
+    public static final String EXTRA_LOCATIONS = "locations";
+    // The location of one of the batches of METHOD_REPLACE_FORECASTS, as ContentValues
+    public static final String EXTRA_LOCATION = "location";
+    // How many days before today, or before the first day of a replaced window, a location's
+    // forecasts are kept.  Replacing a window and maintenance must be given the same value, or
+    // one deletes what the other keeps; without it, DEFAULT_RETENTION_DAYS.
+    public static final String EXTRA_RETENTION_DAYS = "retention_days";
+
+    // Only today's forecast and those after it are kept, as they are all the app shows
+    public static final int DEFAULT_RETENTION_DAYS = 0;
+
+    // Result extras returned by call()
+    public static final String EXTRA_ROW_COUNT = "row_count";
+    public static final String EXTRA_UPDATED_COUNT = "updated_count";
+    public static final String EXTRA_UNCHANGED_COUNT = "unchanged_count";
+    public static final String EXTRA_DELETED_COUNT = "deleted_count";
+    // Time spent deleting rows before the forecast window, in nanoseconds
+    public static final String EXTRA_TRIM_NANOS = "trim_nanos";
+    public static final String EXTRA_VACUUMED_PAGES = "vacuumed_pages";
+    public static final String EXTRA_LOCATION_IDS = "location_ids";
+    // Moves on with every write to the forecasts, so two reads with the same one saw the same
+    // stored days
+    public static final String EXTRA_GENERATION = "generation";
+    public static final String EXTRA_PAGE_SIZE = "page_size";
+    public static final String EXTRA_PAGE_COUNT = "page_count";
+    // Pages of the database file that hold nothing; over EXTRA_PAGE_COUNT, its fragmentation
+    public static final String EXTRA_FREE_PAGE_COUNT = "free_page_count";
+    public static final String EXTRA_WAL_BYTES = "wal_bytes";
+    // PRAGMA auto_vacuum: 0 for none, 1 for full, 2 for incremental
+    public static final String EXTRA_AUTO_VACUUM = "auto_vacuum";
+
     /* Inner class that defines the table contents of the location table */
     public static final class LocationEntry implements BaseColumns {
 
@@ -81,11 +186,52 @@ public class WeatherContract {
         public static final String COLUMN_COORD_LAT = "coord_lat";
         public static final String COLUMN_COORD_LONG = "coord_long";
 
+        // OpenWeatherMap's id for the city the location setting resolved to.  Locations that
+        // resolve to the same city can share one forecast request.  Null until the location
+        // has been synced once.
+        public static final String COLUMN_CITY_ID = "city_id";
+
         public static Uri buildLocationUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
     }
 
+    /* Inner class that defines the table contents of the sync_timing table */
+    public static final class SyncTimingEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_SYNC_TIMING).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SYNC_TIMING;
+
+        public static final String TABLE_NAME = "sync_timing";
+
+        // The sync stage timed, e.g. "connect" or "parse"
+        public static final String COLUMN_STAGE = "stage";
+
+        // Upper bound of the bucket, in milliseconds, exclusive.  One of BUCKET_BOUNDS.
+        public static final String COLUMN_BUCKET = "bucket";
+
+        // How many timings of the stage fell into the bucket
+        public static final String COLUMN_COUNT = "count";
+
+        // The fixed upper bounds of the histogram buckets, in milliseconds.  The last bucket
+        // holds everything slower.
+        public static final long[] BUCKET_BOUNDS = {
+                1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000, Long.MAX_VALUE
+        };
+
+        // Index of the bucket a timing falls into
+        public static int getBucket(long millis) {
+            int bucket = 0;
+            while (bucket < BUCKET_BOUNDS.length - 1 && millis >= BUCKET_BOUNDS[bucket]) {
+                bucket++;
+            }
+            return bucket;
+        }
+    }
+
     /* Inner class that defines the table contents of the weather table */
     public static final class WeatherEntry implements BaseColumns {
 
@@ -99,6 +245,10 @@ public class WeatherContract {
 
         public static final String TABLE_NAME = "weather";
 
+        // Query parameters of range URIs
+        public static final String PARAM_LIMIT = "limit";
+        public static final String PARAM_OFFSET = "offset";
+
         // Column with the foreign key into the location table.
         public static final String COLUMN_LOC_KEY = "location_id";
         // Date, stored as long in milliseconds since the epoch
@@ -149,6 +299,34 @@ public class WeatherContract {
                     .appendPath(Long.toString(normalizeDate(date))).build();
         }
 
+        /**
+         * The days of the location dated from startDate up to, but not including, endDate, in
+         * date order.
+         */
+        public static Uri buildWeatherLocationWithRange(
+                String locationSetting, long startDate, long endDate) {
+            return buildWeatherLocationWithRange(locationSetting, startDate, endDate, 0, 0);
+        }
+
+        /**
+         * A page of the days of the location dated from startDate up to, but not including,
+         * endDate, in date order: at most limit of them (0 for all), after skipping offset.
+         */
+        public static Uri buildWeatherLocationWithRange(
+                String locationSetting, long startDate, long endDate, int limit, int offset) {
+            Uri.Builder builder = CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendPath(PATH_RANGE)
+                    .appendPath(Long.toString(normalizeDate(startDate)))
+                    .appendPath(Long.toString(normalizeDate(endDate)));
+            if (limit > 0) {
+                builder.appendQueryParameter(PARAM_LIMIT, Integer.toString(limit));
+            }
+            if (offset > 0) {
+                builder.appendQueryParameter(PARAM_OFFSET, Integer.toString(offset));
+            }
+            return builder.build();
+        }
+
         public static String getLocationSettingFromUri(Uri uri) {
             return uri.getPathSegments().get(1);
         }
@@ -164,5 +342,39 @@ public class WeatherContract {
             else
                 return 0;
         }
+
+        public static long getRangeStartFromUri(Uri uri) {
+            return Long.parseLong(uri.getPathSegments().get(3));
+        }
+
+        // Exclusive
+        public static long getRangeEndFromUri(Uri uri) {
+            return Long.parseLong(uri.getPathSegments().get(4));
+        }
+
+        // 0 if the range isn't limited
+        public static int getLimitFromUri(Uri uri) {
+            return getIntParameter(uri, PARAM_LIMIT);
+        }
+
+        public static int getOffsetFromUri(Uri uri) {
+            return getIntParameter(uri, PARAM_OFFSET);
+        }
+
+        // 0 if the parameter is absent; anything but a count is the caller's mistake
+        private static int getIntParameter(Uri uri, String name) {
+            String value = uri.getQueryParameter(name);
+            if (null == value || value.length() == 0)
+                return 0;
+            int count;
+            try {
+                count = Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Malformed " + name + ": " + value);
+            }
+            if (count < 0)
+                throw new IllegalArgumentException("Negative " + name + ": " + value);
+            return count;
+        }
     }
 }
@@ -16,36 +16,146 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.SystemClock;
+import android.util.Log;
 
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.SyncTimingEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
+import java.util.Locale;
+
 /**
  * Manages a local database for weather data.
+ *
+ * The database is opened in write-ahead logging mode, so the UI, the widgets and the
+ * provider's readers keep reading the last committed forecast, each on a connection of its
+ * own, while a sync holds its write transaction.  The framework sizes the pool of reader
+ * connections from the device's configuration.
+ *
+ * Syncs write in bursts, so the log is checkpointed once per sync by {@link #checkpoint()}
+ * rather than every default-sized run of pages; the automatic checkpoint is only a backstop,
+ * set high enough not to fire in the middle of a sync.  The log file is truncated back to a
+ * small size after each checkpoint instead of keeping its largest size on disk.
+ *
+ * {@link DatabaseMaintenance} switches the database to incremental auto-vacuum the first
+ * time it runs, and from then on hands the pages deletes free back to the file system.
+ *
+ * Upgrades migrate the stored locations and forecasts in place, one version at a time, so an
+ * app update doesn't start every user from an empty list and a refetch of every location.
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
-    // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    private static final String LOG_TAG = WeatherDbHelper.class.getSimpleName();
+
+    // If you change the database schema, you must increment the database version, and add
+    // the step that migrates the previous version to MIGRATIONS.
+    static final int DATABASE_VERSION = 5;
+
+    // The oldest version MIGRATIONS starts from; anything older is dropped and recreated
+    static final int OLDEST_MIGRATED_VERSION = 2;
+
+    /*
+        The statements that migrate version OLDEST_MIGRATED_VERSION + i to the next one are
+        MIGRATIONS[i].  They are written out as they were when that version shipped, rather
+        than built from the contract, because they must produce that version's schema
+        whatever later versions change.  Their fixtures are in the test assets, under schema/.
+     */
+    private static final String[][] MIGRATIONS = {
+            // 2 -> 3: the city id each setting resolved to
+            {
+                    "ALTER TABLE location ADD COLUMN city_id INTEGER"
+            },
+            // 3 -> 4: the sync timing histograms
+            {
+                    "CREATE TABLE sync_timing (_id INTEGER PRIMARY KEY, " +
+                            "stage TEXT NOT NULL, bucket INTEGER NOT NULL, " +
+                            "count INTEGER NOT NULL, " +
+                            "UNIQUE (stage, bucket) ON CONFLICT REPLACE)"
+            },
+            // 4 -> 5: the weather table's unique index keyed by location, then date.  A table
+            // constraint can't be altered, so the table is copied into a new one
+            {
+                    "CREATE TABLE weather_v5 (_id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                            "location_id INTEGER NOT NULL, date INTEGER NOT NULL, " +
+                            "short_desc TEXT NOT NULL, weather_id INTEGER NOT NULL, " +
+                            "min REAL NOT NULL, max REAL NOT NULL, " +
+                            "humidity REAL NOT NULL, pressure REAL NOT NULL, " +
+                            "wind REAL NOT NULL, degrees REAL NOT NULL, " +
+                            "FOREIGN KEY (location_id) REFERENCES location (_id), " +
+                            "UNIQUE (location_id, date) ON CONFLICT REPLACE)",
+                    "INSERT INTO weather_v5 SELECT _id, location_id, date, short_desc, " +
+                            "weather_id, min, max, humidity, pressure, wind, degrees " +
+                            "FROM weather",
+                    "DROP TABLE weather",
+                    "ALTER TABLE weather_v5 RENAME TO weather"
+            }
+    };
 
     static final String DATABASE_NAME = "weather.db";
 
+    // Pages (of 4KB) the log may grow to before SQLite checkpoints it on its own
+    static final int WAL_AUTOCHECKPOINT_PAGES = 4096;
+    // What the log file is truncated to after a checkpoint
+    static final long WAL_SIZE_LIMIT_BYTES = 512 * 1024;
+
     public WeatherDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME, true);
+    }
+
+    /**
+     * For tests and benchmarks that need a database of their own, or the rollback journal.
+     */
+    WeatherDbHelper(Context context, String name, boolean writeAheadLogging) {
+        super(context, name, null, DATABASE_VERSION);
+        setWriteAheadLoggingEnabled(writeAheadLogging);
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        if (db.isWriteAheadLoggingEnabled()) {
+            pragma(db, "wal_autocheckpoint=" + WAL_AUTOCHECKPOINT_PAGES);
+            pragma(db, "journal_size_limit=" + WAL_SIZE_LIMIT_BYTES);
+        }
+    }
+
+    /**
+     * Copies the committed transactions in the log back into the database, without waiting
+     * for readers; pages still being read are left for the next checkpoint.  Must not be
+     * called inside a transaction.
+     */
+    void checkpoint() {
+        SQLiteDatabase db = getWritableDatabase();
+        if (db.isWriteAheadLoggingEnabled()) {
+            pragma(db, "wal_checkpoint(PASSIVE)");
+        }
+    }
+
+    // PRAGMAs that report a value can't go through execSQL()
+    private static void pragma(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery("PRAGMA " + pragma, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
     }
 
     @Override
     public void onCreate(SQLiteDatabase sqLiteDatabase) {
         // Create a table to hold locations.  A location consists of the string supplied in the
-        // location setting, the city name, and the latitude and longitude
+        // location setting, the city name, the latitude and longitude, and the city id the
+        // setting resolved to
         final String SQL_CREATE_LOCATION_TABLE = "CREATE TABLE " + LocationEntry.TABLE_NAME + " (" +
                 LocationEntry._ID + " INTEGER PRIMARY KEY," +
                 LocationEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE NOT NULL, " +
                 LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
                 LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
-                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL " +
+                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL, " +
+                LocationEntry.COLUMN_CITY_ID + " INTEGER " +
                 " );";
 
         final String SQL_CREATE_WEATHER_TABLE = "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
@@ -75,24 +185,58 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
 
                 // To assure the application have just one weather entry per day
-                // per location, it's created a UNIQUE constraint with REPLACE strategy
-                " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
-                WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
+                // per location, it's created a UNIQUE constraint with REPLACE strategy.
+                // Its index leads with the location, so that every read of a location's
+                // days, from a date on or on one date, is a range scan of the index that
+                // comes out already sorted by date.  (A WITHOUT ROWID table clustered on the
+                // same key would save the lookup of each row, but needs SQLite 3.8.2, which
+                // older supported devices don't ship, and drops the _id the adapters use.)
+                " UNIQUE (" + WeatherEntry.COLUMN_LOC_KEY + ", " +
+                WeatherEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);";
+
+        // Histograms of how long each sync stage takes: one row per stage and bucket
+        final String SQL_CREATE_SYNC_TIMING_TABLE = "CREATE TABLE " + SyncTimingEntry.TABLE_NAME + " (" +
+                SyncTimingEntry._ID + " INTEGER PRIMARY KEY," +
+                SyncTimingEntry.COLUMN_STAGE + " TEXT NOT NULL, " +
+                SyncTimingEntry.COLUMN_BUCKET + " INTEGER NOT NULL, " +
+                SyncTimingEntry.COLUMN_COUNT + " INTEGER NOT NULL, " +
+                " UNIQUE (" + SyncTimingEntry.COLUMN_STAGE + ", " +
+                SyncTimingEntry.COLUMN_BUCKET + ") ON CONFLICT REPLACE);";
 
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_SYNC_TIMING_TABLE);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
         // Note that this only fires if you change the version number for your database.
         // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
-        onCreate(sqLiteDatabase);
+        if (oldVersion < OLDEST_MIGRATED_VERSION) {
+            // This database is only a cache for online data, so versions that were never
+            // migrated simply discard the data and start over
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + SyncTimingEntry.TABLE_NAME);
+            onCreate(sqLiteDatabase);
+            return;
+        }
+        migrate(sqLiteDatabase, oldVersion, newVersion);
+    }
+
+    // Runs the steps from oldVersion up to newVersion inside the framework's transaction,
+    // logging how long each one took, and the whole upgrade
+    private static void migrate(SQLiteDatabase db, int oldVersion, int newVersion) {
+        long upgradeStart = SystemClock.elapsedRealtimeNanos();
+        for (int version = oldVersion; version < newVersion; version++) {
+            long start = SystemClock.elapsedRealtimeNanos();
+            for (String statement : MIGRATIONS[version - OLDEST_MIGRATED_VERSION]) {
+                db.execSQL(statement);
+            }
+            Log.i(LOG_TAG, String.format(Locale.US, "Migrated version %d to %d in %.1fms",
+                    version, version + 1, (SystemClock.elapsedRealtimeNanos() - start) / 1e6));
+        }
+        Log.i(LOG_TAG, String.format(Locale.US, "Upgraded version %d to %d in %.1fms",
+                oldVersion, newVersion, (SystemClock.elapsedRealtimeNanos() - upgradeStart) / 1e6));
     }
 }
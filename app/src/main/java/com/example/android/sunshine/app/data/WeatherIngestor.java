@@ -0,0 +1,303 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.text.format.Time;
+import android.util.LongSparseArray;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/**
+ * Writes {@link ForecastBatch}es into the weather table.
+ *
+ * Each day is compared with the row already stored for its location and date, and only
+ * written if it is new or one of its values changed, so a sync that brings back the same
+ * forecast leaves the table, its ids and its indexes untouched.  The statements are compiled
+ * once and reused for every row of every batch, with the values bound straight from the
+ * batch's primitive arrays.  Only {@link WeatherProvider} uses this class.
+ */
+class WeatherIngestor {
+
+    /**
+     * Row counts of one write.
+     */
+    static class Result {
+        int inserted;
+        int updated;
+        int unchanged;
+        int deleted;
+        // Time spent trimming rows from before the window
+        long trimNanos;
+        // The normalized date of the last day inserted or updated
+        long changedDate;
+
+        boolean hasChanges() {
+            return inserted > 0 || updated > 0 || deleted > 0;
+        }
+    }
+
+    // The value columns of a day, in the order bindValues() binds them
+    private static final String[] VALUE_COLUMNS = {
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    private static final String SQL_INSERT_WEATHER = "INSERT INTO " + WeatherEntry.TABLE_NAME +
+            " (" + WeatherEntry.COLUMN_LOC_KEY + ", " + WeatherEntry.COLUMN_DATE + ", " +
+            join(VALUE_COLUMNS, ", ") + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    // SQLite rewrites the whole record whichever columns are set, so a changed day gets all
+    // of its values in one statement rather than one statement per changed column
+    private static final String SQL_UPDATE_WEATHER = "UPDATE " + WeatherEntry.TABLE_NAME +
+            " SET " + join(VALUE_COLUMNS, " = ?, ") + " = ? WHERE " + WeatherEntry._ID + " = ?";
+
+    // The stored days of a location from a date on, to compare the incoming ones with
+    private static final String SQL_QUERY_STORED = "SELECT " + WeatherEntry._ID + ", " +
+            WeatherEntry.COLUMN_DATE + ", " + join(VALUE_COLUMNS, ", ") +
+            " FROM " + WeatherEntry.TABLE_NAME + " WHERE " + WeatherEntry.COLUMN_LOC_KEY +
+            " = ? AND " + WeatherEntry.COLUMN_DATE + " >= ?";
+
+    // Indices into SQL_QUERY_STORED; the values follow in VALUE_COLUMNS order
+    private static final int STORED_ID = 0;
+    private static final int STORED_DATE = 1;
+    private static final int STORED_VALUES = 2;
+
+    // Trims a location's rows from before its retention, counted back from the start of its
+    // new forecast window
+    private static final String SQL_DELETE_BEFORE = "DELETE FROM " + WeatherEntry.TABLE_NAME +
+            " WHERE " + WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+            WeatherEntry.COLUMN_DATE + " < ?";
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    private final SQLiteOpenHelper mOpenHelper;
+    private final Time mTime = new Time();
+
+    // Compiled against mDatabase; recompiled if the helper hands out a new database
+    private SQLiteDatabase mDatabase;
+    private SQLiteStatement mInsertWeather;
+    private SQLiteStatement mUpdateWeather;
+    private SQLiteStatement mDeleteBefore;
+
+    WeatherIngestor(SQLiteOpenHelper openHelper) {
+        mOpenHelper = openHelper;
+    }
+
+    /**
+     * Stores every day of the batch in one transaction.
+     */
+    synchronized Result insert(ForecastBatch batch) {
+        final SQLiteDatabase db = getDatabase();
+        Result result = new Result();
+
+        db.beginTransaction();
+        try {
+            upsertDays(batch, result);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return result;
+    }
+
+    /**
+     * Replaces the batch location's forecast window: stores every day of the batch and
+     * deletes that location's rows dated more than retentionDays before the batch's first day,
+     * in one transaction.
+     */
+    synchronized Result replace(ForecastBatch batch, int retentionDays) {
+        return replace(new ForecastBatch[]{batch}, retentionDays)[0];
+    }
+
+    /**
+     * Like {@link #replace(ForecastBatch[], int)}, keeping no day before the windows.
+     */
+    synchronized Result[] replace(ForecastBatch[] batches) {
+        return replace(batches, WeatherContract.DEFAULT_RETENTION_DAYS);
+    }
+
+    /**
+     * Replaces the forecast window of every batch's location in a single transaction.
+     *
+     * @return the row counts of each batch, in the same order.
+     */
+    synchronized Result[] replace(ForecastBatch[] batches, int retentionDays) {
+        final SQLiteDatabase db = getDatabase();
+        Result[] results = new Result[batches.length];
+
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < batches.length; i++) {
+                results[i] = replaceWindow(batches[i], retentionDays);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return results;
+    }
+
+    // Must be called inside a transaction
+    private Result replaceWindow(ForecastBatch batch, int retentionDays) {
+        Result result = new Result();
+        long windowStart = upsertDays(batch, result);
+        if (batch.size() > 0) {
+            long start = SystemClock.elapsedRealtimeNanos();
+            mDeleteBefore.bindLong(1, batch.getLocationId());
+            mDeleteBefore.bindLong(2, windowStart - retentionDays * DAY_IN_MILLIS);
+            result.deleted = mDeleteBefore.executeUpdateDelete();
+            result.trimNanos = SystemClock.elapsedRealtimeNanos() - start;
+        }
+        return result;
+    }
+
+    /**
+     * Inserts the days of the batch that are not stored yet and updates those whose values
+     * differ from the stored ones.  Must be called inside a transaction.
+     *
+     * @return the normalized date of the batch's earliest day.
+     */
+    private long upsertDays(ForecastBatch batch, Result result) {
+        final long locationId = batch.getLocationId();
+        final int count = batch.size();
+        if (count == 0) {
+            return 0;
+        }
+
+        long[] dates = new long[count];
+        long firstDate = Long.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            dates[i] = WeatherContract.normalizeDate(batch.getDate(i), mTime);
+            firstDate = Math.min(firstDate, dates[i]);
+        }
+
+        Cursor stored = mDatabase.rawQuery(SQL_QUERY_STORED,
+                new String[]{Long.toString(locationId), Long.toString(firstDate)});
+        try {
+            // date -> cursor position of the stored day
+            LongSparseArray<Integer> storedDays = new LongSparseArray<Integer>(stored.getCount());
+            while (stored.moveToNext()) {
+                storedDays.put(stored.getLong(STORED_DATE), stored.getPosition());
+            }
+
+            for (int i = 0; i < count; i++) {
+                Integer position = storedDays.get(dates[i]);
+                if (position == null) {
+                    mInsertWeather.bindLong(1, locationId);
+                    mInsertWeather.bindLong(2, dates[i]);
+                    bindValues(mInsertWeather, 3, batch, i);
+                    if (mInsertWeather.executeInsert() != -1) {
+                        result.inserted++;
+                        result.changedDate = dates[i];
+                    }
+                } else {
+                    stored.moveToPosition(position);
+                    if (isStored(stored, batch, i)) {
+                        result.unchanged++;
+                    } else {
+                        bindValues(mUpdateWeather, 1, batch, i);
+                        mUpdateWeather.bindLong(VALUE_COLUMNS.length + 1,
+                                stored.getLong(STORED_ID));
+                        result.updated += mUpdateWeather.executeUpdateDelete();
+                        result.changedDate = dates[i];
+                    }
+                }
+            }
+        } finally {
+            stored.close();
+        }
+        return firstDate;
+    }
+
+    /**
+     * Whether the stored row under the cursor holds exactly the values of day i.  Values are
+     * stored as given, so they compare equal when the forecast has not changed.
+     */
+    private static boolean isStored(Cursor stored, ForecastBatch batch, int i) {
+        int column = STORED_VALUES;
+        return stored.getInt(column++) == batch.getWeatherId(i)
+                && batch.getDescription(i).equals(stored.getString(column++))
+                && stored.getDouble(column++) == batch.getMinTemp(i)
+                && stored.getDouble(column++) == batch.getMaxTemp(i)
+                && stored.getDouble(column++) == batch.getHumidity(i)
+                && stored.getDouble(column++) == batch.getPressure(i)
+                && stored.getDouble(column++) == batch.getWindSpeed(i)
+                && stored.getDouble(column) == batch.getDegrees(i);
+    }
+
+    // Binds the values of day i, in VALUE_COLUMNS order, starting at the given bind index
+    private static void bindValues(SQLiteStatement statement, int index, ForecastBatch batch,
+                                   int i) {
+        statement.bindLong(index++, batch.getWeatherId(i));
+        statement.bindString(index++, batch.getDescription(i));
+        statement.bindDouble(index++, batch.getMinTemp(i));
+        statement.bindDouble(index++, batch.getMaxTemp(i));
+        statement.bindDouble(index++, batch.getHumidity(i));
+        statement.bindDouble(index++, batch.getPressure(i));
+        statement.bindDouble(index++, batch.getWindSpeed(i));
+        statement.bindDouble(index, batch.getDegrees(i));
+    }
+
+    private static String join(String[] values, String separator) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                builder.append(separator);
+            }
+            builder.append(values[i]);
+        }
+        return builder.toString();
+    }
+
+    private SQLiteDatabase getDatabase() {
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        if (db != mDatabase) {
+            close();
+            mDatabase = db;
+            mInsertWeather = db.compileStatement(SQL_INSERT_WEATHER);
+            mUpdateWeather = db.compileStatement(SQL_UPDATE_WEATHER);
+            mDeleteBefore = db.compileStatement(SQL_DELETE_BEFORE);
+        }
+        return db;
+    }
+
+    synchronized void close() {
+        if (mInsertWeather != null) {
+            mInsertWeather.close();
+            mInsertWeather = null;
+        }
+        if (mUpdateWeather != null) {
+            mUpdateWeather.close();
+            mUpdateWeather = null;
+        }
+        if (mDeleteBefore != null) {
+            mDeleteBefore.close();
+            mDeleteBefore = null;
+        }
+        mDatabase = null;
+    }
+}
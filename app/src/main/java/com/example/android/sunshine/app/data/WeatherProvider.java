@@ -17,73 +17,159 @@ package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 public class WeatherProvider extends ContentProvider {
 
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
+    private WeatherIngestor mIngestor;
+    private LocationIdCache mLocationIds;
+    private ForecastCache mCache;
+    private QueryCache mQueryCache;
+    private DatabaseMaintenance mMaintenance;
+    // The notifications of the applyBatch() running on each thread, sent once it commits
+    private final ThreadLocal<PendingChanges> mPendingChanges = new ThreadLocal<PendingChanges>();
+
+    private static final class PendingChanges {
+        final WeatherChanges weather = new WeatherChanges();
+        // Notified as they are, each once
+        final Set<Uri> uris = new LinkedHashSet<Uri>();
+        boolean locationsChanged;
+    }
 
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
+    static final int WEATHER_WITH_LOCATION_AND_RANGE = 103;
     static final int LOCATION = 300;
+    static final int SYNC_TIMING = 400;
 
-    private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    // The hot queries below are package-private so TestQueryPlans can check their plans
+    static final SQLiteQueryBuilder sWeatherWithLocationQueryBuilder;
+    static final SQLiteQueryBuilder sWeatherQueryBuilder;
 
     static{
-        sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
+        sWeatherWithLocationQueryBuilder = new SQLiteQueryBuilder();
         
         //This is an inner join which looks like
         //weather INNER JOIN location ON weather.location_id = location._id
-        sWeatherByLocationSettingQueryBuilder.setTables(
+        sWeatherWithLocationQueryBuilder.setTables(
                 WeatherContract.WeatherEntry.TABLE_NAME + " INNER JOIN " +
                         WeatherContract.LocationEntry.TABLE_NAME +
                         " ON " + WeatherContract.WeatherEntry.TABLE_NAME +
                         "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
                         " = " + WeatherContract.LocationEntry.TABLE_NAME +
                         "." + WeatherContract.LocationEntry._ID);
+
+        sWeatherQueryBuilder = new SQLiteQueryBuilder();
+        sWeatherQueryBuilder.setTables(WeatherContract.WeatherEntry.TABLE_NAME);
     }
 
-    //location.location_setting = ?
-    private static final String sLocationSettingSelection =
-            WeatherContract.LocationEntry.TABLE_NAME+
-                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
+    // The location table's columns, which only the join can return
+    private static final Set<String> sLocationColumns = new HashSet<String>(Arrays.asList(
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherContract.LocationEntry.COLUMN_CITY_NAME,
+            WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG,
+            WeatherContract.LocationEntry.COLUMN_CITY_ID));
 
-    //location.location_setting = ? AND date >= ?
-    private static final String sLocationSettingWithStartDateSelection =
-            WeatherContract.LocationEntry.TABLE_NAME+
-                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+    // The location setting of a weather URI is resolved to its location's id first, so these
+    // select on the weather table alone
+
+    //weather.location_id = ?
+    static final String sLocationIdSelection =
+            WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? ";
+
+    //weather.location_id = ? AND date >= ?
+    static final String sLocationIdWithStartDateSelection =
+            WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
 
-    //location.location_setting = ? AND date = ?
-    private static final String sLocationSettingAndDaySelection =
-            WeatherContract.LocationEntry.TABLE_NAME +
-                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+    //weather.location_id = ? AND date = ?
+    static final String sLocationIdAndDaySelection =
+            WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
 
-    private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
+    //weather.location_id = ? AND date >= ? AND date < ?
+    static final String sLocationIdAndRangeSelection =
+            WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " < ? ";
+
+    /*
+        Serves the weather of a location from the query cache, reading and keeping it on a miss.
+        A setting with no location resolves to -1, which matches no rows and is not kept, since
+        the location may be added at any time.
+     */
+    private Cursor getCachedWeather(int match, Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+        long locationId = mLocationIds.getId(locationSetting);
+        if (locationId == -1) {
+            return getWeather(match, uri, locationId, projection, sortOrder);
+        }
+        QueryCache.Key key = new QueryCache.Key(locationId, uri, projection, sortOrder);
+        Cursor cursor = mQueryCache.get(key);
+        if (cursor == null) {
+            long generation = mQueryCache.getGeneration();
+            cursor = mQueryCache.put(key,
+                    getWeather(match, uri, locationId, projection, sortOrder), generation);
+        }
+        return cursor;
+    }
+
+    private Cursor getWeather(int match, Uri uri, long locationId, String[] projection,
+                              String sortOrder) {
+        if (match == WEATHER_WITH_LOCATION_AND_DATE) {
+            return getWeatherByLocationSettingAndDate(uri, locationId, projection, sortOrder);
+        }
+        if (match == WEATHER_WITH_LOCATION_AND_RANGE) {
+            return getWeatherByLocationSettingAndRange(uri, locationId, projection, sortOrder);
+        }
+        return getWeatherByLocationSetting(uri, locationId, projection, sortOrder);
+    }
+
+    private Cursor getWeatherByLocationSetting(Uri uri, long locationSettingId,
+                                               String[] projection, String sortOrder) {
         long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
+        String locationId = Long.toString(locationSettingId);
 
         String[] selectionArgs;
         String selection;
 
         if (startDate == 0) {
-            selection = sLocationSettingSelection;
-            selectionArgs = new String[]{locationSetting};
+            selection = sLocationIdSelection;
+            selectionArgs = new String[]{locationId};
         } else {
-            selectionArgs = new String[]{locationSetting, Long.toString(startDate)};
-            selection = sLocationSettingWithStartDateSelection;
+            selectionArgs = new String[]{locationId, Long.toString(startDate)};
+            selection = sLocationIdWithStartDateSelection;
         }
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+        return getWeatherQueryBuilder(projection).query(mOpenHelper.getReadableDatabase(),
                 projection,
                 selection,
                 selectionArgs,
@@ -94,20 +180,66 @@ public class WeatherProvider extends ContentProvider {
     }
 
     private Cursor getWeatherByLocationSettingAndDate(
-            Uri uri, String[] projection, String sortOrder) {
-        String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+            Uri uri, long locationSettingId, String[] projection, String sortOrder) {
         long date = WeatherContract.WeatherEntry.getDateFromUri(uri);
+        String locationId = Long.toString(locationSettingId);
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+        return getWeatherQueryBuilder(projection).query(mOpenHelper.getReadableDatabase(),
                 projection,
-                sLocationSettingAndDaySelection,
-                new String[]{locationSetting, Long.toString(date)},
+                sLocationIdAndDaySelection,
+                new String[]{locationId, Long.toString(date)},
                 null,
                 null,
                 sortOrder
         );
     }
 
+    /*
+        Both bounds of the range are on the (location_id, date) index, and its rows come out of
+        it in date order, so the scan stops at the end date, or after limit rows, without
+        sorting what it read.
+     */
+    private Cursor getWeatherByLocationSettingAndRange(
+            Uri uri, long locationSettingId, String[] projection, String sortOrder) {
+        int limit = WeatherContract.WeatherEntry.getLimitFromUri(uri);
+        int offset = WeatherContract.WeatherEntry.getOffsetFromUri(uri);
+        String limitClause = null;
+        if (limit > 0 || offset > 0) {
+            // SQLite needs a limit to take an offset
+            limitClause = offset + ", " + (limit > 0 ? limit : Long.MAX_VALUE);
+        }
+        if (sortOrder == null) {
+            // Pages follow the dates
+            sortOrder = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
+        }
+
+        return getWeatherQueryBuilder(projection).query(mOpenHelper.getReadableDatabase(),
+                projection,
+                sLocationIdAndRangeSelection,
+                new String[]{Long.toString(locationSettingId),
+                        Long.toString(WeatherContract.WeatherEntry.getRangeStartFromUri(uri)),
+                        Long.toString(WeatherContract.WeatherEntry.getRangeEndFromUri(uri))},
+                null,
+                null,
+                sortOrder,
+                limitClause
+        );
+    }
+
+    // Joins the location table only for projections that ask for its columns
+    static SQLiteQueryBuilder getWeatherQueryBuilder(String[] projection) {
+        if (projection == null) {
+            return sWeatherWithLocationQueryBuilder;
+        }
+        String locationPrefix = WeatherContract.LocationEntry.TABLE_NAME + ".";
+        for (String column : projection) {
+            if (column.startsWith(locationPrefix) || sLocationColumns.contains(column)) {
+                return sWeatherWithLocationQueryBuilder;
+            }
+        }
+        return sWeatherQueryBuilder;
+    }
+
     /*
         Students: Here is where you need to create the UriMatcher. This UriMatcher will
         match each URI to the WEATHER, WEATHER_WITH_LOCATION, WEATHER_WITH_LOCATION_AND_DATE,
@@ -128,8 +260,12 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER, WEATHER);
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*", WEATHER_WITH_LOCATION);
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/" +
+                WeatherContract.PATH_RANGE + "/#/#", WEATHER_WITH_LOCATION_AND_RANGE);
 
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+
+        matcher.addURI(authority, WeatherContract.PATH_SYNC_TIMING, SYNC_TIMING);
         return matcher;
     }
 
@@ -140,6 +276,11 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public boolean onCreate() {
         mOpenHelper = new WeatherDbHelper(getContext());
+        mIngestor = new WeatherIngestor(mOpenHelper);
+        mLocationIds = new LocationIdCache(mOpenHelper);
+        mCache = new ForecastCache(mOpenHelper, mLocationIds);
+        mQueryCache = new QueryCache();
+        mMaintenance = new DatabaseMaintenance(mOpenHelper);
         return true;
     }
 
@@ -160,10 +301,14 @@ public class WeatherProvider extends ContentProvider {
                 return WeatherContract.WeatherEntry.CONTENT_ITEM_TYPE;
             case WEATHER_WITH_LOCATION:
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
+            case WEATHER_WITH_LOCATION_AND_RANGE:
+                return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case WEATHER:
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case SYNC_TIMING:
+                return WeatherContract.SyncTimingEntry.CONTENT_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -175,16 +320,23 @@ public class WeatherProvider extends ContentProvider {
         // Here's the switch statement that, given a URI, will determine what kind of request it is,
         // and query the database accordingly.
         Cursor retCursor;
-        switch (sUriMatcher.match(uri)) {
+        final int match = sUriMatcher.match(uri);
+        switch (match) {
+            // "weather/*/range/*/*"
+            case WEATHER_WITH_LOCATION_AND_RANGE: {
+                retCursor = getCachedWeather(match, uri, projection, sortOrder);
+                // Writes notify a single changed day on that day's uri, which doesn't reach
+                // observers of the range's own; the location's uri is notified either way
+                retCursor.setNotificationUri(getContext().getContentResolver(),
+                        WeatherContract.WeatherEntry.buildWeatherLocation(
+                                WeatherContract.WeatherEntry.getLocationSettingFromUri(uri)));
+                return retCursor;
+            }
             // "weather/*/*"
             case WEATHER_WITH_LOCATION_AND_DATE:
-            {
-                retCursor = getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
-                break;
-            }
             // "weather/*"
             case WEATHER_WITH_LOCATION: {
-                retCursor = getWeatherByLocationSetting(uri, projection, sortOrder);
+                retCursor = getCachedWeather(match, uri, projection, sortOrder);
                 break;
             }
             // "weather"
@@ -213,6 +365,19 @@ public class WeatherProvider extends ContentProvider {
                 );
                 break;
             }
+            // "sync_timing"
+            case SYNC_TIMING: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.SyncTimingEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
@@ -229,6 +394,7 @@ public class WeatherProvider extends ContentProvider {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         Uri returnUri;
+        WeatherChanges changes = null;
 
         switch (match) {
             case WEATHER: {
@@ -238,10 +404,30 @@ public class WeatherProvider extends ContentProvider {
                     returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
+                changes = new WeatherChanges();
+                addInsertedRow(changes, values);
                 break;
             }
             case LOCATION: {
-                long _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
+                // An upsert: a setting that is already stored has its row updated with the
+                // values, and that row's uri is returned as if it had just been inserted
+                String locationSetting =
+                        values.getAsString(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+                long _id = locationSetting != null ? mLocationIds.getId(locationSetting) : -1;
+                if (_id <= 0) {
+                    _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
+                    if (_id <= 0 && locationSetting != null) {
+                        // Inserted by someone else since the lookup
+                        _id = mLocationIds.getId(locationSetting);
+                        if (_id > 0) {
+                            updateLocation(db, _id, values);
+                            invalidateLocations();
+                        }
+                    }
+                } else {
+                    updateLocation(db, _id, values);
+                    invalidateLocations();
+                }
                 if ( _id > 0 )
                     returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
                 else
@@ -251,7 +437,12 @@ public class WeatherProvider extends ContentProvider {
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        mCache.invalidateAll();
+        if (changes != null) {
+            notifyChanges(changes);
+        } else {
+            notifyChange(uri);
+        }
         return returnUri;
     }
 
@@ -260,27 +451,170 @@ public class WeatherProvider extends ContentProvider {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         int rowsDeleted;
+        WeatherChanges changes = null;
         // this makes delete all rows return the number of rows deleted
         if ( null == selection ) selection = "1";
         switch (match) {
             case WEATHER:
-                rowsDeleted = db.delete(
-                        WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                changes = new WeatherChanges();
+                db.beginTransaction();
+                try {
+                    addSelectedRows(db, changes, selection, selectionArgs);
+                    rowsDeleted = db.delete(
+                            WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
                 break;
             case LOCATION:
                 rowsDeleted = db.delete(
                         WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
                 break;
+            case SYNC_TIMING:
+                rowsDeleted = db.delete(
+                        WeatherContract.SyncTimingEntry.TABLE_NAME, selection, selectionArgs);
+                break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            if (match == LOCATION) {
+                invalidateLocations();
+            }
+            if (match != SYNC_TIMING) {
+                mCache.invalidateAll();
+            }
+            if (changes != null) {
+                notifyChanges(changes);
+            } else {
+                notifyChange(uri);
+            }
         }
         return rowsDeleted;
     }
 
+    // Records the day of a weather row about to be inserted
+    private static void addInsertedRow(WeatherChanges changes, ContentValues values) {
+        Long locationId = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+        Long date = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+        if (locationId != null && date != null) {
+            changes.addDay(locationId, date);
+        } else {
+            changes.addAll();
+        }
+    }
+
+    /*
+        Records the days of the weather rows a selection matches, before they are written.  Must
+        be called in the transaction of the write, so no other write can change the rows between.
+     */
+    private static void addSelectedRows(SQLiteDatabase db, WeatherChanges changes,
+                                        String selection, String[] selectionArgs) {
+        if (selection == null || "1".equals(selection)) {
+            // Every row, which is no use to read
+            changes.addAll();
+            return;
+        }
+        Cursor cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+                        WeatherContract.WeatherEntry.COLUMN_DATE},
+                selection, selectionArgs, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                changes.addDay(cursor.getLong(0), cursor.getLong(1));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /*
+        Drops the cached queries of the changed weather rows' locations, then notifies their
+        observers, and no others.  Inside applyBatch() the notifications wait for the commit.
+     */
+    private void notifyChanges(WeatherChanges changes) {
+        changes.invalidate(mQueryCache);
+        PendingChanges pending = mPendingChanges.get();
+        if (pending != null) {
+            pending.weather.add(changes);
+            return;
+        }
+        for (Uri uri : changes.getUris(mLocationIds)) {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
+    private void notifyChange(Uri uri) {
+        PendingChanges pending = mPendingChanges.get();
+        if (pending != null) {
+            pending.uris.add(uri);
+        } else {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
+    // Overwrites the stored row of a location with the values inserted for its setting
+    private static int updateLocation(SQLiteDatabase db, long locationId, ContentValues values) {
+        ContentValues update = new ContentValues(values);
+        update.remove(WeatherContract.LocationEntry._ID);
+        return db.update(WeatherContract.LocationEntry.TABLE_NAME, update,
+                WeatherContract.LocationEntry._ID + " = ?",
+                new String[]{Long.toString(locationId)});
+    }
+
+    // Forgets everything cached by location, after locations were updated or deleted
+    private void invalidateLocations() {
+        mLocationIds.invalidateAll();
+        mQueryCache.invalidateAll();
+        PendingChanges pending = mPendingChanges.get();
+        if (pending != null) {
+            pending.locationsChanged = true;
+        }
+    }
+
+    /**
+     * Applies the operations in a single transaction, so a batch costs one commit, and sends
+     * their notifications once it is committed, each uri once.  Back-references, such as a
+     * weather row's location_id taken from the location inserted before it, resolve as usual.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        PendingChanges pending = new PendingChanges();
+        boolean committed = false;
+        mPendingChanges.set(pending);
+        db.beginTransaction();
+        try {
+            ContentProviderResult[] results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+            committed = true;
+            return results;
+        } finally {
+            db.endTransaction();
+            mPendingChanges.remove();
+            // The operations invalidated the caches before the commit, when other threads could
+            // still read and cache the old rows, so that is done again now
+            if (!committed || pending.locationsChanged) {
+                mLocationIds.invalidateAll();
+                mQueryCache.invalidateAll();
+            } else {
+                pending.weather.invalidate(mQueryCache);
+            }
+            mCache.invalidateAll();
+            if (committed) {
+                for (Uri uri : pending.weather.getUris(mLocationIds)) {
+                    getContext().getContentResolver().notifyChange(uri, null);
+                }
+                for (Uri uri : pending.uris) {
+                    getContext().getContentResolver().notifyChange(uri, null);
+                }
+            }
+        }
+    }
+
     private void normalizeDate(ContentValues values) {
         // normalize the date value
         if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
@@ -295,12 +629,27 @@ public class WeatherProvider extends ContentProvider {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         int rowsUpdated;
+        WeatherChanges changes = null;
 
         switch (match) {
             case WEATHER:
                 normalizeDate(values);
-                rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
+                changes = new WeatherChanges();
+                db.beginTransaction();
+                try {
+                    if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_LOC_KEY) ||
+                            values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
+                        // Rows that move to other days touch those too
+                        changes.addAll();
+                    } else {
+                        addSelectedRows(db, changes, selection, selectionArgs);
+                    }
+                    rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values,
+                            selection, selectionArgs);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
                 break;
             case LOCATION:
                 rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
@@ -310,7 +659,15 @@ public class WeatherProvider extends ContentProvider {
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            if (match == LOCATION) {
+                invalidateLocations();
+            }
+            mCache.invalidateAll();
+            if (changes != null) {
+                notifyChanges(changes);
+            } else {
+                notifyChange(uri);
+            }
         }
         return rowsUpdated;
     }
@@ -323,31 +680,350 @@ public class WeatherProvider extends ContentProvider {
             case WEATHER:
                 db.beginTransaction();
                 int returnCount = 0;
+                WeatherChanges changes = new WeatherChanges();
                 try {
                     for (ContentValues value : values) {
                         normalizeDate(value);
                         long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
                         if (_id != -1) {
                             returnCount++;
+                            addInsertedRow(changes, value);
                         }
                     }
                     db.setTransactionSuccessful();
                 } finally {
                     db.endTransaction();
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
+                mCache.invalidateAll();
+                // Once for the whole transaction
+                notifyChanges(changes);
                 return returnCount;
+            case LOCATION:
+                // Every row resolves to a location, inserted or updated
+                insertLocations(values, new long[values.length]);
+                return values.length;
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    /*
+        Upserts the locations like insert() does, all in one transaction with one notification:
+        a setting that is already stored, or that an earlier row of the same call inserted, has
+        its row updated with the values.  Each row's location id is stored into ids, at its
+        index.
+
+        Returns how many locations were inserted and updated.
+     */
+    private WeatherIngestor.Result insertLocations(ContentValues[] values, long[] ids) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        WeatherIngestor.Result result;
+        db.beginTransaction();
+        try {
+            result = writeLocations(db, values, ids);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        onLocationsWritten(result);
+        return result;
+    }
+
+    /*
+        The upserts of insertLocations(), which must be called inside a transaction, without
+        its notification.  Null values are skipped, leaving their ids as they are.  The lookups
+        go through a statement in the transaction rather than mLocationIds, which must not
+        remember ids a rollback could take back.
+     */
+    private static WeatherIngestor.Result writeLocations(SQLiteDatabase db,
+                                                         ContentValues[] values, long[] ids) {
+        WeatherIngestor.Result result = new WeatherIngestor.Result();
+        SQLiteStatement queryId = db.compileStatement("SELECT " +
+                WeatherContract.LocationEntry._ID + " FROM " +
+                WeatherContract.LocationEntry.TABLE_NAME + " WHERE " +
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?");
+        try {
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] == null) {
+                    continue;
+                }
+                String locationSetting =
+                        values[i].getAsString(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+                long _id = -1;
+                if (locationSetting != null) {
+                    queryId.bindString(1, locationSetting);
+                    try {
+                        _id = queryId.simpleQueryForLong();
+                    } catch (SQLiteDoneException e) {
+                        // Not stored yet
+                    }
+                }
+                if (_id <= 0) {
+                    _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values[i]);
+                    if (_id <= 0) {
+                        throw new android.database.SQLException("Failed to insert row into " +
+                                WeatherContract.LocationEntry.CONTENT_URI);
+                    }
+                    result.inserted++;
+                } else {
+                    result.updated += updateLocation(db, _id, values[i]);
+                }
+                ids[i] = _id;
+            }
+        } finally {
+            queryId.close();
+        }
+        return result;
+    }
+
+    // Invalidates and notifies for locations written by a committed writeLocations()
+    private void onLocationsWritten(WeatherIngestor.Result written) {
+        if (written.updated > 0) {
+            invalidateLocations();
+        }
+        if (written.hasChanges()) {
+            mCache.invalidateAll();
+            notifyChange(WeatherContract.LocationEntry.CONTENT_URI);
+        }
+    }
+
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (WeatherContract.METHOD_INGEST_FORECAST.equals(method)) {
+            ForecastBatch batch = ForecastBatch.fromBundle(extras);
+            WeatherIngestor.Result inserted = mIngestor.insert(batch);
+            if (inserted.hasChanges()) {
+                mCache.invalidateAll();
+                WeatherChanges changes = new WeatherChanges();
+                changes.add(batch.getLocationId(), inserted);
+                notifyChanges(changes);
+            }
+            return toBundle(inserted);
+        }
+        if (WeatherContract.METHOD_REPLACE_FORECAST.equals(method)) {
+            ForecastBatch batch = ForecastBatch.fromBundle(extras);
+            WeatherIngestor.Result replaced = mIngestor.replace(batch, getRetentionDays(extras));
+            if (replaced.hasChanges()) {
+                if (arg != null) {
+                    mCache.invalidate(arg);
+                } else {
+                    mCache.invalidateAll();
+                }
+                // Scoped to the location whose window was replaced, or to its one changed day
+                WeatherChanges changes = new WeatherChanges();
+                changes.add(batch.getLocationId(), replaced);
+                notifyChanges(changes);
+            }
+            return toBundle(replaced);
+        }
+        if (WeatherContract.METHOD_REPLACE_FORECASTS.equals(method)) {
+            ArrayList<Bundle> bundles = extras.getParcelableArrayList(WeatherContract.EXTRA_BATCHES);
+            ForecastBatch[] batches = new ForecastBatch[bundles.size()];
+            // The locations stored along with the batches, by the indices of their batches
+            ContentValues[] locations = new ContentValues[batches.length];
+            long[] ids = new long[batches.length];
+            for (int i = 0; i < batches.length; i++) {
+                batches[i] = ForecastBatch.fromBundle(bundles.get(i));
+                locations[i] = bundles.get(i).getParcelable(WeatherContract.EXTRA_LOCATION);
+                ids[i] = batches[i].getLocationId();
+            }
+            int retentionDays = getRetentionDays(extras);
+
+            // The locations and forecasts are committed together.  The ingestor is locked
+            // before the transaction is begun, in the order of its own writes
+            final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+            WeatherIngestor.Result locationsWritten;
+            WeatherIngestor.Result[] replaced;
+            synchronized (mIngestor) {
+                db.beginTransaction();
+                try {
+                    locationsWritten = writeLocations(db, locations, ids);
+                    for (int i = 0; i < batches.length; i++) {
+                        batches[i].setLocationId(ids[i]);
+                    }
+                    replaced = mIngestor.replace(batches, retentionDays);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+            }
+            onLocationsWritten(locationsWritten);
+
+            WeatherIngestor.Result total = new WeatherIngestor.Result();
+            WeatherChanges changes = new WeatherChanges();
+            for (int i = 0; i < batches.length; i++) {
+                total.inserted += replaced[i].inserted;
+                total.updated += replaced[i].updated;
+                total.unchanged += replaced[i].unchanged;
+                total.deleted += replaced[i].deleted;
+                total.trimNanos += replaced[i].trimNanos;
+                if (replaced[i].hasChanges()) {
+                    String locationSetting = batches[i].getLocationSetting();
+                    if (locationSetting != null) {
+                        mCache.invalidate(locationSetting);
+                    } else {
+                        mCache.invalidateAll();
+                    }
+                    changes.add(batches[i].getLocationId(), replaced[i]);
+                }
+            }
+            // Once the transaction of every batch is done
+            notifyChanges(changes);
+            Bundle result = toBundle(total);
+            result.putLongArray(WeatherContract.EXTRA_LOCATION_IDS, ids);
+            return result;
+        }
+        if (WeatherContract.METHOD_GET_TODAY.equals(method)) {
+            long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+            return getRange(arg, today, 1);
+        }
+        if (WeatherContract.METHOD_GET_RANGE.equals(method)) {
+            if (extras == null || !extras.containsKey(WeatherContract.EXTRA_START_DATE) ||
+                    !extras.containsKey(WeatherContract.EXTRA_DAY_COUNT)) {
+                throw new IllegalArgumentException("Extras do not hold " +
+                        WeatherContract.EXTRA_START_DATE + " and " +
+                        WeatherContract.EXTRA_DAY_COUNT);
+            }
+            long startDate = WeatherContract.normalizeDate(
+                    extras.getLong(WeatherContract.EXTRA_START_DATE));
+            return getRange(arg, startDate, extras.getInt(WeatherContract.EXTRA_DAY_COUNT));
+        }
+        if (WeatherContract.METHOD_CHECKPOINT.equals(method)) {
+            mOpenHelper.checkpoint();
+            return null;
+        }
+        if (WeatherContract.METHOD_INSERT_LOCATIONS.equals(method)) {
+            ArrayList<ContentValues> locations =
+                    extras.getParcelableArrayList(WeatherContract.EXTRA_LOCATIONS);
+            long[] ids = new long[locations.size()];
+            WeatherIngestor.Result written =
+                    insertLocations(locations.toArray(new ContentValues[ids.length]), ids);
+            Bundle result = new Bundle();
+            result.putLongArray(WeatherContract.EXTRA_LOCATION_IDS, ids);
+            result.putInt(WeatherContract.EXTRA_ROW_COUNT, written.inserted);
+            result.putInt(WeatherContract.EXTRA_UPDATED_COUNT, written.updated);
+            return result;
+        }
+        if (WeatherContract.METHOD_MAINTAIN.equals(method)) {
+            DatabaseMaintenance.Result maintained = mMaintenance.run(
+                    DatabaseMaintenance.getRetention(getRetentionDays(extras)),
+                    System.currentTimeMillis());
+            if (maintained.deleted > 0) {
+                mCache.invalidateAll();
+                WeatherChanges changes = new WeatherChanges();
+                changes.addAll();
+                notifyChanges(changes);
+            }
+            Bundle result = mMaintenance.getStats().toBundle();
+            result.putInt(WeatherContract.EXTRA_DELETED_COUNT, maintained.deleted);
+            result.putLong(WeatherContract.EXTRA_VACUUMED_PAGES, maintained.vacuumedPages);
+            return result;
+        }
+        if (WeatherContract.METHOD_GET_DATABASE_STATS.equals(method)) {
+            return mMaintenance.getStats().toBundle();
+        }
+        if (WeatherContract.METHOD_RECORD_TIMINGS.equals(method)) {
+            recordTimings(extras);
+            notifyChange(WeatherContract.SyncTimingEntry.CONTENT_URI);
+            return null;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    private Bundle getRange(String locationSetting, long startDate, int count) {
+        // Taken first, so a write racing the read leaves the result looking older, not newer
+        long generation = mCache.getGeneration();
+        Bundle result = mCache.getRange(locationSetting, startDate, count).toBundle();
+        result.putLong(WeatherContract.EXTRA_GENERATION, generation);
+        return result;
+    }
+
+    private static int getRetentionDays(Bundle extras) {
+        if (extras == null) {
+            return WeatherContract.DEFAULT_RETENTION_DAYS;
+        }
+        int days = extras.getInt(WeatherContract.EXTRA_RETENTION_DAYS,
+                WeatherContract.DEFAULT_RETENTION_DAYS);
+        if (days < 0) {
+            throw new IllegalArgumentException("Negative " +
+                    WeatherContract.EXTRA_RETENTION_DAYS + ": " + days);
+        }
+        return days;
+    }
+
+    private static Bundle toBundle(WeatherIngestor.Result written) {
+        Bundle result = new Bundle();
+        result.putInt(WeatherContract.EXTRA_ROW_COUNT, written.inserted);
+        result.putInt(WeatherContract.EXTRA_UPDATED_COUNT, written.updated);
+        result.putInt(WeatherContract.EXTRA_UNCHANGED_COUNT, written.unchanged);
+        result.putInt(WeatherContract.EXTRA_DELETED_COUNT, written.deleted);
+        result.putLong(WeatherContract.EXTRA_TRIM_NANOS, written.trimNanos);
+        return result;
+    }
+
+    /*
+        Adds the bucket counts of each stage in the extras to the stored ones, in one
+        transaction.  A bucket's row is created the first time one of its counts is added.
+     */
+    private void recordTimings(Bundle extras) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final long[] bounds = WeatherContract.SyncTimingEntry.BUCKET_BOUNDS;
+        SQLiteStatement increment = db.compileStatement("UPDATE " +
+                WeatherContract.SyncTimingEntry.TABLE_NAME + " SET " +
+                WeatherContract.SyncTimingEntry.COLUMN_COUNT + " = " +
+                WeatherContract.SyncTimingEntry.COLUMN_COUNT + " + ? WHERE " +
+                WeatherContract.SyncTimingEntry.COLUMN_STAGE + " = ? AND " +
+                WeatherContract.SyncTimingEntry.COLUMN_BUCKET + " = ?");
+        SQLiteStatement insert = db.compileStatement("INSERT INTO " +
+                WeatherContract.SyncTimingEntry.TABLE_NAME + " (" +
+                WeatherContract.SyncTimingEntry.COLUMN_COUNT + ", " +
+                WeatherContract.SyncTimingEntry.COLUMN_STAGE + ", " +
+                WeatherContract.SyncTimingEntry.COLUMN_BUCKET + ") VALUES (?, ?, ?)");
+        db.beginTransaction();
+        try {
+            for (String stage : extras.keySet()) {
+                long[] counts = extras.getLongArray(stage);
+                if (counts == null) {
+                    continue;
+                }
+                for (int i = 0; i < counts.length && i < bounds.length; i++) {
+                    if (counts[i] == 0) {
+                        continue;
+                    }
+                    increment.bindLong(1, counts[i]);
+                    increment.bindString(2, stage);
+                    increment.bindLong(3, bounds[i]);
+                    if (increment.executeUpdateDelete() == 0) {
+                        insert.bindLong(1, counts[i]);
+                        insert.bindString(2, stage);
+                        insert.bindLong(3, bounds[i]);
+                        insert.executeInsert();
+                    }
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            increment.close();
+            insert.close();
+        }
+    }
+
+    // "adb shell dumpsys activity provider WeatherProvider" prints how well the cache does,
+    // and how large the database is
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        writer.println(mQueryCache);
+        writer.println(mMaintenance.getStats());
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
     @Override
     @TargetApi(11)
     public void shutdown() {
+        mIngestor.close();
         mOpenHelper.close();
         super.shutdown();
     }
@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.support.annotation.IntDef;
+import android.util.Log;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stops syncs from requesting forecasts from an endpoint that keeps failing.
+ *
+ * The breaker starts closed, letting every request through.  After
+ * {@link #FAILURE_THRESHOLD} failed requests in a row it opens, and rejects requests without
+ * making them for {@link #OPEN_MILLIS}, doubling for every time in a row it has to open again.
+ * Once that has passed it is half-open: one trial request goes through, and closes it again if
+ * it succeeds or reopens it if it fails.  Its state is kept in shared preferences, so a
+ * restarted process does not start hammering a dead endpoint again.
+ */
+public class CircuitBreaker {
+    public static final String LOG_TAG = CircuitBreaker.class.getSimpleName();
+
+    private static final String PREFS_NAME = "circuit_breaker";
+    private static final String KEY_STATE = ".state";
+    private static final String KEY_FAILURES = ".failures";
+    private static final String KEY_OPENED_AT = ".opened_at";
+    private static final String KEY_CONSECUTIVE_TRIPS = ".consecutive_trips";
+    private static final String KEY_RETRIES = ".retries";
+    private static final String KEY_TRIPS = ".trips";
+    private static final String KEY_REJECTED = ".rejected";
+
+    // Failed requests in a row that open the breaker
+    static final int FAILURE_THRESHOLD = 5;
+    // How long the breaker first stays open
+    static final long OPEN_MILLIS = 5 * 60 * 1000;
+    // The longest it stays open, however often it reopens
+    static final long MAX_OPEN_MILLIS = 60 * 60 * 1000;
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({STATE_CLOSED, STATE_OPEN, STATE_HALF_OPEN})
+    public @interface State {}
+
+    public static final int STATE_CLOSED = 0;
+    public static final int STATE_OPEN = 1;
+    public static final int STATE_HALF_OPEN = 2;
+
+    private static final Map<String, CircuitBreaker> sInstances =
+            new HashMap<String, CircuitBreaker>();
+
+    private final SharedPreferences mPreferences;
+    private final String mEndpoint;
+
+    @State private int mState;
+    private int mFailures;
+    private long mOpenedAt;
+    private int mConsecutiveTrips;
+    // Whether the trial request of the half-open state has been let through
+    private boolean mTrialInFlight;
+
+    // Metrics, since the app was installed
+    private int mRetries;
+    private int mTrips;
+    private int mRejected;
+
+    CircuitBreaker(SharedPreferences preferences, String endpoint) {
+        mPreferences = preferences;
+        mEndpoint = endpoint;
+        //noinspection ResourceType
+        mState = preferences.getInt(endpoint + KEY_STATE, STATE_CLOSED);
+        mFailures = preferences.getInt(endpoint + KEY_FAILURES, 0);
+        mOpenedAt = preferences.getLong(endpoint + KEY_OPENED_AT, 0);
+        mConsecutiveTrips = preferences.getInt(endpoint + KEY_CONSECUTIVE_TRIPS, 0);
+        mRetries = preferences.getInt(endpoint + KEY_RETRIES, 0);
+        mTrips = preferences.getInt(endpoint + KEY_TRIPS, 0);
+        mRejected = preferences.getInt(endpoint + KEY_REJECTED, 0);
+    }
+
+    /**
+     * Returns the breaker of the host a forecast base URL points at.
+     */
+    public static CircuitBreaker getInstance(Context context, String baseUrl) {
+        String endpoint = Uri.parse(baseUrl).getAuthority();
+        synchronized (sInstances) {
+            CircuitBreaker breaker = sInstances.get(endpoint);
+            if (breaker == null) {
+                breaker = new CircuitBreaker(context.getApplicationContext()
+                        .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE), endpoint);
+                sInstances.put(endpoint, breaker);
+            }
+            return breaker;
+        }
+    }
+
+    /**
+     * Whether a request may be made now.  A request let through must be followed by a call to
+     * {@link #onSuccess()} or {@link #onFailure()}.
+     */
+    public boolean allowRequest() {
+        return allowRequest(System.currentTimeMillis());
+    }
+
+    synchronized boolean allowRequest(long now) {
+        if (mState == STATE_OPEN && now - mOpenedAt >= getOpenMillis()) {
+            Log.d(LOG_TAG, mEndpoint + " half-open");
+            mState = STATE_HALF_OPEN;
+            mTrialInFlight = false;
+        }
+        boolean allowed = mState == STATE_CLOSED ||
+                (mState == STATE_HALF_OPEN && !mTrialInFlight);
+        if (mState == STATE_HALF_OPEN && allowed) {
+            mTrialInFlight = true;
+        }
+        if (!allowed) {
+            mRejected++;
+        }
+        save();
+        return allowed;
+    }
+
+    public synchronized void onSuccess() {
+        if (mState != STATE_CLOSED) {
+            Log.d(LOG_TAG, mEndpoint + " closed");
+        }
+        mState = STATE_CLOSED;
+        mFailures = 0;
+        mConsecutiveTrips = 0;
+        mTrialInFlight = false;
+        save();
+    }
+
+    public void onFailure() {
+        onFailure(System.currentTimeMillis());
+    }
+
+    synchronized void onFailure(long now) {
+        mFailures++;
+        if (mState == STATE_HALF_OPEN || mFailures >= FAILURE_THRESHOLD) {
+            if (mState != STATE_OPEN) {
+                mConsecutiveTrips++;
+                mTrips++;
+            }
+            mState = STATE_OPEN;
+            mOpenedAt = now;
+            mTrialInFlight = false;
+            Log.w(LOG_TAG, mEndpoint + " open for " + getOpenMillis() / 1000 + "s after " +
+                    mFailures + " failures");
+        }
+        save();
+    }
+
+    /**
+     * Counts a request that is about to be made again after failing.
+     */
+    public synchronized void onRetry() {
+        mRetries++;
+        save();
+    }
+
+    @State
+    public synchronized int getState() {
+        return mState;
+    }
+
+    /**
+     * Failed requests since the last one that succeeded.
+     */
+    public synchronized int getFailureCount() {
+        return mFailures;
+    }
+
+    public synchronized int getRetryCount() {
+        return mRetries;
+    }
+
+    public synchronized int getTripCount() {
+        return mTrips;
+    }
+
+    public synchronized int getRejectedCount() {
+        return mRejected;
+    }
+
+    /**
+     * The breaker's state and metrics on one line, e.g.
+     * "api.openweathermap.org: closed, 0 failures, 3 retries, 1 trips, 4 rejected".
+     */
+    public synchronized String describe() {
+        String state = mState == STATE_CLOSED ? "closed"
+                : mState == STATE_OPEN ? "open" : "half-open";
+        return mEndpoint + ": " + state + ", " + mFailures + " failures, " + mRetries +
+                " retries, " + mTrips + " trips, " + mRejected + " rejected";
+    }
+
+    // How long the breaker stays open this time
+    private long getOpenMillis() {
+        int doublings = Math.max(0, Math.min(mConsecutiveTrips - 1, 10));
+        return Math.min(MAX_OPEN_MILLIS, OPEN_MILLIS << doublings);
+    }
+
+    private void save() {
+        mPreferences.edit()
+                .putInt(mEndpoint + KEY_STATE, mState)
+                .putInt(mEndpoint + KEY_FAILURES, mFailures)
+                .putLong(mEndpoint + KEY_OPENED_AT, mOpenedAt)
+                .putInt(mEndpoint + KEY_CONSECUTIVE_TRIPS, mConsecutiveTrips)
+                .putInt(mEndpoint + KEY_RETRIES, mRetries)
+                .putInt(mEndpoint + KEY_TRIPS, mTrips)
+                .putInt(mEndpoint + KEY_REJECTED, mRejected)
+                .apply();
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.database.Cursor;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * The locations one forecast request is made for: every tracked location setting that OWM
+ * resolved to the same city, or a single setting whose city is not known yet.
+ *
+ * OWM's multi-city "group" endpoint only serves current weather, not daily forecasts, so
+ * locations are batched where they actually share a response: "94043", "Mountain View,US"
+ * and "mountain view" all resolve to one city and are fetched once, by its id, and the parsed
+ * days are stored under each of their {@link
+ * com.example.android.sunshine.app.data.WeatherContract.LocationEntry#_ID}s.
+ */
+class FetchGroup {
+    // Prefix of the validators key of a city, which cannot clash with a location setting
+    // since OWM never resolves a query starting with it
+    private static final String CITY_KEY_PREFIX = "#city:";
+
+    // OWM's id for the city, or 0 if the location has not been resolved yet
+    final long cityId;
+    // location setting -> location row id, or -1 if it has not been added to the database
+    final LinkedHashMap<String, Long> locations = new LinkedHashMap<String, Long>();
+
+    FetchGroup(long cityId) {
+        this.cityId = cityId;
+    }
+
+    /**
+     * The key the cache validators of this request are stored under.
+     */
+    String getValidatorsKey() {
+        return cityId > 0 ? CITY_KEY_PREFIX + cityId : locations.keySet().iterator().next();
+    }
+
+    boolean contains(String locationSetting) {
+        return locations.containsKey(locationSetting);
+    }
+
+    int fetch(ForecastFetcher fetcher, ForecastValidators validators,
+              ForecastParser.Handler handler) throws IOException, JSONException {
+        if (cityId > 0) {
+            return fetcher.fetch(cityId, validators, handler);
+        }
+        return fetcher.fetch(locations.keySet().iterator().next(), validators, handler);
+    }
+
+    /**
+     * Groups the tracked locations by city.  The preferred location comes first, in a group
+     * of its own if it is not tracked yet.
+     *
+     * @param preferredLocation the location setting on screen
+     * @param cursor rows of location _ID, location setting and city id, in that order; may be
+     *               null.  It is not closed.
+     */
+    static List<FetchGroup> group(String preferredLocation, Cursor cursor) {
+        LinkedHashMap<Long, FetchGroup> byCity = new LinkedHashMap<Long, FetchGroup>();
+        ArrayList<FetchGroup> unresolved = new ArrayList<FetchGroup>();
+        FetchGroup preferred = null;
+
+        if (cursor != null) {
+            while (cursor.moveToNext()) {
+                long locationId = cursor.getLong(0);
+                String locationSetting = cursor.getString(1);
+                long cityId = cursor.isNull(2) ? 0 : cursor.getLong(2);
+
+                FetchGroup group;
+                if (cityId > 0) {
+                    group = byCity.get(cityId);
+                    if (group == null) {
+                        group = new FetchGroup(cityId);
+                        byCity.put(cityId, group);
+                    }
+                } else {
+                    group = new FetchGroup(0);
+                    unresolved.add(group);
+                }
+                group.locations.put(locationSetting, locationId);
+                if (locationSetting.equals(preferredLocation)) {
+                    preferred = group;
+                }
+            }
+        }
+        if (preferred == null) {
+            preferred = new FetchGroup(0);
+            preferred.locations.put(preferredLocation, -1L);
+        }
+
+        ArrayList<FetchGroup> groups = new ArrayList<FetchGroup>();
+        groups.add(preferred);
+        for (FetchGroup group : byCity.values()) {
+            if (group != preferred) {
+                groups.add(group);
+            }
+        }
+        for (FetchGroup group : unresolved) {
+            if (group != preferred) {
+                groups.add(group);
+            }
+        }
+        return groups;
+    }
+
+    /**
+     * Keeps the groups holding one of the requested locations, in order, and adds a group of
+     * its own for each requested location that is in none of them.
+     */
+    static List<FetchGroup> select(List<FetchGroup> groups, Collection<String> requested) {
+        LinkedHashSet<String> missing = new LinkedHashSet<String>(requested);
+        ArrayList<FetchGroup> selected = new ArrayList<FetchGroup>();
+        for (FetchGroup group : groups) {
+            if (missing.removeAll(group.locations.keySet())) {
+                selected.add(group);
+            }
+        }
+        for (String locationSetting : missing) {
+            FetchGroup group = new FetchGroup(0);
+            group.locations.put(locationSetting, -1L);
+            selected.add(group);
+        }
+        return selected;
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.net.Uri;
+import android.os.SystemClock;
+
+import com.example.android.sunshine.app.BuildConfig;
+
+import org.json.JSONException;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Fetches the daily forecast of one location or city from OpenWeatherMap and streams it
+ * through a {@link ForecastParser}.
+ *
+ * Requests are made conditional on the {@link ForecastValidators} of the last stored forecast,
+ * and the body is hashed while it is parsed, so a caller can tell when there is nothing new
+ * to store.  Given a {@link SyncTimings}, it records how long each request spends connecting,
+ * waiting for the response, downloading and parsing.
+ */
+public class ForecastFetcher {
+    // Possible parameters are avaiable at OWM's forecast API page, at
+    // http://openweathermap.org/API#forecast
+    // OWM's endpoint, unless the build was pointed at a stand-in with -PforecastBaseUrl
+    public static final String FORECAST_BASE_URL = BuildConfig.FORECAST_BASE_URL;
+    private static final String QUERY_PARAM = "q";
+    private static final String CITY_ID_PARAM = "id";
+    private static final String FORMAT_PARAM = "mode";
+    private static final String UNITS_PARAM = "units";
+    private static final String DAYS_PARAM = "cnt";
+    private static final String APPID_PARAM = "APPID";
+
+    private static final String FORMAT = "json";
+    private static final String UNITS = "metric";
+    // Days requested per forecast
+    static final int NUM_DAYS = 14;
+
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    // Results of fetch() other than the "cod" of a parsed response.  Both mean that the
+    // forecast already stored for the location is still current.
+    // The server answered 304 Not Modified; nothing was parsed.
+    public static final int FETCH_NOT_MODIFIED = -1;
+    // The body was identical to the stored one.
+    public static final int FETCH_UNCHANGED = -2;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final String mBaseUrl;
+    private final ForecastParser mParser = new ForecastParser();
+    private SyncTimings mTimings;
+
+    public ForecastFetcher() {
+        this(FORECAST_BASE_URL);
+    }
+
+    /**
+     * @param baseUrl the forecast endpoint, which can point at a local stand-in server.
+     */
+    public ForecastFetcher(String baseUrl) {
+        mBaseUrl = baseUrl;
+    }
+
+    /**
+     * Sets where the stage timings of each request are recorded, or null not to time them.
+     */
+    public void setTimings(SyncTimings timings) {
+        mTimings = timings;
+    }
+
+    public Uri buildUri(String locationQuery) {
+        return buildUri(QUERY_PARAM, locationQuery);
+    }
+
+    /**
+     * Builds the request for a city OWM has already resolved a location setting to.  Unlike
+     * a "q" query, it is the same for every setting that resolved to that city.
+     */
+    public Uri buildUri(long cityId) {
+        return buildUri(CITY_ID_PARAM, Long.toString(cityId));
+    }
+
+    private Uri buildUri(String locationParam, String location) {
+        return Uri.parse(mBaseUrl).buildUpon()
+                .appendQueryParameter(locationParam, location)
+                .appendQueryParameter(FORMAT_PARAM, FORMAT)
+                .appendQueryParameter(UNITS_PARAM, UNITS)
+                .appendQueryParameter(DAYS_PARAM, Integer.toString(NUM_DAYS))
+                .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
+                .build();
+    }
+
+    /**
+     * Requests the forecast of a location, conditionally on the given validators, and parses
+     * it into handler.  The validators are updated from the response but not saved.
+     *
+     * @return {@link #FETCH_NOT_MODIFIED}, {@link #FETCH_UNCHANGED}, the HTTP status of a
+     * response other than 200 OK, which is not read, or the "cod" value of the parsed response.
+     */
+    public int fetch(String locationQuery, ForecastValidators validators,
+                     ForecastParser.Handler handler) throws IOException, JSONException {
+        return fetch(buildUri(locationQuery), validators, handler);
+    }
+
+    /**
+     * Like {@link #fetch(String, ForecastValidators, ForecastParser.Handler)}, for a city
+     * id reported by an earlier response.
+     */
+    public int fetch(long cityId, ForecastValidators validators,
+                     ForecastParser.Handler handler) throws IOException, JSONException {
+        return fetch(buildUri(cityId), validators, handler);
+    }
+
+    private int fetch(Uri uri, ForecastValidators validators,
+                      ForecastParser.Handler handler) throws IOException, JSONException {
+        HttpURLConnection urlConnection = null;
+        try {
+            URL url = new URL(uri.toString());
+            long start = SystemClock.elapsedRealtimeNanos();
+
+            // Create the request to OpenWeatherMap, and open the connection
+            urlConnection = (HttpURLConnection) url.openConnection();
+            urlConnection.setRequestMethod("GET");
+            if (validators.getETag() != null) {
+                urlConnection.setRequestProperty(HEADER_IF_NONE_MATCH, validators.getETag());
+            }
+            if (validators.getLastModified() != null) {
+                urlConnection.setRequestProperty(HEADER_IF_MODIFIED_SINCE,
+                        validators.getLastModified());
+            }
+            urlConnection.connect();
+            long connected = SystemClock.elapsedRealtimeNanos();
+            record(SyncTimings.STAGE_CONNECT, connected - start);
+
+            int responseCode = urlConnection.getResponseCode();
+            long bodyStart = SystemClock.elapsedRealtimeNanos();
+            record(SyncTimings.STAGE_TTFB, bodyStart - connected);
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                return FETCH_NOT_MODIFIED;
+            }
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                // getInputStream() would throw for an error status, hiding whether it was the
+                // request or the server at fault: hand back the status instead, like a "cod"
+                return responseCode;
+            }
+
+            // The forecast is parsed straight off the connection, and hashed on the way
+            MessageDigest digest = newDigest();
+            TimedInputStream timedStream = new TimedInputStream(urlConnection.getInputStream());
+            InputStream inputStream = new DigestInputStream(timedStream, digest);
+            int code = mParser.parse(inputStream, handler);
+
+            // Make sure the hash covers anything the parser did not need to read
+            byte[] buffer = new byte[512];
+            while (inputStream.read(buffer) != -1) {
+                // discard
+            }
+
+            String previousHash = validators.getContentHash();
+            String contentHash = toHex(digest.digest());
+            // The body is read while it is parsed: split its time into waiting and parsing
+            long bodyNanos = SystemClock.elapsedRealtimeNanos() - bodyStart;
+            record(SyncTimings.STAGE_DOWNLOAD, timedStream.readNanos);
+            record(SyncTimings.STAGE_PARSE, bodyNanos - timedStream.readNanos);
+            validators.setETag(urlConnection.getHeaderField(HEADER_ETAG));
+            validators.setLastModified(urlConnection.getHeaderField(HEADER_LAST_MODIFIED));
+            validators.setContentHash(contentHash);
+
+            if (code == HttpURLConnection.HTTP_OK && contentHash.equals(previousHash)) {
+                return FETCH_UNCHANGED;
+            }
+            return code;
+        } finally {
+            if (urlConnection != null) {
+                // Also closes the input stream
+                urlConnection.disconnect();
+            }
+        }
+    }
+
+    private void record(String stage, long nanos) {
+        if (mTimings != null) {
+            mTimings.record(stage, nanos);
+        }
+    }
+
+    /**
+     * Adds up the time spent blocked reading the wrapped stream.
+     */
+    private static class TimedInputStream extends FilterInputStream {
+        long readNanos;
+
+        TimedInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = SystemClock.elapsedRealtimeNanos();
+            try {
+                return super.read();
+            } finally {
+                readNanos += SystemClock.elapsedRealtimeNanos() - start;
+            }
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            long start = SystemClock.elapsedRealtimeNanos();
+            try {
+                return super.read(buffer, offset, count);
+            } finally {
+                readNanos += SystemClock.elapsedRealtimeNanos() - start;
+            }
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            long start = SystemClock.elapsedRealtimeNanos();
+            try {
+                return super.skip(count);
+            } finally {
+                readNanos += SystemClock.elapsedRealtimeNanos() - start;
+            }
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Android release ships SHA-1
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+        return new String(hex);
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.util.JsonReader;
+import android.util.MalformedJsonException;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+
+/**
+ * Pull-based parser for the OpenWeatherMap daily forecast response.
+ *
+ * The response is read token by token straight off the stream, so neither the raw body nor a
+ * JSON object tree is ever held in memory.  Only the fields we store are decoded; everything
+ * else is skipped, and each day of the "list" array is handed to the {@link Handler} as soon as
+ * it has been read.
+ */
+public class ForecastParser {
+
+    // Location information
+    private static final String OWM_CITY = "city";
+    private static final String OWM_CITY_ID = "id";
+    private static final String OWM_CITY_NAME = "name";
+    private static final String OWM_COORD = "coord";
+
+    // Location coordinate
+    private static final String OWM_LATITUDE = "lat";
+    private static final String OWM_LONGITUDE = "lon";
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    private static final String OWM_LIST = "list";
+
+    private static final String OWM_PRESSURE = "pressure";
+    private static final String OWM_HUMIDITY = "humidity";
+    private static final String OWM_WINDSPEED = "speed";
+    private static final String OWM_WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    private static final String OWM_TEMPERATURE = "temp";
+    private static final String OWM_MAX = "max";
+    private static final String OWM_MIN = "min";
+
+    private static final String OWM_WEATHER = "weather";
+    private static final String OWM_DESCRIPTION = "main";
+    private static final String OWM_WEATHER_ID = "id";
+
+    private static final String OWM_MESSAGE_CODE = "cod";
+
+    // Bits used to check that every field we store was present in a day's forecast
+    private static final int FIELD_PRESSURE = 1;
+    private static final int FIELD_HUMIDITY = 1 << 1;
+    private static final int FIELD_WINDSPEED = 1 << 2;
+    private static final int FIELD_WIND_DIRECTION = 1 << 3;
+    private static final int FIELD_MAX = 1 << 4;
+    private static final int FIELD_MIN = 1 << 5;
+    private static final int FIELD_DESCRIPTION = 1 << 6;
+    private static final int FIELD_WEATHER_ID = 1 << 7;
+    private static final int FIELDS_DAY = (1 << 8) - 1;
+
+    /**
+     * Receives the parsed values.  Days are delivered in the order they appear in the response,
+     * and the city may be delivered before or after them depending on the field order the server
+     * used.
+     */
+    public interface Handler {
+        /**
+         * @param cityId OWM's id for the city, or 0 if the response did not include one.
+         */
+        void onCity(long cityId, String cityName, double lat, double lon);
+
+        void onDay(int index, double pressure, int humidity, double windSpeed,
+                   double windDirection, double high, double low,
+                   String description, int weatherId);
+    }
+
+    // Scratch values for the day being read, so parsing a day allocates nothing but its
+    // description string.
+    private int mFields;
+    private double mPressure;
+    private int mHumidity;
+    private double mWindSpeed;
+    private double mWindDirection;
+    private double mHigh;
+    private double mLow;
+    private String mDescription;
+    private int mWeatherId;
+
+    /**
+     * Parses a UTF-8 encoded response.  The stream is not closed.
+     */
+    public int parse(InputStream in, Handler handler) throws IOException, JSONException {
+        return parse(new InputStreamReader(in, "UTF-8"), handler);
+    }
+
+    /**
+     * Parses a forecast response, calling back into handler as values become available.
+     *
+     * @return the "cod" value of the response, or {@link HttpURLConnection#HTTP_OK} if the
+     * response carries none.  When it is not HTTP_OK the handler may not have been called at all.
+     * @throws JSONException if the response is malformed or a stored field is missing.
+     */
+    public int parse(Reader in, Handler handler) throws IOException, JSONException {
+        JsonReader reader = new JsonReader(in);
+        int code = HttpURLConnection.HTTP_OK;
+        boolean hasCity = false;
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_MESSAGE_CODE.equals(name)) {
+                    code = reader.nextInt();
+                } else if (OWM_CITY.equals(name)) {
+                    readCity(reader, handler);
+                    hasCity = true;
+                } else if (OWM_LIST.equals(name)) {
+                    readList(reader, handler);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IllegalStateException | NumberFormatException | MalformedJsonException e) {
+            throw new JSONException("Malformed forecast: " + e.getMessage());
+        }
+        if (code == HttpURLConnection.HTTP_OK && !hasCity) {
+            throw new JSONException("No value for " + OWM_CITY);
+        }
+        return code;
+    }
+
+    private void readCity(JsonReader reader, Handler handler) throws IOException, JSONException {
+        long cityId = 0;
+        String cityName = null;
+        double lat = Double.NaN;
+        double lon = Double.NaN;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY_ID.equals(name)) {
+                cityId = reader.nextLong();
+            } else if (OWM_CITY_NAME.equals(name)) {
+                cityName = reader.nextString();
+            } else if (OWM_COORD.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coordName = reader.nextName();
+                    if (OWM_LATITUDE.equals(coordName)) {
+                        lat = reader.nextDouble();
+                    } else if (OWM_LONGITUDE.equals(coordName)) {
+                        lon = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (cityName == null || Double.isNaN(lat) || Double.isNaN(lon)) {
+            throw new JSONException("Incomplete " + OWM_CITY);
+        }
+        handler.onCity(cityId, cityName, lat, lon);
+    }
+
+    private void readList(JsonReader reader, Handler handler) throws IOException, JSONException {
+        int index = 0;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            readDay(reader);
+            if (mFields != FIELDS_DAY) {
+                throw new JSONException("Incomplete forecast for day " + index);
+            }
+            handler.onDay(index++, mPressure, mHumidity, mWindSpeed, mWindDirection,
+                    mHigh, mLow, mDescription, mWeatherId);
+        }
+        reader.endArray();
+    }
+
+    private void readDay(JsonReader reader) throws IOException {
+        mFields = 0;
+        mDescription = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_PRESSURE.equals(name)) {
+                mPressure = reader.nextDouble();
+                mFields |= FIELD_PRESSURE;
+            } else if (OWM_HUMIDITY.equals(name)) {
+                // Like JSONObject.getInt, accept fractional values and truncate them
+                mHumidity = (int) reader.nextDouble();
+                mFields |= FIELD_HUMIDITY;
+            } else if (OWM_WINDSPEED.equals(name)) {
+                mWindSpeed = reader.nextDouble();
+                mFields |= FIELD_WINDSPEED;
+            } else if (OWM_WIND_DIRECTION.equals(name)) {
+                mWindDirection = reader.nextDouble();
+                mFields |= FIELD_WIND_DIRECTION;
+            } else if (OWM_TEMPERATURE.equals(name)) {
+                // Temperatures are in a child object called "temp".  Try not to name variables
+                // "temp" when working with temperature.  It confuses everybody.
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String tempName = reader.nextName();
+                    if (OWM_MAX.equals(tempName)) {
+                        mHigh = reader.nextDouble();
+                        mFields |= FIELD_MAX;
+                    } else if (OWM_MIN.equals(tempName)) {
+                        mLow = reader.nextDouble();
+                        mFields |= FIELD_MIN;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name)) {
+                // Description is in a child array called "weather", which is 1 element long.
+                // That element also contains a weather code.
+                reader.beginArray();
+                if (reader.hasNext()) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String weatherName = reader.nextName();
+                        if (OWM_DESCRIPTION.equals(weatherName)) {
+                            mDescription = reader.nextString();
+                            mFields |= FIELD_DESCRIPTION;
+                        } else if (OWM_WEATHER_ID.equals(weatherName)) {
+                            mWeatherId = reader.nextInt();
+                            mFields |= FIELD_WEATHER_ID;
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                while (reader.hasNext()) {
+                    reader.skipValue();
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+}
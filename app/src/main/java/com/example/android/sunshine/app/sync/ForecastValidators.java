@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * The cache validators of the last forecast stored for one location: the ETag and
+ * Last-Modified headers the server sent with it, and a hash of its body.
+ *
+ * They are only valid for the forecast window they were stored for, since the same response
+ * maps to different dates once the day changes, so loading them for another day returns
+ * empty validators.
+ */
+public class ForecastValidators {
+    private static final String PREFS_NAME = "forecast_validators";
+
+    private static final String KEY_ETAG = "etag_";
+    private static final String KEY_LAST_MODIFIED = "last_modified_";
+    private static final String KEY_CONTENT_HASH = "content_hash_";
+    private static final String KEY_WINDOW_DAY = "window_day_";
+
+    private final String mLocationSetting;
+    private final int mWindowDay;
+    private String mETag;
+    private String mLastModified;
+    private String mContentHash;
+
+    public ForecastValidators(String locationSetting, int windowDay) {
+        mLocationSetting = locationSetting;
+        mWindowDay = windowDay;
+    }
+
+    /**
+     * Loads the validators stored for a location, or empty ones if none were stored for the
+     * forecast window starting on the given julian day.
+     */
+    public static ForecastValidators load(Context context, String locationSetting, int windowDay) {
+        ForecastValidators validators = new ForecastValidators(locationSetting, windowDay);
+        SharedPreferences sp = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        if (sp.getInt(KEY_WINDOW_DAY + locationSetting, -1) == windowDay) {
+            validators.mETag = sp.getString(KEY_ETAG + locationSetting, null);
+            validators.mLastModified = sp.getString(KEY_LAST_MODIFIED + locationSetting, null);
+            validators.mContentHash = sp.getString(KEY_CONTENT_HASH + locationSetting, null);
+        }
+        return validators;
+    }
+
+    /**
+     * Forgets the validators of a location, so that its next fetch is unconditional.
+     */
+    public static void clear(Context context, String locationSetting) {
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
+                .remove(KEY_ETAG + locationSetting)
+                .remove(KEY_LAST_MODIFIED + locationSetting)
+                .remove(KEY_CONTENT_HASH + locationSetting)
+                .remove(KEY_WINDOW_DAY + locationSetting)
+                .apply();
+    }
+
+    /**
+     * Stores the validators.  Only call this once the forecast they describe has been written,
+     * otherwise a later 304 would leave the database without it.
+     */
+    public void save(Context context) {
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
+                .putString(KEY_ETAG + mLocationSetting, mETag)
+                .putString(KEY_LAST_MODIFIED + mLocationSetting, mLastModified)
+                .putString(KEY_CONTENT_HASH + mLocationSetting, mContentHash)
+                .putInt(KEY_WINDOW_DAY + mLocationSetting, mWindowDay)
+                .apply();
+    }
+
+    public boolean isEmpty() {
+        return mETag == null && mLastModified == null && mContentHash == null;
+    }
+
+    public String getLocationSetting() {
+        return mLocationSetting;
+    }
+
+    public String getETag() {
+        return mETag;
+    }
+
+    public void setETag(String eTag) {
+        mETag = eTag;
+    }
+
+    public String getLastModified() {
+        return mLastModified;
+    }
+
+    public void setLastModified(String lastModified) {
+        mLastModified = lastModified;
+    }
+
+    public String getContentHash() {
+        return mContentHash;
+    }
+
+    public void setContentHash(String contentHash) {
+        mContentHash = contentHash;
+    }
+}
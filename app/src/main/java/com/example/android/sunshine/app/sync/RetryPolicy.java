@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import java.util.Random;
+
+/**
+ * How often, and after how long, a failed forecast request is made again within a sync.
+ *
+ * Delays grow exponentially from {@link #BASE_DELAY_MILLIS} up to {@link #MAX_DELAY_MILLIS},
+ * and each one is drawn at random below that bound ("full jitter"), so that requests failing
+ * together, like every location of a sync during an outage, do not come back together.
+ */
+class RetryPolicy {
+
+    // Requests made for one fetch, the first one included
+    static final int MAX_ATTEMPTS = 3;
+    static final long BASE_DELAY_MILLIS = 1000;
+    static final long MAX_DELAY_MILLIS = 8 * 1000;
+
+    private RetryPolicy() {
+    }
+
+    /**
+     * How long to wait before making a request again after it failed attempt times.
+     */
+    static long getDelayMillis(int attempt, Random random) {
+        long bound = Math.min(MAX_DELAY_MILLIS, BASE_DELAY_MILLIS << Math.min(attempt - 1, 10));
+        return (long) (random.nextDouble() * bound);
+    }
+
+    /**
+     * Whether the "cod" of a response is an error of the server's own, rather than one about
+     * the request, so that asking again later might succeed.
+     */
+    static boolean isServerError(int cod) {
+        return cod >= 500;
+    }
+}
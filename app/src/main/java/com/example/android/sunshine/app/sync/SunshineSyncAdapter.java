@@ -8,7 +8,6 @@ import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
 import android.content.ContentResolver;
-import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
@@ -17,12 +16,13 @@ import android.content.SyncRequest;
 import android.content.SyncResult;
 import android.content.res.Resources;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.support.annotation.IntDef;
 import android.support.v4.app.NotificationCompat;
@@ -31,30 +31,33 @@ import android.text.format.Time;
 import android.util.Log;
 
 import com.bumptech.glide.Glide;
-import com.example.android.sunshine.app.BuildConfig;
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.SunshineApplication;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.ForecastBatch;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
 import com.example.android.sunshine.common.SunshineWearContract;
 import com.google.android.gms.common.ConnectionResult;
 
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.Vector;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static com.google.android.gms.common.GooglePlayServicesUtil.isGooglePlayServicesAvailable;
 
@@ -68,21 +71,17 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public static final int SYNC_FLEXTIME = SYNC_INTERVAL/3;
     private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
     private static final int WEATHER_NOTIFICATION_ID = 3004;
+    // Maximum number of locations fetched at the same time
+    private static final int SYNC_PARALLELISM = 4;
+    // Maximum number of locations whose forecasts are written in one transaction
+    private static final int WRITE_GROUP_SIZE = 8;
+    // How long each consumer of a new forecast may take before it is interrupted
+    private static final long CONSUMER_TIMEOUT_MILLIS = 10 * 1000;
+    private static final long NOTIFICATION_TIMEOUT_MILLIS = 30 * 1000;
+    // How often the database's maintenance runs, at the end of a sync
+    private static final long MAINTENANCE_INTERVAL_MILLIS = DAY_IN_MILLIS;
 
 
-    private static final String[] NOTIFY_WEATHER_PROJECTION = new String[] {
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
-    };
-
-    // these indices must match the projection
-    private static final int INDEX_WEATHER_ID = 0;
-    private static final int INDEX_MAX_TEMP = 1;
-    private static final int INDEX_MIN_TEMP = 2;
-    private static final int INDEX_SHORT_DESC = 3;
-
     @Retention(RetentionPolicy.SOURCE)
     @IntDef({LOCATION_STATUS_OK, LOCATION_STATUS_SERVER_DOWN, LOCATION_STATUS_SERVER_INVALID,  LOCATION_STATUS_UNKNOWN, LOCATION_STATUS_INVALID})
     public @interface LocationStatus {}
@@ -93,276 +92,527 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public static final int LOCATION_STATUS_UNKNOWN = 3;
     public static final int LOCATION_STATUS_INVALID = 4;
 
+    // Name of the preference file holding the status of every synced location, keyed by
+    // location setting
+    public static final String LOCATION_STATUS_PREFS_NAME = "location_status";
+
+    // Where forecasts are fetched from
+    private String mForecastBaseUrl = ForecastFetcher.FORECAST_BASE_URL;
+
     public SunshineSyncAdapter(Context context, boolean autoInitialize) {
         super(context, autoInitialize);
     }
 
+    /**
+     * Points this adapter's syncs at another forecast endpoint, such as a local stand-in for
+     * OpenWeatherMap.
+     */
+    void setForecastBaseUrl(String baseUrl) {
+        mForecastBaseUrl = baseUrl;
+    }
+
     @Override
     public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
-        Log.d(LOG_TAG, "Starting sync");
-        String locationQuery = Utility.getPreferredLocation(getContext());
-
-        // These two need to be declared outside the try/catch
-        // so that they can be closed in the finally block.
-        HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
-
-        // Will contain the raw JSON response as a string.
-        String forecastJsonStr = null;
-
-        String format = "json";
-        String units = "metric";
-        int numDays = 14;
-
+        long start = SystemClock.elapsedRealtimeNanos();
+        SyncCoalescer coalescer = SyncCoalescer.getInstance(getContext());
+        SyncCoalescer.Batch batch =
+                coalescer.onSyncStarted(extras.getBoolean(SyncCoalescer.EXTRA_COALESCED));
         try {
-            // Construct the URL for the OpenWeatherMap query
-            // Possible parameters are avaiable at OWM's forecast API page, at
-            // http://openweathermap.org/API#forecast
-            final String FORECAST_BASE_URL =
-                    "http://api.openweathermap.org/data/2.5/forecast/daily?";
-            final String QUERY_PARAM = "q";
-            final String FORMAT_PARAM = "mode";
-            final String UNITS_PARAM = "units";
-            final String DAYS_PARAM = "cnt";
-            final String APPID_PARAM = "APPID";
-
-            Uri builtUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
-                    .appendQueryParameter(QUERY_PARAM, locationQuery)
-                    .appendQueryParameter(FORMAT_PARAM, format)
-                    .appendQueryParameter(UNITS_PARAM, units)
-                    .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
-                    .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
-                    .build();
-
-            URL url = new URL(builtUri.toString());
-
-            // Create the request to OpenWeatherMap, and open the connection
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
-            if (inputStream == null) {
-                // Nothing to do.
-                return;
-            }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line + "\n");
-            }
-
-            if (buffer.length() == 0) {
-                // Stream was empty.  No point in parsing.
-                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                return;
-            }
-            forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "Error ", e);
-            // If the code didn't successfully get the weather data, there's no point in attempting
-            // to parse it.
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+            performSync(batch);
         } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
-            }
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (final IOException e) {
-                    Log.e(LOG_TAG, "Error closing stream", e);
-                }
-            }
+            coalescer.onSyncFinished();
+            SyncTimings timings = SyncTimings.getInstance();
+            timings.record(SyncTimings.STAGE_TOTAL, SystemClock.elapsedRealtimeNanos() - start);
+            timings.flush(getContext());
         }
-        return;
     }
 
     /**
-     * Take the String representing the complete forecast in JSON Format and
-     * pull out the data we need to construct the Strings needed for the wireframes.
+     * Syncs the locations of a coalesced batch of requests, or every location if batch is
+     * null.
      *
-     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
-     * into an Object hierarchy for us.
+     * A sync runs in stages: each location's forecast is fetched and parsed on the sync
+     * executor (one stage in practice, as it is parsed while it streams in), persisted on this
+     * thread in groups as the requests complete, and, if the preferred location's forecast
+     * changed, published to its consumers by {@link SyncPublisher} without waiting for them.
      */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
-            throws JSONException {
-
-        // Now we have a String representing the complete forecast in JSON Format.
-        // Fortunately parsing is easy:  constructor takes the JSON string and converts it
-        // into an Object hierarchy for us.
-
-        // These are the names of the JSON objects that need to be extracted.
-
-        // Location information
-        final String OWM_CITY = "city";
-        final String OWM_CITY_NAME = "name";
-        final String OWM_COORD = "coord";
+    private void performSync(SyncCoalescer.Batch batch) {
+        if (batch == null) {
+            Log.d(LOG_TAG, "Starting sync");
+        } else {
+            Log.d(LOG_TAG, "Starting sync of " + batch.locations + " for " + batch.requests +
+                    " requests, " + batch.getCollapsed() + " collapsed");
+        }
+        String preferredLocation = Utility.getPreferredLocation(getContext());
 
-        // Location coordinate
-        final String OWM_LATITUDE = "lat";
-        final String OWM_LONGITUDE = "lon";
+        // OWM returns daily forecasts based upon the local time of the city that is being
+        // asked for, which means that we need to know the GMT offset to translate this data
+        // properly.
 
-        // Weather information.  Each day's forecast info is an element of the "list" array.
-        final String OWM_LIST = "list";
+        // Since this data is also sent in-order and the first day is always the
+        // current day, we're going to take advantage of that to get a nice
+        // normalized UTC date for all of our weather.
 
-        final String OWM_PRESSURE = "pressure";
-        final String OWM_HUMIDITY = "humidity";
-        final String OWM_WINDSPEED = "speed";
-        final String OWM_WIND_DIRECTION = "deg";
+        Time dayTime = new Time();
+        dayTime.setToNow();
 
-        // All temperatures are children of the "temp" object.
-        final String OWM_TEMPERATURE = "temp";
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
+        // we start at the day returned by local time. Otherwise this is a mess.
+        int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
 
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
-        final String OWM_WEATHER_ID = "id";
+        // Every location we have stored gets refreshed, or just the requested ones, the
+        // preferred one first, with one request per city
+        long syncStart = SystemClock.elapsedRealtime();
+        List<FetchGroup> fetchGroups = getFetchGroups(preferredLocation);
+        if (batch != null) {
+            fetchGroups = FetchGroup.select(fetchGroups, batch.locations);
+        }
 
-        final String OWM_MESSAGE_CODE = "cod";
+        int parallelism = Math.min(SYNC_PARALLELISM, fetchGroups.size());
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        CompletionService<LocationSync> completionService =
+                new ExecutorCompletionService<LocationSync>(executor);
+        int locationCount = 0;
+        // Fetch and parse
+        for (FetchGroup fetchGroup : fetchGroups) {
+            completionService.submit(new LocationSync(fetchGroup, julianStartDay));
+            locationCount += fetchGroup.locations.size();
+        }
 
+        ArrayList<LocationSync> writeGroup = new ArrayList<LocationSync>(WRITE_GROUP_SIZE);
+        // What the scheduler needs to know about this sync
+        int changedDays = 0;
+        int comparedDays = 0;
+        int succeeded = 0;
         try {
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
-
-            // do we have an error?
-            if ( forecastJson.has(OWM_MESSAGE_CODE) ) {
-                int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
+            for (int i = 0; i < fetchGroups.size(); i++) {
+                LocationSync locationSync;
+                try {
+                    locationSync = completionService.take().get();
+                } catch (ExecutionException e) {
+                    // LocationSync handles its own failures, so this is a bug; keep the others
+                    Log.e(LOG_TAG, "Location sync failed", e.getCause());
+                    continue;
+                }
 
-                switch (errorCode) {
-                    case HttpURLConnection.HTTP_OK:
-                        break;
-                    case HttpURLConnection.HTTP_NOT_FOUND:
-                        setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
-                        return;
-                    default:
-                        setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
+                // Persist
+                Bundle written = null;
+                if (!locationSync.hasNewForecast()) {
+                    for (String locationSetting : locationSync.fetchGroup.locations.keySet()) {
+                        setLocationStatus(getContext(), locationSetting, locationSync.status);
+                    }
+                    if (locationSync.status == LOCATION_STATUS_OK) {
+                        // Not modified: every day of every location in the group is unchanged
+                        comparedDays += ForecastFetcher.NUM_DAYS *
+                                locationSync.fetchGroup.locations.size();
+                        succeeded++;
+                    }
+                } else if (locationSync.fetchGroup.contains(preferredLocation)) {
+                    // Don't keep what's on screen waiting for the other locations
+                    written = storeWeatherData(Collections.singletonList(locationSync));
+                    // Publish; a forecast that came back with the same values leaves nothing
+                    // to announce
+                    if (written != null && getChangedDays(written) > 0) {
+                        SyncPublisher.getInstance().publish(getConsumers());
+                    }
+                } else {
+                    writeGroup.add(locationSync);
+                    if (writeGroup.size() == WRITE_GROUP_SIZE) {
+                        written = storeWeatherData(writeGroup);
+                        writeGroup.clear();
+                    }
+                }
+                if (written != null) {
+                    changedDays += getChangedDays(written);
+                    comparedDays += getComparedDays(written);
+                }
+                if (locationSync.hasNewForecast()) {
+                    succeeded++;
                 }
             }
+            Bundle written = storeWeatherData(writeGroup);
+            if (written != null) {
+                changedDays += getChangedDays(written);
+                comparedDays += getComparedDays(written);
+            }
+        } catch (InterruptedException e) {
+            // The sync was cancelled; leave the schedule as it is
+            Thread.currentThread().interrupt();
+            return;
+        } finally {
+            executor.shutdownNow();
+        }
+        Log.d(LOG_TAG, "Synced " + locationCount + " locations with " + fetchGroups.size() +
+                " requests in " + (SystemClock.elapsedRealtime() - syncStart) + "ms");
+        boolean maintained = maintainDatabase();
+        if (changedDays > 0 || maintained) {
+            // Fold the sync's writes back into the database in one go, now that they are done
+            getContext().getContentResolver().call(WeatherContract.WeatherEntry.CONTENT_URI,
+                    WeatherContract.METHOD_CHECKPOINT, null, null);
+        }
 
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
-
-            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-            String cityName = cityJson.getString(OWM_CITY_NAME);
-
-            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
-
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
-
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
+        SyncScheduler.onSyncFinished(getContext(), changedDays, comparedDays, succeeded == 0);
+    }
 
-            // OWM returns daily forecasts based upon the local time of the city that is being
-            // asked for, which means that we need to know the GMT offset to translate this data
-            // properly.
+    /**
+     * Drops what is past its retention and shrinks the database file, at most once every
+     * {@link #MAINTENANCE_INTERVAL_MILLIS}: the database is idle until the next sync, but
+     * there is rarely enough to reclaim to be worth doing after every one.
+     *
+     * @return whether maintenance ran and deleted or vacuumed anything.
+     */
+    private boolean maintainDatabase() {
+        Context context = getContext();
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String lastMaintenanceKey = context.getString(R.string.pref_last_maintenance);
+        long now = System.currentTimeMillis();
+        if (now - prefs.getLong(lastMaintenanceKey, 0) < MAINTENANCE_INTERVAL_MILLIS) {
+            return false;
+        }
+        Bundle maintained = context.getContentResolver().call(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_MAINTAIN, null, null);
+        prefs.edit().putLong(lastMaintenanceKey, now).commit();
+        return maintained.getInt(WeatherContract.EXTRA_DELETED_COUNT) > 0 ||
+                maintained.getLong(WeatherContract.EXTRA_VACUUMED_PAGES) > 0;
+    }
 
-            // Since this data is also sent in-order and the first day is always the
-            // current day, we're going to take advantage of that to get a nice
-            // normalized UTC date for all of our weather.
+    // Days a replace_forecasts call inserted, updated or deleted
+    private static int getChangedDays(Bundle written) {
+        return written.getInt(WeatherContract.EXTRA_ROW_COUNT) +
+                written.getInt(WeatherContract.EXTRA_UPDATED_COUNT) +
+                written.getInt(WeatherContract.EXTRA_DELETED_COUNT);
+    }
 
-            Time dayTime = new Time();
-            dayTime.setToNow();
+    // Days a replace_forecasts call received
+    private static int getComparedDays(Bundle written) {
+        return written.getInt(WeatherContract.EXTRA_ROW_COUNT) +
+                written.getInt(WeatherContract.EXTRA_UPDATED_COUNT) +
+                written.getInt(WeatherContract.EXTRA_UNCHANGED_COUNT);
+    }
 
-            // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+    /**
+     * Groups the preferred location and every location in the database by the city they
+     * resolved to, so that each city is only requested once.
+     */
+    private List<FetchGroup> getFetchGroups(String preferredLocation) {
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry._ID,
+                        WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+                        WeatherContract.LocationEntry.COLUMN_CITY_ID},
+                null, null, null);
+        try {
+            return FetchGroup.group(preferredLocation, cursor);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
 
-            // now we work exclusively in UTC
-            dayTime = new Time();
+    /**
+     * Fetches and parses the forecast of one group of locations.  Runs on the sync executor,
+     * and never throws, so that one request failing does not affect the others.  A request
+     * that fails because of the network or the server is made again, after a
+     * {@link RetryPolicy} delay, unless the endpoint's {@link CircuitBreaker} is open.
+     */
+    class LocationSync implements Callable<LocationSync> {
+        final FetchGroup fetchGroup;
+        final int julianStartDay;
+        ForecastCollector collector;
+        ForecastValidators validators;
+        int result;
+        @LocationStatus int status = LOCATION_STATUS_UNKNOWN;
+        // Whether the last request failed in a way that asking again might fix
+        boolean retryable;
+
+        LocationSync(FetchGroup fetchGroup, int julianStartDay) {
+            this.fetchGroup = fetchGroup;
+            this.julianStartDay = julianStartDay;
+        }
 
-            for(int i = 0; i < weatherArray.length(); i++) {
-                // These are the values that will be collected.
-                long dateTime;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
+        /**
+         * Whether a new forecast was parsed and needs to be stored.
+         */
+        boolean hasNewForecast() {
+            return result == HttpURLConnection.HTTP_OK;
+        }
 
-                double high;
-                double low;
+        @Override
+        public LocationSync call() {
+            // Only make the request conditional if what it would leave in place is still there
+            // for every location in the group
+            String validatorsKey = fetchGroup.getValidatorsKey();
+            validators = ForecastValidators.load(getContext(), validatorsKey, julianStartDay);
+            if (!validators.isEmpty()) {
+                for (String locationSetting : fetchGroup.locations.keySet()) {
+                    if (!hasForecast(locationSetting)) {
+                        validators = new ForecastValidators(validatorsKey, julianStartDay);
+                        break;
+                    }
+                }
+            }
 
-                String description;
-                int weatherId;
+            CircuitBreaker breaker = CircuitBreaker.getInstance(getContext(), mForecastBaseUrl);
+            Random random = new Random();
+            for (int attempt = 1; ; attempt++) {
+                if (!breaker.allowRequest()) {
+                    Log.d(LOG_TAG, "Endpoint failing, not fetching " +
+                            fetchGroup.locations.keySet());
+                    status = LOCATION_STATUS_SERVER_DOWN;
+                    result = 0;
+                    break;
+                }
+                fetch();
+                if (!retryable) {
+                    // Including a 4xx: the endpoint answered, the request was at fault
+                    breaker.onSuccess();
+                    break;
+                }
+                breaker.onFailure();
+                if (attempt == RetryPolicy.MAX_ATTEMPTS) {
+                    break;
+                }
+                try {
+                    Thread.sleep(RetryPolicy.getDelayMillis(attempt, random));
+                } catch (InterruptedException e) {
+                    // The sync was cancelled
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                breaker.onRetry();
+            }
+            return this;
+        }
 
-                // Get the JSON object representing the day
-                JSONObject dayForecast = weatherArray.getJSONObject(i);
+        // Makes one request, into a fresh collector so that a failed one leaves nothing behind
+        private void fetch() {
+            collector = new ForecastCollector(julianStartDay);
+            retryable = false;
+            try {
+                ForecastFetcher fetcher = new ForecastFetcher(mForecastBaseUrl);
+                fetcher.setTimings(SyncTimings.getInstance());
+                result = fetchGroup.fetch(fetcher, validators, collector);
+
+                // do we have an error?
+                switch (result) {
+                    case ForecastFetcher.FETCH_NOT_MODIFIED:
+                    case ForecastFetcher.FETCH_UNCHANGED:
+                        // What we stored last time is still current: nothing to parse, write
+                        // or announce
+                        Log.d(LOG_TAG, "Forecast unchanged for " + fetchGroup.locations.keySet());
+                        status = LOCATION_STATUS_OK;
+                        break;
+                    case HttpURLConnection.HTTP_OK:
+                        break;
+                    case HttpURLConnection.HTTP_NOT_FOUND:
+                        status = LOCATION_STATUS_INVALID;
+                        break;
+                    default:
+                        // An error about the request, such as a bad API key, is answered the
+                        // same however often it is made; only the server's own are retried
+                        status = LOCATION_STATUS_SERVER_DOWN;
+                        retryable = RetryPolicy.isServerError(result);
+                }
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error ", e);
+                // If the code didn't successfully get the weather data, there's no point in
+                // attempting to parse it.
+                status = LOCATION_STATUS_SERVER_DOWN;
+                result = 0;
+                retryable = true;
+            } catch (JSONException | RuntimeException e) {
+                Log.e(LOG_TAG, e.getMessage(), e);
+                status = LOCATION_STATUS_SERVER_INVALID;
+                result = 0;
+            }
+        }
+    }
 
-                // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay+i);
+    /**
+     * Collects the forecast as it comes off the {@link ForecastParser} into a
+     * {@link ForecastBatch}, so the response is never held as a String, a JSON object tree or
+     * a ContentValues per day.
+     */
+    static class ForecastCollector implements ForecastParser.Handler {
+        final ForecastBatch batch = new ForecastBatch();
+        final int julianStartDay;
+        // now we work exclusively in UTC
+        final Time utcTime = new Time();
+        long cityId;
+        String cityName;
+        double cityLatitude;
+        double cityLongitude;
+
+        ForecastCollector(int julianStartDay) {
+            this.julianStartDay = julianStartDay;
+        }
 
-                pressure = dayForecast.getDouble(OWM_PRESSURE);
-                humidity = dayForecast.getInt(OWM_HUMIDITY);
-                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
+        @Override
+        public void onCity(long cityId, String cityName, double lat, double lon) {
+            this.cityId = cityId;
+            this.cityName = cityName;
+            cityLatitude = lat;
+            cityLongitude = lon;
+        }
 
-                // Description is in a child array called "weather", which is 1 element long.
-                // That element also contains a weather code.
-                JSONObject weatherObject =
-                        dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
+        @Override
+        public void onDay(int index, double pressure, int humidity, double windSpeed,
+                          double windDirection, double high, double low,
+                          String description, int weatherId) {
+            // Cheating to convert this to UTC time, which is what we want anyhow
+            long dateTime = utcTime.setJulianDay(julianStartDay + index);
+            batch.add(dateTime, weatherId, description, low, high, humidity, pressure,
+                    windSpeed, windDirection);
+        }
+    }
 
-                // Temperatures are in a child object called "temp".  Try not to name variables
-                // "temp" when working with temperature.  It confuses everybody.
-                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                high = temperatureObject.getDouble(OWM_MAX);
-                low = temperatureObject.getDouble(OWM_MIN);
+    /**
+     * Store the parsed forecasts of a group of requests, along with their locations, in one
+     * transaction.  If the group cannot be stored, its locations are marked invalid and the
+     * sync goes on with the others.
+     *
+     * @return the change summary of the write, or null if the group was empty or failed.
+     */
+    private Bundle storeWeatherData(List<LocationSync> group) {
+        if (group.isEmpty()) {
+            return null;
+        }
+        try {
+            return writeWeatherData(group);
+        } catch (SQLException e) {
+            Log.e(LOG_TAG, "Failed to store " + group.size() + " forecasts", e);
+            // Their validators are not saved, so the next sync fetches them in full again
+            for (LocationSync locationSync : group) {
+                for (String locationSetting : locationSync.fetchGroup.locations.keySet()) {
+                    setLocationStatus(getContext(), locationSetting,
+                            LOCATION_STATUS_SERVER_INVALID);
+                }
+            }
+            return null;
+        }
+    }
 
-                ContentValues weatherValues = new ContentValues();
+    private Bundle writeWeatherData(List<LocationSync> group) {
+        ArrayList<Bundle> batches = new ArrayList<Bundle>(group.size());
+        // The locations of the batches, in the same order
+        List<Map.Entry<String, Long>> locations = new ArrayList<Map.Entry<String, Long>>();
+        for (LocationSync locationSync : group) {
+            ForecastCollector collector = locationSync.collector;
+            FetchGroup fetchGroup = locationSync.fetchGroup;
+            for (Map.Entry<String, Long> location : fetchGroup.locations.entrySet()) {
+                // One parsed response, stored under every location of the group.  The
+                // bundles share the parsed arrays, so this costs no copies
+                collector.batch.setLocationId(location.getValue());
+                collector.batch.setLocationSetting(location.getKey());
+                Bundle batch = collector.batch.toBundle();
+                if (location.getValue() == -1) {
+                    // Stored for the first time, along with its forecast
+                    batch.putParcelable(WeatherContract.EXTRA_LOCATION,
+                            newLocationValues(location.getKey(), collector.cityName,
+                                    collector.cityLatitude, collector.cityLongitude,
+                                    collector.cityId));
+                } else if (fetchGroup.cityId == 0 && collector.cityId > 0) {
+                    // Remember which city the setting resolved to, so that the next sync can
+                    // share the request with other settings for the same city
+                    batch.putParcelable(WeatherContract.EXTRA_LOCATION,
+                            newLocationCityIdValues(location.getKey(), collector.cityId));
+                }
+                batches.add(batch);
+                locations.add(location);
+            }
+        }
 
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+        // store the new locations and days and delete each location's older ones, so we don't
+        // build up an endless history, in one transaction with one notification per location
+        SyncTimings timings = SyncTimings.getInstance();
+        Bundle extras = new Bundle();
+        extras.putParcelableArrayList(WeatherContract.EXTRA_BATCHES, batches);
+        long writeStart = SystemClock.elapsedRealtimeNanos();
+        Bundle result = getContext().getContentResolver().call(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_REPLACE_FORECASTS, null, extras);
+        long trimNanos = result.getLong(WeatherContract.EXTRA_TRIM_NANOS);
+        timings.record(SyncTimings.STAGE_DB_WRITE,
+                SystemClock.elapsedRealtimeNanos() - writeStart - trimNanos);
+        timings.record(SyncTimings.STAGE_TRIM, trimNanos);
+        long[] locationIds = result.getLongArray(WeatherContract.EXTRA_LOCATION_IDS);
+        for (int i = 0; i < locationIds.length; i++) {
+            locations.get(i).setValue(locationIds[i]);
+        }
 
-                cVVector.add(weatherValues);
+        for (LocationSync locationSync : group) {
+            locationSync.validators.save(getContext());
+            for (String locationSetting : locationSync.fetchGroup.locations.keySet()) {
+                setLocationStatus(getContext(), locationSetting, LOCATION_STATUS_OK);
             }
+        }
 
-            int inserted = 0;
-            // add to database
-            if ( cVVector.size() > 0 ) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
+        Log.d(LOG_TAG, "Sync Complete. " + result.getInt(WeatherContract.EXTRA_ROW_COUNT) +
+                " Inserted, " + result.getInt(WeatherContract.EXTRA_UPDATED_COUNT) +
+                " Updated, " + result.getInt(WeatherContract.EXTRA_UNCHANGED_COUNT) +
+                " Unchanged for " + locations.size() + " locations");
+        return result;
+    }
 
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))});
+    /**
+     * Whether today's forecast for the location is in the database.
+     */
+    private boolean hasForecast(String locationSetting) {
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
+                        locationSetting, System.currentTimeMillis()),
+                new String[]{WeatherContract.WeatherEntry.COLUMN_DATE}, null, null, null);
+        if (cursor == null) {
+            return false;
+        }
+        try {
+            return cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
 
+    /**
+     * Everything that shows the preferred location's forecast, for {@link SyncPublisher}.  The
+     * ones started in this process share one snapshot of today's forecast, built here.
+     */
+    private List<SyncPublisher.Consumer> getConsumers() {
+        final Context context = getContext();
+        final TodaySnapshot today = TodaySnapshot.refresh(context);
+        List<SyncPublisher.Consumer> consumers = new ArrayList<SyncPublisher.Consumer>(4);
+        consumers.add(new SyncPublisher.Consumer(SyncTimings.STAGE_WIDGETS,
+                CONSUMER_TIMEOUT_MILLIS) {
+            @Override
+            public void run() {
                 updateWidgets();
+            }
+        });
+        consumers.add(new SyncPublisher.Consumer(SyncTimings.STAGE_MUZEI,
+                CONSUMER_TIMEOUT_MILLIS) {
+            @Override
+            public void run() {
                 updateMuzei();
-                notifyWeather();
-                notifyWearDevices();
             }
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
-            setLocationStatus(getContext(), LOCATION_STATUS_OK);
-
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
-        }
+        });
+        // Loads the forecast art from the network
+        consumers.add(new SyncPublisher.Consumer(SyncTimings.STAGE_NOTIFICATION,
+                NOTIFICATION_TIMEOUT_MILLIS) {
+            @Override
+            public void run() {
+                notifyWeather(today);
+            }
+        });
+        consumers.add(new SyncPublisher.Consumer(SyncTimings.STAGE_WEAR,
+                CONSUMER_TIMEOUT_MILLIS) {
+            @Override
+            public void run() {
+                if (isWearApiAvailable(context)) {
+                    updateWearDevices(today, SunshineWearContract.WEATHER_ICON_NOID, null, null);
+                }
+            }
+        });
+        return consumers;
     }
 
     private void updateWidgets() {
@@ -392,9 +642,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
 
         final Context context = SunshineApplication.getContext();
 
-        if (isGooglePlayServicesAvailable(context) != ConnectionResult.SUCCESS) {
-            //No need to do that if no Google API
-            Log.d(LOG_TAG, "notifyWearDevices: Google API is not available!");
+        if (!isWearApiAvailable(context)) {
             return;
         }
 
@@ -402,24 +650,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
 
             @Override
             protected Void doInBackground(Void ... params) {
-                final String locationQuery = Utility.getPreferredLocation(context);
-                final Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
-                // we'll query our contentProvider, as always
-                final Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
-                if (cursor != null) {
-                    if (cursor.moveToFirst()) {
-                        final int newWeatherId = Utility.getArtResourceForWeatherCondition(cursor.getInt(INDEX_WEATHER_ID));
-                        final String newMaxTemp = Utility.formatTemperature(context, cursor.getDouble(INDEX_MAX_TEMP));
-                        final String newMinTemp = Utility.formatTemperature(context, cursor.getDouble(INDEX_MIN_TEMP));
-                        cursor.close();
-                        if ((newWeatherId != weatherId) || !newMaxTemp.equals(maxTemp) || !newMinTemp.equals(minTemp))
-                            SunshineWearListener.updateWearDevices(newWeatherId, newMaxTemp, newMinTemp);
-                        else Log.d(LOG_TAG, "notifyWearDevices: weather information has not changed");
-                        return null;
-                    }
-                    cursor.close();
-                }
-                Log.d(LOG_TAG, "notifyWearDevices: no weather data has been retrieved!");
+                updateWearDevices(TodaySnapshot.get(context), weatherId, maxTemp, minTemp);
                 return null;
             }
 
@@ -427,8 +658,29 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
 
     }
 
+    private static boolean isWearApiAvailable(Context context) {
+        if (isGooglePlayServicesAvailable(context) != ConnectionResult.SUCCESS) {
+            //No need to do that if no Google API
+            Log.d(LOG_TAG, "notifyWearDevices: Google API is not available!");
+            return false;
+        }
+        return true;
+    }
+
+    // Sends today's forecast to the wear devices if it differs from the one they show
+    private static void updateWearDevices(TodaySnapshot today, int weatherId, String maxTemp,
+                                          String minTemp) {
+        if (today == null) {
+            Log.d(LOG_TAG, "notifyWearDevices: no weather data has been retrieved!");
+            return;
+        }
+        if ((today.artResourceId != weatherId) || !today.formattedHigh.equals(maxTemp) || !today.formattedLow.equals(minTemp))
+            SunshineWearListener.updateWearDevices(today.artResourceId, today.formattedHigh, today.formattedLow);
+        else Log.d(LOG_TAG, "notifyWearDevices: weather information has not changed");
+    }
+
 
-    private void notifyWeather() {
+    private void notifyWeather(TodaySnapshot today) {
         Context context = getContext();
         //checking the last update and notify if it' the first of the day
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
@@ -443,23 +695,11 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
 
             if (System.currentTimeMillis() - lastSync >= DAY_IN_MILLIS) {
                 // Last sync was more than 1 day ago, let's send a notification with the weather.
-                String locationQuery = Utility.getPreferredLocation(context);
-
-                Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
-
-                // we'll query our contentProvider, as always
-                Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
-
-                if (cursor.moveToFirst()) {
-                    int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-                    double high = cursor.getDouble(INDEX_MAX_TEMP);
-                    double low = cursor.getDouble(INDEX_MIN_TEMP);
-                    String desc = cursor.getString(INDEX_SHORT_DESC);
-
-                    int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
+                if (today != null) {
+                    int iconId = today.iconResourceId;
                     Resources resources = context.getResources();
-                    int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
-                    String artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
+                    int artResourceId = today.artResourceId;
+                    String artUrl = today.artUrl;
 
                     // On Honeycomb and higher devices, we can retrieve the size of the large icon
                     // Prior to that, we use a fixed size
@@ -489,9 +729,9 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
 
                     // Define the text of the forecast.
                     String contentText = String.format(context.getString(R.string.format_notification),
-                            desc,
-                            Utility.formatTemperature(context, high),
-                            Utility.formatTemperature(context, low));
+                            today.description,
+                            today.formattedHigh,
+                            today.formattedLow);
 
                     // NotificationCompatBuilder is a very convenient way to build backward-compatible
                     // notifications.  Just throw in some data.
@@ -530,59 +770,40 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                     editor.putLong(lastNotificationKey, System.currentTimeMillis());
                     editor.commit();
                 }
-                cursor.close();
             }
         }
     }
 
     /**
-     * Helper method to handle insertion of a new location in the weather database.
+     * Helper method to build the values of a new location in the weather database.  The
+     * provider updates and hands back the existing row of a setting it already has, so there's
+     * no need to query for it first.
      *
      * @param locationSetting The location string used to request updates from the server.
      * @param cityName A human-readable city name, e.g "Mountain View"
      * @param lat the latitude of the city
      * @param lon the longitude of the city
-     * @return the row ID of the added location.
+     * @param cityId OWM's id for the city, or 0 if unknown
      */
-    long addLocation(String locationSetting, String cityName, double lat, double lon) {
-        long locationId;
+    private static ContentValues newLocationValues(String locationSetting, String cityName,
+                                                   double lat, double lon, long cityId) {
+        ContentValues values = new ContentValues();
+        values.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
+        values.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        values.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
+        values.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
+        if (cityId > 0) {
+            values.put(WeatherContract.LocationEntry.COLUMN_CITY_ID, cityId);
+        }
+        return values;
+    }
 
-        // First, check if the location with this city name exists in the db
-        Cursor locationCursor = getContext().getContentResolver().query(
-                WeatherContract.LocationEntry.CONTENT_URI,
-                new String[]{WeatherContract.LocationEntry._ID},
-                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
-                new String[]{locationSetting},
-                null);
-
-        if (locationCursor.moveToFirst()) {
-            int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
-            locationId = locationCursor.getLong(locationIdIndex);
-        } else {
-            // Now that the content provider is set up, inserting rows of data is pretty simple.
-            // First create a ContentValues object to hold the data you want to insert.
-            ContentValues locationValues = new ContentValues();
-
-            // Then add the data, along with the corresponding name of the data type,
-            // so the content provider knows what kind of value is being inserted.
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
-
-            // Finally, insert location data into the database.
-            Uri insertedUri = getContext().getContentResolver().insert(
-                    WeatherContract.LocationEntry.CONTENT_URI,
-                    locationValues
-            );
-
-            // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
-            locationId = ContentUris.parseId(insertedUri);
-        }
-
-        locationCursor.close();
-        // Wait, that worked?  Yes!
-        return locationId;
+    // Only sets the city of a stored location, whose other values are left as they are
+    private static ContentValues newLocationCityIdValues(String locationSetting, long cityId) {
+        ContentValues values = new ContentValues();
+        values.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        values.put(WeatherContract.LocationEntry.COLUMN_CITY_ID, cityId);
+        return values;
     }
 
     /**
@@ -605,15 +826,22 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     }
 
     /**
-     * Helper method to have the sync adapter sync immediately
+     * Helper method to have the sync adapter sync the preferred location immediately
      * @param context The context used to access the account service
      */
     public static void syncImmediately(Context context) {
-        Bundle bundle = new Bundle();
-        bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
-        bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
-        ContentResolver.requestSync(getSyncAccount(context),
-                context.getString(R.string.content_authority), bundle);
+        syncImmediately(context, Utility.getPreferredLocation(context));
+    }
+
+    /**
+     * Helper method to have the sync adapter sync a location immediately.  Calls made in
+     * quick succession, or while a sync is running, are merged into one sync by
+     * {@link SyncCoalescer}.
+     * @param context The context used to access the account service
+     * @param locationSetting The location to sync
+     */
+    public static void syncImmediately(Context context, String locationSetting) {
+        SyncCoalescer.getInstance(context).request(locationSetting);
     }
 
     /**
@@ -625,6 +853,16 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
      * @return a fake account.
      */
     public static Account getSyncAccount(Context context) {
+        long start = SystemClock.elapsedRealtimeNanos();
+        try {
+            return findOrAddSyncAccount(context);
+        } finally {
+            SyncTimings.getInstance().record(SyncTimings.STAGE_ACCOUNT_LOOKUP,
+                    SystemClock.elapsedRealtimeNanos() - start);
+        }
+    }
+
+    private static Account findOrAddSyncAccount(Context context) {
         // Get an instance of the Android account manager
         AccountManager accountManager =
                 (AccountManager) context.getSystemService(Context.ACCOUNT_SERVICE);
@@ -677,15 +915,25 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     }
 
     /**
-     * Sets the location status into shared preference.  This function should not be called from
-     * the UI thread because it uses commit to write to the shared preferences.
+     * Sets the location status of a location.  The status of the preferred location goes into
+     * the shared preference the UI listens to; every location's status also goes into a
+     * preference file of its own.  This function should not be called from the UI thread
+     * because it uses commit to write to the shared preferences.
      * @param c Context to get the PreferenceManager from.
+     * @param locationSetting The location whose status this is
      * @param locationStatus The IntDef value to set
      */
-    static private void setLocationStatus(Context c, @LocationStatus int locationStatus){
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
-        SharedPreferences.Editor spe = sp.edit();
-        spe.putInt(c.getString(R.string.pref_location_status_key), locationStatus);
-        spe.commit();
+    static private void setLocationStatus(Context c, String locationSetting,
+                                          @LocationStatus int locationStatus){
+        c.getSharedPreferences(LOCATION_STATUS_PREFS_NAME, Context.MODE_PRIVATE).edit()
+                .putInt(locationSetting, locationStatus)
+                .commit();
+
+        if (locationSetting.equals(Utility.getPreferredLocation(c))) {
+            SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
+            SharedPreferences.Editor spe = sp.edit();
+            spe.putInt(c.getString(R.string.pref_location_status_key), locationStatus);
+            spe.commit();
+        }
     }
-}
\ No newline at end of file
+}
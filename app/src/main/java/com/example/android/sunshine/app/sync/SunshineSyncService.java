@@ -5,6 +5,9 @@ import android.content.Intent;
 import android.os.IBinder;
 import android.util.Log;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
 public class SunshineSyncService extends Service {
     private static final Object sSyncAdapterLock = new Object();
     private static SunshineSyncAdapter sSunshineSyncAdapter = null;
@@ -23,4 +26,22 @@ public class SunshineSyncService extends Service {
     public IBinder onBind(Intent intent) {
         return sSunshineSyncAdapter.getSyncAdapterBinder();
     }
-}
\ No newline at end of file
+
+    /*
+        Prints the sync stage timings, the state of the sync schedule and of the forecast
+        endpoint's circuit breaker, for
+        adb shell dumpsys activity service com.example.android.sunshine.app/.sync.SunshineSyncService
+     */
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        SyncTimings.dump(this, writer);
+        writer.println("Schedule: " + SyncScheduler.getDecisionTrace(this));
+        writer.println("Collapsed sync requests: " +
+                SyncCoalescer.getInstance(this).getCollapsedCount());
+        SyncPublisher publisher = SyncPublisher.getInstance();
+        writer.println("Forecast consumers timed out: " + publisher.getTimedOutCount() +
+                ", coalesced: " + publisher.getCoalescedCount());
+        writer.println("Circuit breaker " +
+                CircuitBreaker.getInstance(this, ForecastFetcher.FORECAST_BASE_URL).describe());
+    }
+}
@@ -36,6 +36,8 @@ public class SunshineWearListener extends WearableListenerService {
         super.onMessageReceived(messageEvent);
 
         if (SunshineWearContract.WEATHER_UPDATE.equalsIgnoreCase(messageEvent.getPath())) {
+            // A watch face asking for the weather is showing it
+            SyncScheduler.recordView(this, SyncScheduler.SURFACE_WEAR);
             final DataMap dataMap = DataMap.fromByteArray(messageEvent.getData());
             final int weatherId = dataMap.getInt(SunshineWearContract.WEATHER_ICON_ID, SunshineWearContract.WEATHER_ICON_NOID);
             final String maxTemp = dataMap.getString(SunshineWearContract.WEATHER_MAXIMUM_TEMPERATURE, null);
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Merges bursts of {@link SunshineSyncAdapter#syncImmediately} calls into single syncs.
+ *
+ * A request opens a short window; every request made during the window, or while the sync it
+ * led to is waiting to start, joins that sync, which then covers the union of the requested
+ * locations.  Requests made while a sync is running are held until it finishes and then
+ * start one more sync between them.
+ */
+public class SyncCoalescer {
+    public static final String LOG_TAG = SyncCoalescer.class.getSimpleName();
+
+    // How long a first request waits for others to join it
+    static final long COALESCE_WINDOW_MILLIS = 1000;
+    // A requested sync that has not started after this long is requested again, in case the
+    // sync framework dropped it
+    static final long STALE_REQUEST_MILLIS = 60 * 1000;
+
+    // Sync extra marking a sync that only covers the locations of a Batch
+    static final String EXTRA_COALESCED = "coalesced";
+
+    /**
+     * The requests one sync covers.
+     */
+    static class Batch {
+        final Set<String> locations;
+        final int requests;
+
+        Batch(Set<String> locations, int requests) {
+            this.locations = Collections.unmodifiableSet(locations);
+            this.requests = requests;
+        }
+
+        // Requests that did not need a sync of their own
+        int getCollapsed() {
+            return requests - 1;
+        }
+    }
+
+    private static SyncCoalescer sInstance;
+
+    private final Context mContext;
+    private final Handler mHandler;
+    private final Runnable mDispatch = new Runnable() {
+        @Override
+        public void run() {
+            dispatch();
+        }
+    };
+
+    private LinkedHashSet<String> mPendingLocations = new LinkedHashSet<String>();
+    private int mPendingRequests;
+    private boolean mWindowOpen;
+    private boolean mRequested;
+    private long mRequestedAt;
+    private boolean mRunning;
+    private int mCollapsedCount;
+
+    SyncCoalescer(Context context) {
+        mContext = context.getApplicationContext();
+        mHandler = new Handler(Looper.getMainLooper());
+    }
+
+    public static synchronized SyncCoalescer getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new SyncCoalescer(context);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Asks for an expedited sync of a location, merging it with the other requests around it.
+     */
+    public synchronized void request(String locationSetting) {
+        mPendingLocations.add(locationSetting);
+        mPendingRequests++;
+        if (mRequested && SystemClock.elapsedRealtime() - mRequestedAt > STALE_REQUEST_MILLIS) {
+            Log.w(LOG_TAG, "Requested sync has not started, requesting it again");
+            mRequested = false;
+        }
+        if (!mWindowOpen && !mRequested && !mRunning) {
+            mWindowOpen = true;
+            mHandler.postDelayed(mDispatch, COALESCE_WINDOW_MILLIS);
+        }
+    }
+
+    /**
+     * How many requests, since the process started, were merged into another's sync.
+     */
+    public synchronized int getCollapsedCount() {
+        return mCollapsedCount;
+    }
+
+    /**
+     * Called by the sync adapter when a sync starts.
+     *
+     * @param coalesced whether the sync was requested by this class
+     * @return the requests the sync covers, or null if it should cover every location: it
+     * is not a coalesced sync, or one the sync framework ran again with nothing pending.
+     */
+    synchronized Batch onSyncStarted(boolean coalesced) {
+        mRunning = true;
+        if (!coalesced) {
+            return null;
+        }
+        mRequested = false;
+        if (mPendingLocations.isEmpty()) {
+            return null;
+        }
+        Batch batch = new Batch(mPendingLocations, mPendingRequests);
+        mPendingLocations = new LinkedHashSet<String>();
+        mPendingRequests = 0;
+        mCollapsedCount += Math.max(0, batch.getCollapsed());
+        return batch;
+    }
+
+    /**
+     * Called by the sync adapter when a sync ends, however it ends.
+     */
+    synchronized void onSyncFinished() {
+        mRunning = false;
+        if (!mPendingLocations.isEmpty() && !mRequested && !mWindowOpen) {
+            // These already waited for the sync that just finished
+            mWindowOpen = true;
+            mHandler.post(mDispatch);
+        }
+    }
+
+    private synchronized void dispatch() {
+        mWindowOpen = false;
+        if (mRunning || mRequested || mPendingLocations.isEmpty()) {
+            return;
+        }
+        mRequested = true;
+        mRequestedAt = SystemClock.elapsedRealtime();
+
+        Bundle bundle = new Bundle();
+        bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
+        bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
+        bundle.putBoolean(EXTRA_COALESCED, true);
+        requestSync(bundle);
+    }
+
+    // Hands the merged request to the sync framework
+    void requestSync(Bundle extras) {
+        ContentResolver.requestSync(SunshineSyncAdapter.getSyncAccount(mContext),
+                mContext.getString(R.string.content_authority), extras);
+    }
+}
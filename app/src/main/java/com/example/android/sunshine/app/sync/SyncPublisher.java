@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The publish stage of a sync: tells everything that shows the preferred location's forecast
+ * that it changed, off the sync thread.
+ *
+ * Every consumer runs on a thread of its own, at the same time as the others, and is
+ * interrupted once it has run for longer than its timeout, so neither the sync nor the other
+ * consumers wait for a slow one.  A consumer that is published to while it is still running
+ * from an earlier sync runs once more when it finishes, however many syncs asked meanwhile.
+ */
+public class SyncPublisher {
+    public static final String LOG_TAG = SyncPublisher.class.getSimpleName();
+
+    /**
+     * Something that shows the forecast, such as the widgets or the wear devices.
+     */
+    abstract static class Consumer implements Runnable {
+        // Also the SyncTimings stage its runs are timed under
+        final String name;
+        final long timeoutMillis;
+
+        Consumer(String name, long timeoutMillis) {
+            this.name = name;
+            this.timeoutMillis = timeoutMillis;
+        }
+    }
+
+    private static SyncPublisher sInstance;
+
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+    private final ScheduledExecutorService mWatchdog =
+            Executors.newSingleThreadScheduledExecutor();
+    private final SyncTimings mTimings;
+
+    // consumer name -> its run in progress
+    private final Map<String, Dispatch> mRunning = new HashMap<String, Dispatch>();
+    // consumer name -> the consumer to run again once its run in progress is over
+    private final Map<String, Consumer> mPending = new HashMap<String, Consumer>();
+    private int mTimedOutCount;
+    private int mCoalescedCount;
+
+    SyncPublisher(SyncTimings timings) {
+        mTimings = timings;
+    }
+
+    public static synchronized SyncPublisher getInstance() {
+        if (sInstance == null) {
+            sInstance = new SyncPublisher(SyncTimings.getInstance());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Starts every consumer, or queues it behind its run in progress, and returns at once.
+     */
+    synchronized void publish(List<Consumer> consumers) {
+        for (Consumer consumer : consumers) {
+            if (mRunning.containsKey(consumer.name)) {
+                if (mPending.put(consumer.name, consumer) != null) {
+                    mCoalescedCount++;
+                }
+            } else {
+                start(consumer);
+            }
+        }
+    }
+
+    /**
+     * How many consumer runs, since the process started, were interrupted for taking too long.
+     */
+    public synchronized int getTimedOutCount() {
+        return mTimedOutCount;
+    }
+
+    /**
+     * How many publishes to a busy consumer, since the process started, were merged into
+     * another's run.
+     */
+    public synchronized int getCoalescedCount() {
+        return mCoalescedCount;
+    }
+
+    /**
+     * Whether no consumer is running or waiting to.
+     */
+    synchronized boolean isIdle() {
+        return mRunning.isEmpty() && mPending.isEmpty();
+    }
+
+    // Must hold the lock
+    private void start(Consumer consumer) {
+        final Dispatch dispatch = new Dispatch(consumer);
+        mRunning.put(consumer.name, dispatch);
+        dispatch.future = mExecutor.submit(dispatch);
+        mWatchdog.schedule(new Runnable() {
+            @Override
+            public void run() {
+                dispatch.timeOut();
+            }
+        }, consumer.timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /*
+        Frees the consumer for its next run, once its run finished or timed out, whichever
+        comes first.
+     */
+    private synchronized void onFinished(Dispatch dispatch, boolean timedOut) {
+        if (mRunning.get(dispatch.consumer.name) != dispatch) {
+            // Already freed
+            return;
+        }
+        mRunning.remove(dispatch.consumer.name);
+        mTimings.record(dispatch.consumer.name,
+                SystemClock.elapsedRealtimeNanos() - dispatch.startNanos);
+        if (timedOut) {
+            mTimedOutCount++;
+            Log.w(LOG_TAG, dispatch.consumer.name + " timed out after " +
+                    dispatch.consumer.timeoutMillis + "ms");
+        }
+        Consumer next = mPending.remove(dispatch.consumer.name);
+        if (next != null) {
+            start(next);
+        }
+    }
+
+    /**
+     * One run of a consumer.
+     */
+    private class Dispatch implements Runnable {
+        final Consumer consumer;
+        final long startNanos = SystemClock.elapsedRealtimeNanos();
+        volatile Future<?> future;
+
+        Dispatch(Consumer consumer) {
+            this.consumer = consumer;
+        }
+
+        @Override
+        public void run() {
+            try {
+                consumer.run();
+            } catch (RuntimeException e) {
+                // One consumer failing must not keep the others from the new forecast
+                Log.e(LOG_TAG, consumer.name + " failed", e);
+            } finally {
+                onFinished(this, false);
+            }
+        }
+
+        void timeOut() {
+            if (future.cancel(true)) {
+                onFinished(this, true);
+            }
+        }
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.appwidget.AppWidgetManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.support.annotation.IntDef;
+import android.util.Log;
+
+import com.example.android.sunshine.app.widget.DetailWidgetProvider;
+import com.example.android.sunshine.app.widget.TodayWidgetProvider;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.Calendar;
+
+/**
+ * Picks the interval of the periodic sync from what the last syncs found and how the forecast
+ * is being used, instead of syncing every {@link SunshineSyncAdapter#SYNC_INTERVAL} seconds
+ * regardless.
+ *
+ * Starting from the base interval, it backs off while forecasts keep coming back unchanged or
+ * syncs keep failing, at night, and when nobody has looked at the forecast for a day, and
+ * tightens when the forecast is volatile or has just been looked at.  Each decision is kept,
+ * with the reasons for it, for {@link #getDecisionTrace(Context)}.
+ */
+public class SyncScheduler {
+    public static final String LOG_TAG = SyncScheduler.class.getSimpleName();
+
+    private static final String PREFS_NAME = "sync_schedule";
+    private static final String KEY_LAST_VIEW = "last_view_";
+    private static final String KEY_UNCHANGED_STREAK = "unchanged_streak";
+    private static final String KEY_FAILURE_STREAK = "failure_streak";
+    private static final String KEY_INTERVAL = "interval";
+    private static final String KEY_TRACE = "trace";
+
+    // Bounds of the chosen interval, in seconds
+    static final int MIN_INTERVAL = 60 * 60;
+    static final int MAX_INTERVAL = 60 * 60 * 12;
+
+    // A sync that changed at least this share of the days it compared is volatile
+    static final double VOLATILE_CHANGE_RATIO = 0.5;
+    // Back-off exponents stop growing after this many unchanged or failed syncs in a row
+    private static final int MAX_BACKOFF_STEPS = 3;
+
+    private static final long HOUR_IN_MILLIS = 1000 * 60 * 60;
+    // A view within this long before a sync counts as recent
+    static final long RECENT_VIEW_MILLIS = HOUR_IN_MILLIS;
+    // Without a view for this long, and no widget on screen, the device counts as idle
+    static final long IDLE_MILLIS = 24 * HOUR_IN_MILLIS;
+    // Local hours, [start, end), in which nobody is expected to look at the forecast
+    static final int NIGHT_START_HOUR = 0;
+    static final int NIGHT_END_HOUR = 6;
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({SURFACE_APP, SURFACE_WEAR})
+    public @interface Surface {}
+
+    public static final int SURFACE_APP = 0;
+    public static final int SURFACE_WEAR = 1;
+
+    /**
+     * What a scheduling decision is based on.
+     */
+    static class Signals {
+        // Share of the compared days the last sync changed, or -1 if it compared none
+        double changeRatio = -1;
+        // Syncs in a row, including the last one, that changed nothing
+        int unchangedStreak;
+        // Syncs in a row, including the last one, in which no request succeeded
+        int failureStreak;
+        // Local hour of day, 0-23
+        int hourOfDay;
+        // Time since the app or a watch face last showed the forecast, or Long.MAX_VALUE
+        long millisSinceView = Long.MAX_VALUE;
+        // Whether one of our widgets is on a home screen
+        boolean hasWidgets;
+    }
+
+    /**
+     * The interval and flex time to schedule, in seconds, and why.
+     */
+    static class Decision {
+        final int interval;
+        final int flexTime;
+        final String trace;
+
+        Decision(int interval, String trace) {
+            this.interval = interval;
+            this.flexTime = interval / 3;
+            this.trace = trace;
+        }
+    }
+
+    /**
+     * Records that the forecast was just shown on a surface.
+     */
+    public static void recordView(Context context, @Surface int surface) {
+        getPreferences(context).edit()
+                .putLong(KEY_LAST_VIEW + surface, System.currentTimeMillis())
+                .apply();
+    }
+
+    /**
+     * Returns the last decision, with the signals and factors that produced it, or null if no
+     * sync has finished yet.
+     */
+    public static String getDecisionTrace(Context context) {
+        return getPreferences(context).getString(KEY_TRACE, null);
+    }
+
+    /**
+     * Updates the signals with the outcome of a sync, and reschedules the periodic sync if
+     * they call for a different interval.
+     *
+     * @param changedDays forecast days the sync inserted, updated or deleted
+     * @param comparedDays forecast days the sync received, including unchanged ones
+     * @param failed whether no request of the sync succeeded
+     */
+    static void onSyncFinished(Context context, int changedDays, int comparedDays,
+                               boolean failed) {
+        SharedPreferences sp = getPreferences(context);
+        Signals signals = new Signals();
+        signals.failureStreak = failed ? sp.getInt(KEY_FAILURE_STREAK, 0) + 1 : 0;
+        signals.unchangedStreak = !failed && changedDays == 0
+                ? sp.getInt(KEY_UNCHANGED_STREAK, 0) + 1 : 0;
+        if (comparedDays > 0) {
+            signals.changeRatio = (double) changedDays / comparedDays;
+        }
+        signals.hourOfDay = Calendar.getInstance().get(Calendar.HOUR_OF_DAY);
+        long lastView = Math.max(sp.getLong(KEY_LAST_VIEW + SURFACE_APP, 0),
+                sp.getLong(KEY_LAST_VIEW + SURFACE_WEAR, 0));
+        if (lastView > 0) {
+            signals.millisSinceView = Math.max(0, System.currentTimeMillis() - lastView);
+        }
+        signals.hasWidgets = hasWidgets(context);
+
+        Decision decision = decide(SunshineSyncAdapter.SYNC_INTERVAL, signals);
+        Log.d(LOG_TAG, decision.trace);
+
+        boolean reschedule = decision.interval != sp.getInt(KEY_INTERVAL, 0);
+        sp.edit()
+                .putInt(KEY_FAILURE_STREAK, signals.failureStreak)
+                .putInt(KEY_UNCHANGED_STREAK, signals.unchangedStreak)
+                .putInt(KEY_INTERVAL, decision.interval)
+                .putString(KEY_TRACE, decision.trace)
+                .apply();
+        if (reschedule) {
+            SunshineSyncAdapter.configurePeriodicSync(context, decision.interval,
+                    decision.flexTime);
+        }
+    }
+
+    /**
+     * Applies the scheduling rules to the signals.  Each rule scales the interval, and the
+     * result is kept within [{@link #MIN_INTERVAL}, {@link #MAX_INTERVAL}].
+     */
+    static Decision decide(int baseInterval, Signals signals) {
+        StringBuilder trace = new StringBuilder();
+        trace.append("base ").append(baseInterval / 60).append("min");
+        double interval = baseInterval;
+
+        if (signals.failureStreak > 0) {
+            int factor = 1 << Math.min(signals.failureStreak, MAX_BACKOFF_STEPS);
+            interval *= factor;
+            trace.append(", failed ").append(signals.failureStreak).append("x: *").append(factor);
+        } else if (signals.changeRatio >= VOLATILE_CHANGE_RATIO) {
+            interval *= 0.5;
+            trace.append(", changed ").append(Math.round(signals.changeRatio * 100))
+                    .append("%: *0.5");
+        } else if (signals.unchangedStreak > 0) {
+            int factor = 1 << Math.min(signals.unchangedStreak, MAX_BACKOFF_STEPS);
+            interval *= factor;
+            trace.append(", unchanged ").append(signals.unchangedStreak).append("x: *")
+                    .append(factor);
+        }
+
+        if (signals.millisSinceView <= RECENT_VIEW_MILLIS) {
+            interval *= 0.75;
+            trace.append(", viewed ").append(signals.millisSinceView / (60 * 1000))
+                    .append("min ago: *0.75");
+        } else if (!signals.hasWidgets && signals.millisSinceView > IDLE_MILLIS) {
+            interval *= 2;
+            trace.append(", idle: *2");
+        }
+
+        if (signals.hourOfDay >= NIGHT_START_HOUR && signals.hourOfDay < NIGHT_END_HOUR) {
+            interval *= 2;
+            trace.append(", night: *2");
+        }
+
+        int seconds = (int) Math.max(MIN_INTERVAL, Math.min(MAX_INTERVAL, interval));
+        trace.append(" = ").append(seconds / 60).append("min");
+        if (seconds != (int) interval) {
+            trace.append(" (clamped)");
+        }
+        return new Decision(seconds, trace.toString());
+    }
+
+    private static boolean hasWidgets(Context context) {
+        AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(context);
+        return appWidgetManager.getAppWidgetIds(
+                new ComponentName(context, TodayWidgetProvider.class)).length > 0 ||
+                appWidgetManager.getAppWidgetIds(
+                        new ComponentName(context, DetailWidgetProvider.class)).length > 0;
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.SyncTimingEntry;
+
+import java.io.PrintWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Times the stages of a sync into fixed-bucket histograms.
+ *
+ * Timings are counted in memory as they are recorded, from whichever thread runs the stage,
+ * and added to the sync_timing table by {@link #flush(Context)} at the end of each sync, so
+ * the histograms cover every sync since the database was created.  They can be read through
+ * {@link SyncTimingEntry#CONTENT_URI}, or printed with
+ * {@code adb shell dumpsys activity service .sync.SunshineSyncService}.
+ */
+public class SyncTimings {
+    public static final String LOG_TAG = SyncTimings.class.getSimpleName();
+
+    // Looking up, or creating, the sync account
+    public static final String STAGE_ACCOUNT_LOOKUP = "account_lookup";
+    // Opening the connection to OWM, including DNS and TCP
+    public static final String STAGE_CONNECT = "connect";
+    // From sending the request to the response headers arriving
+    public static final String STAGE_TTFB = "ttfb";
+    // Waiting for the body, while it is parsed
+    public static final String STAGE_DOWNLOAD = "download";
+    // Parsing and hashing the body, without the time spent waiting for it
+    public static final String STAGE_PARSE = "parse";
+    // Writing the forecast days of one transaction, without the trim
+    public static final String STAGE_DB_WRITE = "db_write";
+    // Deleting the days before the new forecast windows
+    public static final String STAGE_TRIM = "trim";
+    // Each consumer of a new forecast, from SyncPublisher starting it to it finishing or
+    // timing out
+    public static final String STAGE_WIDGETS = "widgets";
+    public static final String STAGE_MUZEI = "muzei";
+    public static final String STAGE_NOTIFICATION = "notification";
+    public static final String STAGE_WEAR = "wear";
+    // A whole sync, from onPerformSync() being called to it returning
+    public static final String STAGE_TOTAL = "total";
+
+    private static final long NANOS_PER_MILLI = 1000 * 1000;
+
+    private static SyncTimings sInstance;
+
+    // stage -> count per bucket, since the last flush
+    private Map<String, long[]> mPending = new LinkedHashMap<String, long[]>();
+
+    SyncTimings() {
+    }
+
+    public static synchronized SyncTimings getInstance() {
+        if (sInstance == null) {
+            sInstance = new SyncTimings();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Counts one timing of a stage.
+     *
+     * @param nanos how long the stage took, from {@link android.os.SystemClock#elapsedRealtimeNanos}
+     */
+    public synchronized void record(String stage, long nanos) {
+        long[] counts = mPending.get(stage);
+        if (counts == null) {
+            counts = new long[SyncTimingEntry.BUCKET_BOUNDS.length];
+            mPending.put(stage, counts);
+        }
+        counts[SyncTimingEntry.getBucket(nanos / NANOS_PER_MILLI)]++;
+    }
+
+    /**
+     * Adds the timings recorded since the last flush to the stored histograms.  Must not be
+     * called from the UI thread.
+     */
+    void flush(Context context) {
+        Map<String, long[]> pending;
+        synchronized (this) {
+            if (mPending.isEmpty()) {
+                return;
+            }
+            pending = mPending;
+            mPending = new LinkedHashMap<String, long[]>();
+        }
+
+        Bundle extras = new Bundle();
+        for (Map.Entry<String, long[]> stage : pending.entrySet()) {
+            extras.putLongArray(stage.getKey(), stage.getValue());
+        }
+        try {
+            context.getContentResolver().call(SyncTimingEntry.CONTENT_URI,
+                    WeatherContract.METHOD_RECORD_TIMINGS, null, extras);
+        } catch (RuntimeException e) {
+            // The timings are only diagnostics; never fail a sync over them
+            Log.e(LOG_TAG, "Could not store sync timings", e);
+        }
+    }
+
+    /**
+     * Prints the stored histogram of every stage, one line each.
+     */
+    static void dump(Context context, PrintWriter writer) {
+        Map<String, long[]> histograms = new LinkedHashMap<String, long[]>();
+        Cursor cursor = context.getContentResolver().query(SyncTimingEntry.CONTENT_URI,
+                new String[]{SyncTimingEntry.COLUMN_STAGE, SyncTimingEntry.COLUMN_BUCKET,
+                        SyncTimingEntry.COLUMN_COUNT},
+                null, null, SyncTimingEntry.COLUMN_STAGE + ", " + SyncTimingEntry.COLUMN_BUCKET);
+        if (cursor == null) {
+            writer.println("Sync timings unavailable");
+            return;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                String stage = cursor.getString(0);
+                long[] counts = histograms.get(stage);
+                if (counts == null) {
+                    counts = new long[SyncTimingEntry.BUCKET_BOUNDS.length];
+                    histograms.put(stage, counts);
+                }
+                int bucket = indexOfBound(cursor.getLong(1));
+                if (bucket >= 0) {
+                    counts[bucket] += cursor.getLong(2);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        writer.println("Sync timings (ms):");
+        if (histograms.isEmpty()) {
+            writer.println("  none recorded");
+        }
+        for (Map.Entry<String, long[]> stage : histograms.entrySet()) {
+            writer.print("  ");
+            writer.println(formatHistogram(stage.getKey(), stage.getValue()));
+        }
+    }
+
+    /**
+     * Formats one stage's histogram as its sample count, the buckets its median, 90th and
+     * 99th percentiles fall into, and its non-empty buckets, e.g.
+     * "connect n=12 p50<100 p90<200 p99<500 [<50:3 <100:6 <200:2 <500:1]".
+     */
+    static String formatHistogram(String stage, long[] counts) {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        StringBuilder line = new StringBuilder(stage).append(" n=").append(total);
+        if (total == 0) {
+            return line.toString();
+        }
+        line.append(" p50").append(formatBucket(percentileBucket(counts, total, 50)))
+                .append(" p90").append(formatBucket(percentileBucket(counts, total, 90)))
+                .append(" p99").append(formatBucket(percentileBucket(counts, total, 99)))
+                .append(" [");
+        boolean first = true;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == 0) {
+                continue;
+            }
+            if (!first) {
+                line.append(' ');
+            }
+            line.append(formatBucket(i)).append(':').append(counts[i]);
+            first = false;
+        }
+        return line.append(']').toString();
+    }
+
+    // The bucket holding the given percentile of the samples
+    private static int percentileBucket(long[] counts, long total, int percentile) {
+        long rank = (total * percentile + 99) / 100;
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return i;
+            }
+        }
+        return counts.length - 1;
+    }
+
+    private static String formatBucket(int bucket) {
+        long[] bounds = SyncTimingEntry.BUCKET_BOUNDS;
+        if (bucket == bounds.length - 1) {
+            return ">=" + bounds[bucket - 1];
+        }
+        return "<" + bounds[bucket];
+    }
+
+    private static int indexOfBound(long bound) {
+        long[] bounds = SyncTimingEntry.BUCKET_BOUNDS;
+        for (int i = 0; i < bounds.length; i++) {
+            if (bounds[i] == bound) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.preference.PreferenceManager;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.ForecastBatch;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+/**
+ * Today's forecast for the preferred location, with everything the widgets, Muzei, the
+ * notification and the wear devices show of it already worked out.
+ *
+ * A sync that changes the forecast builds one with {@link #refresh(Context)} and hands it to
+ * each consumer, so today's row is queried and formatted once per sync rather than once per
+ * consumer.  Consumers started on their own use {@link #get(Context)}, which returns the same
+ * instance for as long as it still matches the preferences it was formatted for, the day, and
+ * the stored forecast: the provider serves today's row from memory along with the generation
+ * of its forecasts, which every write moves on, whoever made it.  Snapshots are immutable;
+ * each new one gets a higher {@link #version}.
+ */
+public class TodaySnapshot {
+
+    private static final Object sLock = new Object();
+    private static TodaySnapshot sSnapshot;
+    private static long sVersion;
+
+    public final long version;
+    public final String locationSetting;
+    // Normalized date of the day, as stored in the weather table
+    public final long date;
+    public final int weatherId;
+    public final String description;
+    // In Celsius, as stored
+    public final double high;
+    public final double low;
+    // In the units the user prefers
+    public final String formattedHigh;
+    public final String formattedLow;
+    public final int iconResourceId;
+    public final int artResourceId;
+    // For the preferred art pack, or null if there is no art for the weather
+    public final String artUrl;
+    // Muzei wallpaper, or null if there is none for the weather
+    public final String imageUrl;
+
+    // The preferences, day and forecast generation the snapshot was made for
+    private final String mKey;
+
+    private TodaySnapshot(Context context, long version, String key, String locationSetting,
+                          ForecastBatch day) {
+        this.version = version;
+        this.mKey = key;
+        this.locationSetting = locationSetting;
+        date = day.getDate(0);
+        weatherId = day.getWeatherId(0);
+        description = day.getDescription(0);
+        high = day.getMaxTemp(0);
+        low = day.getMinTemp(0);
+        formattedHigh = Utility.formatTemperature(context, high);
+        formattedLow = Utility.formatTemperature(context, low);
+        iconResourceId = Utility.getIconResourceForWeatherCondition(weatherId);
+        artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
+        artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
+        imageUrl = Utility.getImageUrlForWeatherCondition(weatherId);
+    }
+
+    /**
+     * Returns the current snapshot, building it if there is none yet or the preferred
+     * location, units, art pack, day or stored forecast changed since.
+     *
+     * @return the snapshot, or null if there is no forecast for today.
+     */
+    public static TodaySnapshot get(Context context) {
+        return get(context, false);
+    }
+
+    /**
+     * Builds a new snapshot from the database, for a forecast that has just been stored.
+     *
+     * @return the snapshot, or null if there is no forecast for today.
+     */
+    public static TodaySnapshot refresh(Context context) {
+        return get(context, true);
+    }
+
+    private static TodaySnapshot get(Context context, boolean rebuild) {
+        synchronized (sLock) {
+            String locationSetting = Utility.getPreferredLocation(context);
+            // Served from the provider's memory unless a write dropped it, so this is cheap
+            // next to the formatting it saves
+            Bundle result = context.getContentResolver().call(
+                    WeatherContract.WeatherEntry.CONTENT_URI, WeatherContract.METHOD_GET_TODAY,
+                    locationSetting, null);
+            if (result == null) {
+                return null;
+            }
+            String key = getKey(context, result.getLong(WeatherContract.EXTRA_GENERATION));
+            if (!rebuild && sSnapshot != null && sSnapshot.mKey.equals(key)) {
+                return sSnapshot;
+            }
+            ForecastBatch day = ForecastBatch.fromBundle(result);
+            sSnapshot = day.size() > 0
+                    ? new TodaySnapshot(context, ++sVersion, key, locationSetting, day)
+                    : null;
+            return sSnapshot;
+        }
+    }
+
+    // Everything the snapshot's values depend on, the forecast through its generation
+    private static String getKey(Context context, long generation) {
+        String artPack = PreferenceManager.getDefaultSharedPreferences(context).getString(
+                context.getString(R.string.pref_art_pack_key),
+                context.getString(R.string.pref_art_pack_sunshine));
+        return Utility.getPreferredLocation(context) + '|' + Utility.isMetric(context) + '|' +
+                artPack + '|' + WeatherContract.normalizeDate(System.currentTimeMillis()) + '|' +
+                generation;
+    }
+}